@@ -0,0 +1,243 @@
+// Lays out every function of the current program with the Rizin layout on a
+// pool of worker threads, and writes the result to a JSON lines file: one
+// line per function with its blocks (start address, row, column, center) and
+// edges (source and target block, articulations), plus the time taken. Lines
+// are written as functions are done, so in no particular order. A summary
+// with the slowest functions is printed and written next to it.
+//
+// Headless:
+//   analyzeHeadless <project dir> <project> -process <program> -noanalysis
+//       -postScript RizinBatchLayoutScript.java <output file> [threads] [corpus]
+//
+// With a corpus file, or the rizinLayout.record system property, the graphs
+// are also recorded there, without addresses nor names, to be replayed with
+// gradle replay away from the program.
+//
+// Each function is laid out alone, with edge routing kept on one thread, so
+// the functions themselves are what runs in parallel.
+//@category Graph
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ghidra.app.script.GhidraScript;
+import ghidra.program.model.listing.Function;
+import ghidra.util.task.TaskMonitor;
+import rizinLayout.FunctionBlockGraph;
+import rizinLayout.engine.*;
+
+public class RizinBatchLayoutScript extends GhidraScript {
+
+	private static final int SLOWEST_REPORTED = 20;
+
+	private static class Result {
+		Function function;
+		int blocks;
+		int edges;
+		long buildNanos;
+		long layoutNanos;
+		String line;
+
+		long totalNanos() {
+			return buildNanos + layoutNanos;
+		}
+	}
+
+	@Override
+	protected void run() throws Exception {
+		String[] args = getScriptArgs();
+		File output = args.length > 0 ? new File(args[0])
+				: askFile("Batch layout output", "Save");
+		int threads = args.length > 1 ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors();
+		TopologyRecorder recorder = args.length > 2 ? new TopologyRecorder(new File(args[2]).toPath())
+				: TopologyRecorder.fromSystemProperties();
+
+		List<Function> functions = new ArrayList<Function>();
+		for (Function function : currentProgram.getFunctionManager().getFunctions(true)) {
+			if (!function.isExternal()) {
+				functions.add(function);
+			}
+		}
+
+		LayoutMonitor layoutMonitor = new LayoutMonitor() {
+			@Override
+			public boolean isCancelled() {
+				return monitor.isCancelled();
+			}
+
+			@Override
+			public void setMessage(String message) {
+				// The workers share the script monitor, only the script reports
+			}
+
+			@Override
+			public void initialize(long max) {
+				// idem
+			}
+
+			@Override
+			public void setProgress(long value) {
+				// idem
+			}
+		};
+		LayoutBudget budget = LayoutBudget.fromSystemProperties();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		// Hands out results as they are done, so none waits for a slower one
+		CompletionService<Result> completed = new ExecutorCompletionService<Result>(pool);
+		long start = System.nanoTime();
+		for (Function function : functions) {
+			completed.submit(() -> layout(function, layoutMonitor, budget, recorder));
+		}
+
+		int laidOut = 0;
+		long busyNanos = 0;
+		PriorityQueue<Result> slowest =
+			new PriorityQueue<Result>(Comparator.comparingLong(Result::totalNanos));
+		monitor.initialize(functions.size());
+		monitor.setMessage("Laying out " + functions.size() + " functions");
+		try (Writer writer = new BufferedWriter(
+			new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8))) {
+			for (int i = 0; i < functions.size(); i++) {
+				monitor.checkCancelled();
+				Result result;
+				try {
+					result = completed.take().get();
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof LayoutCancelledException) {
+						monitor.checkCancelled();
+					}
+					throw e;
+				}
+				monitor.incrementProgress(1);
+				if (result == null) {
+					continue;
+				}
+				writer.write(result.line);
+				writer.write('\n');
+				result.line = null;
+
+				laidOut++;
+				busyNanos += result.totalNanos();
+				slowest.add(result);
+				if (slowest.size() > SLOWEST_REPORTED) {
+					slowest.poll();
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		long wallNanos = System.nanoTime() - start;
+
+		List<Result> outliers = new ArrayList<Result>(slowest);
+		outliers.sort(Comparator.comparingLong(Result::totalNanos).reversed());
+		StringBuilder summary = new StringBuilder();
+		summary.append(String.format("%d functions laid out in %.1f s on %d threads, %.1f s of work (%.1fx)%n",
+			laidOut, wallNanos / 1e9, threads, busyNanos / 1e9, (double) busyNanos / wallNanos));
+		summary.append(String.format("Slowest %d:%n", outliers.size()));
+		for (Result result : outliers) {
+			summary.append(String.format("  %s %s: %d blocks, %d edges, %.1f ms (graph %.1f ms, layout %.1f ms)%n",
+				result.function.getEntryPoint(), result.function.getName(), result.blocks,
+				result.edges, result.totalNanos() / 1e6, result.buildNanos / 1e6,
+				result.layoutNanos / 1e6));
+		}
+		try (Writer writer = new OutputStreamWriter(
+			new FileOutputStream(output.getPath() + ".summary.txt"), StandardCharsets.UTF_8)) {
+			writer.write(summary.toString());
+		}
+		println(summary.toString());
+	}
+
+	private Result layout(Function function, LayoutMonitor layoutMonitor, LayoutBudget budget,
+			TopologyRecorder recorder) throws Exception {
+		long start = System.nanoTime();
+		FunctionBlockGraph blockGraph = FunctionBlockGraph.build(function, TaskMonitor.DUMMY);
+		if (blockGraph == null) {
+			return null;
+		}
+		long built = System.nanoTime();
+
+		RizinLayoutEngine engine = new RizinLayoutEngine(blockGraph.graph);
+		engine.setMonitor(layoutMonitor);
+		engine.setBudget(budget);
+		engine.setParallelRouting(false);
+		LayoutResult layout = engine.layout();
+		long laidOut = System.nanoTime();
+		if (recorder != null) {
+			recorder.record(blockGraph.graph);
+		}
+
+		Result result = new Result();
+		result.function = function;
+		result.blocks = blockGraph.graph.getVertexCount();
+		result.edges = blockGraph.graph.getEdgeCount();
+		result.buildNanos = built - start;
+		result.layoutNanos = laidOut - built;
+		result.line = toJson(blockGraph, layout, engine.isDegraded(), result);
+		return result;
+	}
+
+	private static String toJson(FunctionBlockGraph blockGraph, LayoutResult layout,
+			boolean degraded, Result result) {
+		LayoutGraph g = blockGraph.graph;
+		StringBuilder sb = new StringBuilder(64 + g.getVertexCount() * 48 + g.getEdgeCount() * 64);
+		sb.append("{\"entry\":\"").append(blockGraph.function.getEntryPoint()).append('"');
+		sb.append(",\"name\":");
+		appendString(sb, blockGraph.function.getName());
+		sb.append(",\"rows\":").append(layout.grid.rows);
+		sb.append(",\"columns\":").append(layout.grid.columns);
+		sb.append(",\"degraded\":").append(degraded);
+		sb.append(String.format(Locale.ROOT, ",\"graphMs\":%.3f,\"layoutMs\":%.3f",
+			result.buildNanos / 1e6, result.layoutNanos / 1e6));
+
+		sb.append(",\"blocks\":[");
+		for (int v = 0; v < g.getVertexCount(); v++) {
+			if (v != 0) {
+				sb.append(',');
+			}
+			sb.append("[\"").append(blockGraph.blocks[v]).append("\",");
+			sb.append(layout.grid.row[v]).append(',').append(layout.grid.col[v]).append(',');
+			sb.append(layout.space.getVertexX(v)).append(',').append(layout.space.getVertexY(v));
+			sb.append(']');
+		}
+		sb.append("],\"edges\":[");
+		EdgeArticulations articulations = layout.articulations;
+		for (int e = 0; e < g.getEdgeCount(); e++) {
+			if (e != 0) {
+				sb.append(',');
+			}
+			sb.append('[').append(g.getEdgeFrom(e)).append(',').append(g.getEdgeTo(e)).append(",[");
+			for (int p = 0; p < articulations.getPointCount(e); p++) {
+				if (p != 0) {
+					sb.append(',');
+				}
+				sb.append(articulations.getX(e, p)).append(',').append(articulations.getY(e, p));
+			}
+			sb.append("]]");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	private static void appendString(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			}
+			else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+}
@@ -0,0 +1,96 @@
+package rizinLayout.engine;
+
+import java.util.Arrays;
+
+/**
+ * Last row blocked by a vertex in every grid column, swept top to bottom by
+ * calculateEdgeMainColumn.
+ *
+ * Kept in a min segment tree, so finding the nearest column on either side
+ * whose blocked row is above a given row costs O(log columns) instead of a
+ * scan of the columns.
+ */
+final class BlockedColumns {
+
+	private final int columns;
+	private final int leaves;
+	private final int[] min;
+
+	/**
+	 * Creates the tree with every column free (blocked row -1).
+	 */
+	BlockedColumns(int columns) {
+		this.columns = columns;
+		this.leaves = Integer.highestOneBit(Math.max(columns - 1, 1)) << 1;
+		this.min = new int[leaves * 2];
+		// Padding leaves are never free
+		Arrays.fill(min, leaves + columns, leaves * 2, Integer.MAX_VALUE);
+		Arrays.fill(min, leaves, leaves + columns, -1);
+		for (int i = leaves - 1; i > 0; i--) {
+			min[i] = Math.min(min[2 * i], min[2 * i + 1]);
+		}
+	}
+
+	int size() {
+		return columns;
+	}
+
+	int get(int col) {
+		return min[leaves + col];
+	}
+
+	void set(int col, int row) {
+		int i = leaves + col;
+		min[i] = row;
+		for (i >>= 1; i > 0; i >>= 1) {
+			min[i] = Math.min(min[2 * i], min[2 * i + 1]);
+		}
+	}
+
+	/**
+	 * Returns the nearest column at or left of col whose blocked row is less
+	 * than topRow, or -1 if there is none.
+	 */
+	int leftMostLessThan(int col, int topRow) {
+		return lastBelow(1, 0, leaves - 1, col, topRow);
+	}
+
+	/**
+	 * Returns the nearest column at or right of col whose blocked row is less
+	 * than topRow, or the column count if there is none.
+	 */
+	int rightMostLessThan(int col, int topRow) {
+		int found = firstBelow(1, 0, leaves - 1, col, topRow);
+		return found == -1 ? columns : found;
+	}
+
+	private int lastBelow(int node, int lo, int hi, int col, int topRow) {
+		if (lo > col || min[node] >= topRow) {
+			return -1;
+		}
+		if (lo == hi) {
+			return lo;
+		}
+		int mid = (lo + hi) >>> 1;
+		int found = lastBelow(2 * node + 1, mid + 1, hi, col, topRow);
+		if (found != -1) {
+			return found;
+		}
+		return lastBelow(2 * node, lo, mid, col, topRow);
+	}
+
+	private int firstBelow(int node, int lo, int hi, int col, int topRow) {
+		if (hi < col || min[node] >= topRow) {
+			return -1;
+		}
+		if (lo == hi) {
+			return lo;
+		}
+		int mid = (lo + hi) >>> 1;
+		int found = firstBelow(2 * node, lo, mid, col, topRow);
+		if (found != -1) {
+			return found;
+		}
+		return firstBelow(2 * node + 1, mid + 1, hi, col, topRow);
+	}
+}
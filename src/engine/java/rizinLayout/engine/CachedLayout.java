@@ -0,0 +1,30 @@
+package rizinLayout.engine;
+
+/**
+ * Layout stored in a {@link LayoutCache}. The grid only depends on the graph
+ * structure, the articulations also depend on the layout space they were
+ * routed in, so they are kept along with the hash of that space.
+ */
+public final class CachedLayout {
+
+	public final GridLayout grid;
+	private long spaceHash;
+	private EdgeArticulations articulations;
+
+	public CachedLayout(GridLayout grid) {
+		this.grid = grid;
+	}
+
+	/**
+	 * Returns the articulations routed in a layout space of the given hash,
+	 * or null if they were routed in another space or not routed yet.
+	 */
+	public synchronized EdgeArticulations getArticulations(long hash) {
+		return articulations != null && spaceHash == hash ? articulations : null;
+	}
+
+	public synchronized void setArticulations(long hash, EdgeArticulations newArticulations) {
+		this.spaceHash = hash;
+		this.articulations = newArticulations;
+	}
+}
@@ -0,0 +1,172 @@
+package rizinLayout.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link LayoutGraph} of a graph whose vertices and edges are objects of the
+ * caller, numbered canonically: vertices by a given order (e.g. by address)
+ * and edges by source then target. The same graph then always gives the same
+ * LayoutGraph, and the same {@link StructuralHash}, whatever order its
+ * vertices and edges are added in, which the layout cache relies on.
+ *
+ * Vertices equal in the order, and edges of a same source and target, keep
+ * the order they were added in, so the order should tell every vertex apart.
+ * Edges of a same source and target can also be merged, for callers that
+ * find each flow once per reference to it.
+ *
+ * @param <V> vertex objects
+ * @param <E> edge objects
+ */
+public final class CanonicalGraph<V, E> {
+
+	public final LayoutGraph graph;
+	private final List<V> vertices;
+	private final List<E> edges;
+
+	private CanonicalGraph(LayoutGraph graph, List<V> vertices, List<E> edges) {
+		this.graph = graph;
+		this.vertices = vertices;
+		this.edges = edges;
+	}
+
+	/**
+	 * Returns the vertices, by vertex id.
+	 */
+	public List<V> getVertices() {
+		return vertices;
+	}
+
+	/**
+	 * Returns the edges, by edge id.
+	 */
+	public List<E> getEdges() {
+		return edges;
+	}
+
+	public static final class Builder<V, E> {
+
+		private final Comparator<? super V> order;
+		private final List<V> vertices;
+		private final List<E> edges;
+		private final List<V> edgeFrom;
+		private final List<V> edgeTo;
+		private int[] width;
+		private int[] height;
+		private V entry;
+		private boolean mergeParallelEdges;
+
+		public Builder(Comparator<? super V> order, int expectedVertices, int expectedEdges) {
+			this.order = order;
+			this.vertices = new ArrayList<V>(expectedVertices);
+			this.edges = new ArrayList<E>(expectedEdges);
+			this.edgeFrom = new ArrayList<V>(expectedEdges);
+			this.edgeTo = new ArrayList<V>(expectedEdges);
+			this.width = new int[Math.max(expectedVertices, 1)];
+			this.height = new int[width.length];
+		}
+
+		public Builder<V, E> addVertex(V v, int w, int h) {
+			if (vertices.size() == width.length) {
+				width = Arrays.copyOf(width, width.length * 2);
+				height = Arrays.copyOf(height, height.length * 2);
+			}
+			width[vertices.size()] = w;
+			height[vertices.size()] = h;
+			vertices.add(v);
+			return this;
+		}
+
+		/**
+		 * Adds an edge between two vertices added before build is called.
+		 */
+		public Builder<V, E> addEdge(E edge, V from, V to) {
+			edges.add(edge);
+			edgeFrom.add(from);
+			edgeTo.add(to);
+			return this;
+		}
+
+		/**
+		 * Sets the vertex the layout starts from. Defaults to the first one in
+		 * the order.
+		 */
+		public Builder<V, E> setEntry(V v) {
+			this.entry = v;
+			return this;
+		}
+
+		/**
+		 * Keeps only the first edge added of every source and target.
+		 */
+		public Builder<V, E> mergeParallelEdges() {
+			this.mergeParallelEdges = true;
+			return this;
+		}
+
+		/**
+		 * @throws IllegalArgumentException if an edge or the entry is not
+		 *  one of the vertices
+		 */
+		public CanonicalGraph<V, E> build() {
+			Integer[] byOrder = sortedIndices(vertices.size(),
+				(a, b) -> order.compare(vertices.get(a), vertices.get(b)));
+			List<V> sortedVertices = new ArrayList<V>(vertices.size());
+			Map<V, Integer> ids = new HashMap<V, Integer>(vertices.size() * 2);
+			LayoutGraph.Builder builder = new LayoutGraph.Builder(vertices.size(), edges.size());
+			for (int i : byOrder) {
+				V v = vertices.get(i);
+				ids.put(v, builder.addVertex(width[i], height[i]));
+				sortedVertices.add(v);
+			}
+			if (entry != null) {
+				builder.setEntry(id(ids, entry));
+			}
+
+			int[] from = new int[edges.size()];
+			int[] to = new int[edges.size()];
+			for (int e = 0; e < edges.size(); e++) {
+				from[e] = id(ids, edgeFrom.get(e));
+				to[e] = id(ids, edgeTo.get(e));
+			}
+			Integer[] byEnds = sortedIndices(edges.size(),
+				(a, b) -> from[a] != from[b] ? Integer.compare(from[a], from[b])
+						: Integer.compare(to[a], to[b]));
+			List<E> sortedEdges = new ArrayList<E>(edges.size());
+			int last = -1;
+			for (int e : byEnds) {
+				if (mergeParallelEdges && last != -1 && from[e] == from[last] && to[e] == to[last]) {
+					continue;
+				}
+				last = e;
+				builder.addEdge(from[e], to[e]);
+				sortedEdges.add(edges.get(e));
+			}
+			return new CanonicalGraph<V, E>(builder.build(),
+				Collections.unmodifiableList(sortedVertices), Collections.unmodifiableList(sortedEdges));
+		}
+
+		private static Integer[] sortedIndices(int count, Comparator<Integer> comparator) {
+			Integer[] indices = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				indices[i] = i;
+			}
+			// Stable, equal elements keep the order they were added in
+			Arrays.sort(indices, comparator);
+			return indices;
+		}
+
+		private int id(Map<V, Integer> ids, V v) {
+			Integer id = ids.get(v);
+			if (id == null) {
+				throw new IllegalArgumentException("not a vertex: " + v);
+			}
+			return id;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package rizinLayout.engine;
+
+import java.util.Arrays;
+
+/**
+ * Storage of the subtree contours (leftSideShape / rightSideShape) built by
+ * assignColumns.
+ *
+ * A contour is a singly linked list of row deltas threaded through two int
+ * arrays, identified by the index of its head cell. Cells are never modified
+ * once their contour is built: changing the head value or joining a contour
+ * onto the tail of another allocates the few cells that differ and shares the
+ * rest. Every
+ * contour built during a layout therefore stays valid until the pool is
+ * dropped, and merging two subtrees costs as much as the shorter of the two
+ * contours instead of a copy of both.
+ *
+ * A layout reusing columns keeps appending to the pool of the layout it reuses
+ * them from, to reuse its contours. The two layouts must not place columns at the
+ * same time.
+ */
+final class ContourPool {
+
+	static final int NIL = -1;
+
+	private int[] value;
+	private int[] next;
+	private int size = 0;
+
+	ContourPool(int expectedCells) {
+		int capacity = Math.max(expectedCells, 16);
+		this.value = new int[capacity];
+		this.next = new int[capacity];
+	}
+
+	int value(int cell) {
+		return value[cell];
+	}
+
+	int next(int cell) {
+		return next[cell];
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Drops the capacity beyond the cells in use.
+	 */
+	void trim() {
+		if (size < value.length) {
+			value = Arrays.copyOf(value, Math.max(size, 16));
+			next = Arrays.copyOf(next, Math.max(size, 16));
+		}
+	}
+
+	long retainedBytes() {
+		return LayoutState.bytes(value) + LayoutState.bytes(next);
+	}
+
+	/**
+	 * Copies the cells of other to the end of this pool, and returns the
+	 * offset to add to a cell of other to find it here.
+	 */
+	int append(ContourPool other) {
+		int base = size;
+		if (size + other.size > value.length) {
+			int capacity = Math.max(value.length * 2, size + other.size);
+			value = Arrays.copyOf(value, capacity);
+			next = Arrays.copyOf(next, capacity);
+		}
+		System.arraycopy(other.value, 0, value, base, other.size);
+		for (int i = 0; i < other.size; i++) {
+			next[base + i] = other.next[i] == NIL ? NIL : other.next[i] + base;
+		}
+		size += other.size;
+		return base;
+	}
+
+	/**
+	 * Allocates a cell holding v followed by the contour starting at tail.
+	 */
+	int cons(int v, int tail) {
+		if (size == value.length) {
+			value = Arrays.copyOf(value, size * 2);
+			next = Arrays.copyOf(next, size * 2);
+		}
+		value[size] = v;
+		next[size] = tail;
+		return size++;
+	}
+
+	/**
+	 * Returns a contour equal to the one starting at cell, with delta added
+	 * to its first value.
+	 */
+	int addToHead(int cell, int delta) {
+		return cons(value[cell] + delta, next[cell]);
+	}
+
+	/**
+	 * Returns the first length values of the contour starting at head,
+	 * followed by the contour starting at tail. Costs length cells.
+	 */
+	int join(int head, int length, int tail) {
+		if (length == 0) {
+			return tail;
+		}
+		int first = cons(value[head], NIL);
+		int last = first;
+		for (int i = 1; i < length; i++) {
+			head = next[head];
+			int cell = cons(value[head], NIL);
+			next[last] = cell;
+			last = cell;
+		}
+		next[last] = tail;
+		return first;
+	}
+}
@@ -0,0 +1,52 @@
+package rizinLayout.engine;
+
+/**
+ * Articulations of every edge of a layout, in a single coordinate array:
+ * the points of edge e are the x, y pairs from offset(e) to offset(e + 1).
+ * Straight edges have no point.
+ */
+public final class EdgeArticulations {
+
+	private final int[] offsets;
+	final double[] coords;
+
+	/**
+	 * @param offsets start of the coordinates of every edge, followed by the
+	 *  total number of coordinates
+	 */
+	EdgeArticulations(int[] offsets) {
+		this.offsets = offsets;
+		this.coords = new double[offsets[offsets.length - 1]];
+	}
+
+	/**
+	 * Returns the articulations of a graph whose edges are all straight.
+	 */
+	public static EdgeArticulations straight(int edgeCount) {
+		return new EdgeArticulations(new int[edgeCount + 1]);
+	}
+
+	int offset(int edge) {
+		return offsets[edge];
+	}
+
+	public int getEdgeCount() {
+		return offsets.length - 1;
+	}
+
+	public int getPointCount(int edge) {
+		return (offsets[edge + 1] - offsets[edge]) >> 1;
+	}
+
+	public double getX(int edge, int point) {
+		return coords[offsets[edge] + 2 * point];
+	}
+
+	public double getY(int edge, int point) {
+		return coords[offsets[edge] + 2 * point + 1];
+	}
+
+	public long getRetainedBytes() {
+		return LayoutState.bytes(offsets) + coords.length * 8L + LayoutState.ARRAY_HEADER;
+	}
+}
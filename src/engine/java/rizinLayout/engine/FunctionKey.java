@@ -0,0 +1,78 @@
+package rizinLayout.engine;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Key of a function in a {@link LayoutStore}: the 128 bit MD5 of its program
+ * and its entry point offset. Two functions only share a key if they share
+ * both.
+ */
+public final class FunctionKey {
+
+	final long programHigh;
+	final long programLow;
+	final long entry;
+
+	FunctionKey(long programHigh, long programLow, long entry) {
+		this.programHigh = programHigh;
+		this.programLow = programLow;
+		this.entry = entry;
+	}
+
+	/**
+	 * Returns the key of the function at entry in the program of that MD5,
+	 * 32 hexadecimal digits. Any other program id, e.g. its name when it
+	 * has no MD5, is hashed with MD5 first.
+	 */
+	public static FunctionKey of(String programId, long entry) {
+		byte[] md5;
+		if (programId.matches("[0-9a-fA-F]{32}")) {
+			md5 = new byte[16];
+			for (int i = 0; i < 16; i++) {
+				md5[i] = (byte) Integer.parseInt(programId.substring(2 * i, 2 * i + 2), 16);
+			}
+		}
+		else {
+			try {
+				md5 = MessageDigest.getInstance("MD5").digest(programId.getBytes(StandardCharsets.UTF_8));
+			}
+			catch (NoSuchAlgorithmException e) {
+				// Every Java platform has MD5
+				throw new IllegalStateException(e);
+			}
+		}
+		long high = 0;
+		long low = 0;
+		for (int i = 0; i < 8; i++) {
+			high = (high << 8) | (md5[i] & 0xFF);
+			low = (low << 8) | (md5[i + 8] & 0xFF);
+		}
+		return new FunctionKey(high, low, entry);
+	}
+
+	public long getEntry() {
+		return entry;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof FunctionKey)) {
+			return false;
+		}
+		FunctionKey other = (FunctionKey) obj;
+		return programHigh == other.programHigh && programLow == other.programLow &&
+			entry == other.entry;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(programHigh ^ programLow ^ entry);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x:%x", programHigh, programLow, entry);
+	}
+}
@@ -0,0 +1,24 @@
+package rizinLayout.engine;
+
+/**
+ * Grid position of every vertex of a {@link LayoutGraph}, indexed by vertex id.
+ * A vertex spans two grid columns, so columns is the last used column + 2.
+ */
+public final class GridLayout {
+
+	public final int[] row;
+	public final int[] col;
+	public final int rows;
+	public final int columns;
+
+	public GridLayout(int[] row, int[] col, int rows, int columns) {
+		this.row = row;
+		this.col = col;
+		this.rows = rows;
+		this.columns = columns;
+	}
+
+	public long getRetainedBytes() {
+		return LayoutState.bytes(row) + LayoutState.bytes(col);
+	}
+}
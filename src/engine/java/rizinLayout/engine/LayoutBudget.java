@@ -0,0 +1,54 @@
+package rizinLayout.engine;
+
+/**
+ * Limits past which the engine gives up on the full layout: graphs of more
+ * than maxElements vertices and edges, and grid layouts or edge routings
+ * running for more than timeMillis. The grid then degrades to rows packed
+ * left to right and the edges to straight lines.
+ */
+public final class LayoutBudget {
+
+	public static final String TIME_PROPERTY = "rizinLayout.timeBudgetMs";
+	public static final String SIZE_PROPERTY = "rizinLayout.maxElements";
+	private static final long DEFAULT_TIME_MILLIS = 10_000;
+	private static final int DEFAULT_MAX_ELEMENTS = 500_000;
+
+	public static final LayoutBudget UNLIMITED = new LayoutBudget(Long.MAX_VALUE, Integer.MAX_VALUE);
+
+	private final long timeMillis;
+	private final int maxElements;
+
+	public LayoutBudget(long timeMillis, int maxElements) {
+		this.timeMillis = timeMillis;
+		this.maxElements = maxElements;
+	}
+
+	/**
+	 * Returns the budget set by the rizinLayout.timeBudgetMs and
+	 * rizinLayout.maxElements system properties, 10 seconds and 500000
+	 * vertices and edges by default.
+	 */
+	public static LayoutBudget fromSystemProperties() {
+		return new LayoutBudget(Long.getLong(TIME_PROPERTY, DEFAULT_TIME_MILLIS),
+			Integer.getInteger(SIZE_PROPERTY, DEFAULT_MAX_ELEMENTS));
+	}
+
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	public int getMaxElements() {
+		return maxElements;
+	}
+
+	boolean exceeds(LayoutGraph g) {
+		return (long) g.vertexCount + g.edgeCount > maxElements;
+	}
+
+	long timeNanos() {
+		if (timeMillis >= Long.MAX_VALUE / 1_000_000) {
+			return Long.MAX_VALUE;
+		}
+		return timeMillis * 1_000_000;
+	}
+}
@@ -0,0 +1,112 @@
+package rizinLayout.engine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of layouts keyed by {@link StructuralHash}. It is bounded
+ * both by a number of entries and by a weight, the sum of the vertex and
+ * edge counts of the cached graphs, so a few huge functions cannot keep
+ * the whole heap.
+ *
+ * Keys are compared by hash and counts only, not by graph: two graphs whose
+ * structural hashes collide get the same layout, the wrong one for either.
+ * With 128 bit hashes this is not expected to happen.
+ */
+public final class LayoutCache {
+
+	private final int maxEntries;
+	private final long maxWeight;
+	private final LinkedHashMap<StructuralHash, CachedLayout> entries =
+		new LinkedHashMap<>(16, 0.75f, true);
+	private long weight = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public LayoutCache(int maxEntries, long maxWeight) {
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * Returns the layout cached for key, or null.
+	 */
+	public synchronized CachedLayout get(StructuralHash key) {
+		CachedLayout layout = entries.get(key);
+		if (layout == null) {
+			misses++;
+		}
+		else {
+			hits++;
+		}
+		return layout;
+	}
+
+	/**
+	 * Returns true if a layout is cached for key. Unlike get, it is not
+	 * counted as a hit or a miss.
+	 */
+	public synchronized boolean contains(StructuralHash key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Removes and returns the layout cached for key, or null.
+	 */
+	public synchronized CachedLayout remove(StructuralHash key) {
+		CachedLayout layout = entries.remove(key);
+		if (layout != null) {
+			weight -= weightOf(key);
+		}
+		return layout;
+	}
+
+	public synchronized void put(StructuralHash key, CachedLayout layout) {
+		if (weightOf(key) > maxWeight) {
+			return;
+		}
+		if (entries.put(key, layout) == null) {
+			weight += weightOf(key);
+		}
+		Iterator<Map.Entry<StructuralHash, CachedLayout>> it = entries.entrySet().iterator();
+		while (it.hasNext() && (entries.size() > maxEntries || weight > maxWeight)) {
+			StructuralHash eldest = it.next().getKey();
+			it.remove();
+			weight -= weightOf(eldest);
+			evictions++;
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	private static long weightOf(StructuralHash key) {
+		return (long) key.getVertexCount() + key.getEdgeCount();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "LayoutCache[entries=" + entries.size() + ", hits=" + hits + ", misses=" +
+			misses + ", evictions=" + evictions + "]";
+	}
+}
@@ -0,0 +1,13 @@
+package rizinLayout.engine;
+
+/**
+ * Thrown by the engine when its {@link LayoutMonitor} is cancelled.
+ */
+public class LayoutCancelledException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public LayoutCancelledException() {
+		super("Layout cancelled");
+	}
+}
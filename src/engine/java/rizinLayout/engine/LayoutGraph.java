@@ -0,0 +1,195 @@
+package rizinLayout.engine;
+
+import java.util.Arrays;
+
+/**
+ * Control flow graph handed to the layout engine. Vertices and edges are
+ * identified by dense ids starting at 0, in the order they were added to the
+ * {@link Builder}.
+ *
+ * Adjacency is kept in CSR form: the out edges of vertex v are
+ * outEdges[outOffsets[v] .. outOffsets[v + 1]] and its in edges are
+ * inEdges[inOffsets[v] .. inOffsets[v + 1]], both in edge id order.
+ */
+public final class LayoutGraph {
+
+	final int vertexCount;
+	final int edgeCount;
+	final int entry;
+	final int[] width;
+	final int[] height;
+	final int[] edgeFrom;
+	final int[] edgeTo;
+	final int[] outOffsets;
+	final int[] outEdges;
+	final int[] inOffsets;
+	final int[] inEdges;
+
+	private LayoutGraph(Builder b) {
+		this.vertexCount = b.vertexCount;
+		this.edgeCount = b.edgeCount;
+		this.entry = b.entry;
+		this.width = Arrays.copyOf(b.width, vertexCount);
+		this.height = Arrays.copyOf(b.height, vertexCount);
+		this.edgeFrom = Arrays.copyOf(b.edgeFrom, edgeCount);
+		this.edgeTo = Arrays.copyOf(b.edgeTo, edgeCount);
+
+		this.outOffsets = new int[vertexCount + 1];
+		this.outEdges = new int[edgeCount];
+		fillAdjacency(edgeFrom, outOffsets, outEdges);
+
+		this.inOffsets = new int[vertexCount + 1];
+		this.inEdges = new int[edgeCount];
+		fillAdjacency(edgeTo, inOffsets, inEdges);
+	}
+
+	/**
+	 * Counting sort of the edge ids by their endpoint. Edges of a same vertex
+	 * keep their id order.
+	 */
+	private void fillAdjacency(int[] endpoint, int[] offsets, int[] adjacency) {
+		for (int e = 0; e < edgeCount; e++) {
+			offsets[endpoint[e] + 1]++;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		int[] next = Arrays.copyOf(offsets, vertexCount);
+		for (int e = 0; e < edgeCount; e++) {
+			adjacency[next[endpoint[e]]++] = e;
+		}
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	public int getEntry() {
+		return entry;
+	}
+
+	public int getWidth(int v) {
+		return width[v];
+	}
+
+	public int getHeight(int v) {
+		return height[v];
+	}
+
+	public int getEdgeFrom(int e) {
+		return edgeFrom[e];
+	}
+
+	public int getEdgeTo(int e) {
+		return edgeTo[e];
+	}
+
+	public int getOutDegree(int v) {
+		return outOffsets[v + 1] - outOffsets[v];
+	}
+
+	/**
+	 * Returns the id of the i-th out edge of v.
+	 */
+	public int getOutEdge(int v, int i) {
+		return outEdges[outOffsets[v] + i];
+	}
+
+	/**
+	 * Returns an estimate of the heap this graph retains, in bytes.
+	 */
+	public long getRetainedBytes() {
+		return LayoutState.bytes(width) + LayoutState.bytes(height) + LayoutState.bytes(edgeFrom) +
+			LayoutState.bytes(edgeTo) + LayoutState.bytes(outOffsets) + LayoutState.bytes(outEdges) +
+			LayoutState.bytes(inOffsets) + LayoutState.bytes(inEdges);
+	}
+
+	public int getInDegree(int v) {
+		return inOffsets[v + 1] - inOffsets[v];
+	}
+
+	/**
+	 * Returns the id of the i-th in edge of v.
+	 */
+	public int getInEdge(int v, int i) {
+		return inEdges[inOffsets[v] + i];
+	}
+
+	public static final class Builder {
+
+		private int vertexCount = 0;
+		private int edgeCount = 0;
+		private int entry = 0;
+		private int[] width;
+		private int[] height;
+		private int[] edgeFrom;
+		private int[] edgeTo;
+
+		public Builder() {
+			this(16, 16);
+		}
+
+		public Builder(int expectedVertices, int expectedEdges) {
+			int vCapacity = Math.max(expectedVertices, 1);
+			int eCapacity = Math.max(expectedEdges, 1);
+			this.width = new int[vCapacity];
+			this.height = new int[vCapacity];
+			this.edgeFrom = new int[eCapacity];
+			this.edgeTo = new int[eCapacity];
+		}
+
+		/**
+		 * Adds a vertex of the given size and returns its id.
+		 */
+		public int addVertex(int w, int h) {
+			if (vertexCount == width.length) {
+				width = Arrays.copyOf(width, vertexCount * 2);
+				height = Arrays.copyOf(height, vertexCount * 2);
+			}
+			width[vertexCount] = w;
+			height[vertexCount] = h;
+			return vertexCount++;
+		}
+
+		/**
+		 * Adds an edge between two existing vertices and returns its id.
+		 */
+		public int addEdge(int from, int to) {
+			checkVertex(from);
+			checkVertex(to);
+			if (edgeCount == edgeFrom.length) {
+				edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+				edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+			}
+			edgeFrom[edgeCount] = from;
+			edgeTo[edgeCount] = to;
+			return edgeCount++;
+		}
+
+		/**
+		 * Sets the vertex the layout starts from. Defaults to vertex 0.
+		 */
+		public Builder setEntry(int v) {
+			checkVertex(v);
+			this.entry = v;
+			return this;
+		}
+
+		public LayoutGraph build() {
+			if (vertexCount == 0) {
+				throw new IllegalStateException("graph has no vertex");
+			}
+			return new LayoutGraph(this);
+		}
+
+		private void checkVertex(int v) {
+			if (v < 0 || v >= vertexCount) {
+				throw new IllegalArgumentException("unknown vertex " + v);
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package rizinLayout.engine;
+
+import java.util.Arrays;
+
+/**
+ * In process totals of the {@link LayoutPhase}s of every layout, also sent
+ * to Flight Recorder as rizinLayout.LayoutPhase events when it records them.
+ */
+public final class LayoutMetrics {
+
+	private static final LayoutMetrics GLOBAL = new LayoutMetrics();
+
+	private final long[] count = new long[LayoutPhase.values().length];
+	private final long[] totalNanos = new long[count.length];
+	private final long[] maxNanos = new long[count.length];
+	private long contourMergeLength = 0;
+	private long outerLaneEdges = 0;
+	private long layouts = 0;
+	private long retainedBytes = 0;
+	private long maxRetainedBytes = 0;
+
+	/**
+	 * Returns the registry engines record into by default.
+	 */
+	public static LayoutMetrics global() {
+		return GLOBAL;
+	}
+
+	public void record(LayoutPhase phase, long nanos, int vertices, int edges) {
+		record(phase, nanos, vertices, edges, 0, 0, 0, 0);
+	}
+
+	void record(LayoutPhase phase, long nanos, int vertices, int edges, int rows, int columns,
+			long mergeLength, int outerLanes) {
+		synchronized (this) {
+			int i = phase.ordinal();
+			count[i]++;
+			totalNanos[i] += nanos;
+			maxNanos[i] = Math.max(maxNanos[i], nanos);
+			contourMergeLength += mergeLength;
+			outerLaneEdges += outerLanes;
+		}
+
+		LayoutPhaseEvent event = new LayoutPhaseEvent();
+		if (event.isEnabled()) {
+			event.phase = phase.name();
+			event.phaseDuration = nanos;
+			event.vertices = vertices;
+			event.edges = edges;
+			event.rows = rows;
+			event.columns = columns;
+			event.contourMergeLength = mergeLength;
+			event.outerLaneEdges = outerLanes;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records the heap a finished layout keeps until it is dropped, in bytes.
+	 */
+	public synchronized void recordRetainedBytes(long bytes) {
+		layouts++;
+		retainedBytes += bytes;
+		maxRetainedBytes = Math.max(maxRetainedBytes, bytes);
+	}
+
+	public synchronized long getCount(LayoutPhase phase) {
+		return count[phase.ordinal()];
+	}
+
+	public synchronized long getTotalNanos(LayoutPhase phase) {
+		return totalNanos[phase.ordinal()];
+	}
+
+	public synchronized long getMaxNanos(LayoutPhase phase) {
+		return maxNanos[phase.ordinal()];
+	}
+
+	public synchronized long getContourMergeLength() {
+		return contourMergeLength;
+	}
+
+	public synchronized long getOuterLaneEdges() {
+		return outerLaneEdges;
+	}
+
+	public synchronized long getLayoutCount() {
+		return layouts;
+	}
+
+	public synchronized long getTotalRetainedBytes() {
+		return retainedBytes;
+	}
+
+	public synchronized long getMaxRetainedBytes() {
+		return maxRetainedBytes;
+	}
+
+	public synchronized void reset() {
+		Arrays.fill(count, 0);
+		Arrays.fill(totalNanos, 0);
+		Arrays.fill(maxNanos, 0);
+		contourMergeLength = 0;
+		outerLaneEdges = 0;
+		layouts = 0;
+		retainedBytes = 0;
+		maxRetainedBytes = 0;
+	}
+
+	/**
+	 * Returns one line per phase run at least once: count, total and max time.
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (LayoutPhase phase : LayoutPhase.values()) {
+			int i = phase.ordinal();
+			if (count[i] != 0) {
+				sb.append(String.format("%-28s %8d runs %12.3f ms total %10.3f ms max%n", phase,
+					count[i], totalNanos[i] / 1e6, maxNanos[i] / 1e6));
+			}
+		}
+		sb.append("contour merge length ").append(contourMergeLength);
+		sb.append(", outer lane edges ").append(outerLaneEdges);
+		if (layouts != 0) {
+			sb.append(String.format("%nretained per layout %.1f KiB mean, %.1f KiB max",
+				retainedBytes / 1024.0 / layouts, maxRetainedBytes / 1024.0));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,42 @@
+package rizinLayout.engine;
+
+/**
+ * Progress and cancellation of a layout, checked by the engine every few
+ * thousand steps of its long phases. RizinLayoutProvider adapts Ghidra's
+ * TaskMonitor to it.
+ */
+public interface LayoutMonitor {
+
+	public static final LayoutMonitor DUMMY = new LayoutMonitor() {
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public void setMessage(String message) {
+			// nothing to report to
+		}
+
+		@Override
+		public void initialize(long max) {
+			// nothing to report to
+		}
+
+		@Override
+		public void setProgress(long value) {
+			// nothing to report to
+		}
+	};
+
+	public boolean isCancelled();
+
+	public void setMessage(String message);
+
+	/**
+	 * Starts a phase of max progress units.
+	 */
+	public void initialize(long max);
+
+	public void setProgress(long value);
+}
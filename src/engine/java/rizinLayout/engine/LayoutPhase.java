@@ -0,0 +1,25 @@
+package rizinLayout.engine;
+
+/**
+ * Timed steps of a layout, recorded in {@link LayoutMetrics}. The last three
+ * are measured by RizinLayoutProvider around the engine.
+ */
+public enum LayoutPhase {
+	TOPOSORT,
+	ASSIGN_ROWS,
+	SELECT_TREE,
+	FIND_MERGE_POINT,
+	HASH_SUBTREES,
+	REUSE_SUBTREES,
+	ASSIGN_COLUMNS,
+	PACK_ROWS,
+	CALCULATE_EDGE_MAIN_COLUMN,
+	ASSIGN_SLOTS,
+	ROUTE_EDGES,
+	/** performInitialGridLayout of the provider, engine and conversion included */
+	GRID_LAYOUT_HOOK,
+	/** positionEdgeArticulationsInLayoutSpace of the provider, engine and conversion included */
+	ROUTING_HOOK,
+	/** Time spent in AbstractFGLayout.calculateLocations outside of the two hooks */
+	SUPERCLASS
+}
@@ -0,0 +1,42 @@
+package rizinLayout.engine;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event committed at the end of every {@link LayoutPhase}.
+ * Counts not known yet by a phase (columns before assignColumns...) are 0.
+ */
+@Name("rizinLayout.LayoutPhase")
+@Label("Layout Phase")
+@Category({ "Rizin Layout" })
+@Description("One phase of a function graph layout")
+@StackTrace(false)
+final class LayoutPhaseEvent extends Event {
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Phase Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long phaseDuration;
+
+	@Label("Vertices")
+	int vertices;
+
+	@Label("Edges")
+	int edges;
+
+	@Label("Rows")
+	int rows;
+
+	@Label("Columns")
+	int columns;
+
+	@Label("Contour Merge Length")
+	@Description("Contour cells compared while merging subtrees in assignColumns")
+	long contourMergeLength;
+
+	@Label("Outer Lane Edges")
+	@Description("Edges routed left or right of every column")
+	int outerLaneEdges;
+}
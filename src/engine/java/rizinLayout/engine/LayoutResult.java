@@ -0,0 +1,18 @@
+package rizinLayout.engine;
+
+/**
+ * Complete layout of a {@link LayoutGraph}: grid positions, the layout space
+ * they were placed in and the articulations of every edge.
+ */
+public final class LayoutResult {
+
+	public final GridLayout grid;
+	public final LayoutSpace space;
+	public final EdgeArticulations articulations;
+
+	public LayoutResult(GridLayout grid, LayoutSpace space, EdgeArticulations articulations) {
+		this.grid = grid;
+		this.space = space;
+		this.articulations = articulations;
+	}
+}
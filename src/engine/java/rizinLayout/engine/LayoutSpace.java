@@ -0,0 +1,106 @@
+package rizinLayout.engine;
+
+/**
+ * Geometry of a grid layout: position and size of every grid column and row,
+ * and the location of every vertex. Edge articulations are computed in this
+ * space.
+ *
+ * Inside Ghidra it is filled from the superclass LayoutLocationMap, otherwise
+ * {@link #fromGrid(LayoutGraph, GridLayout)} derives it from the vertex sizes.
+ */
+public final class LayoutSpace {
+
+	public static final int COLUMN_PADDING = 30;
+	public static final int ROW_PADDING = 50;
+
+	final int[] columnX;
+	final int[] columnWidth;
+	final int[] rowY;
+	final int[] rowHeight;
+	final double[] vertexX;
+	final double[] vertexY;
+
+	/**
+	 * @param columnX x of every grid column
+	 * @param columnWidth padded width of every grid column
+	 * @param rowY y of every grid row
+	 * @param rowHeight height of every grid row
+	 * @param vertexX x of every vertex location, indexed by vertex id
+	 * @param vertexY y of every vertex location, indexed by vertex id
+	 */
+	public LayoutSpace(int[] columnX, int[] columnWidth, int[] rowY, int[] rowHeight,
+			double[] vertexX, double[] vertexY) {
+		this.columnX = columnX;
+		this.columnWidth = columnWidth;
+		this.rowY = rowY;
+		this.rowHeight = rowHeight;
+		this.vertexX = vertexX;
+		this.vertexY = vertexY;
+	}
+
+	/**
+	 * Builds the layout space of a grid the same way Ghidra does: a column is
+	 * as wide as its widest vertex, a row as high as its highest one, and every
+	 * vertex is centered in its cell.
+	 */
+	public static LayoutSpace fromGrid(LayoutGraph g, GridLayout grid) {
+		return fromSizes(g.width, g.height, grid);
+	}
+
+	/**
+	 * Same as {@link #fromGrid(LayoutGraph, GridLayout)}, with the vertex
+	 * sizes given apart from the graph.
+	 *
+	 * @param vertexWidth width of every vertex, indexed by vertex id
+	 * @param vertexHeight height of every vertex, indexed by vertex id
+	 */
+	public static LayoutSpace fromSizes(int[] vertexWidth, int[] vertexHeight, GridLayout grid) {
+		int vertexCount = grid.row.length;
+		int[] width = new int[grid.columns];
+		int[] height = new int[grid.rows];
+		for (int v = 0; v < vertexCount; v++) {
+			width[grid.col[v]] = Math.max(width[grid.col[v]], vertexWidth[v]);
+			height[grid.row[v]] = Math.max(height[grid.row[v]], vertexHeight[v]);
+		}
+
+		int[] columnX = new int[grid.columns];
+		int[] columnWidth = new int[grid.columns];
+		int x = 0;
+		for (int i = 0; i < grid.columns; i++) {
+			columnX[i] = x;
+			columnWidth[i] = width[i] + COLUMN_PADDING;
+			x += columnWidth[i];
+		}
+
+		int[] rowY = new int[grid.rows];
+		int y = 0;
+		for (int i = 0; i < grid.rows; i++) {
+			rowY[i] = y;
+			y += height[i] + ROW_PADDING;
+		}
+
+		double[] vertexX = new double[vertexCount];
+		double[] vertexY = new double[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			vertexX[v] = columnX[grid.col[v]] + (columnWidth[grid.col[v]] >> 1);
+			vertexY[v] = rowY[grid.row[v]] + (height[grid.row[v]] >> 1);
+		}
+		return new LayoutSpace(columnX, columnWidth, rowY, height, vertexX, vertexY);
+	}
+
+	public int getColumnCount() {
+		return columnX.length;
+	}
+
+	public int getRowCount() {
+		return rowY.length;
+	}
+
+	public double getVertexX(int v) {
+		return vertexX[v];
+	}
+
+	public double getVertexY(int v) {
+		return vertexY[v];
+	}
+}
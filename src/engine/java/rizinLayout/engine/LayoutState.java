@@ -0,0 +1,140 @@
+package rizinLayout.engine;
+
+/**
+ * Working state of one layout run, indexed by the vertex and edge ids of the
+ * {@link LayoutGraph}.
+ *
+ * Once the grid is laid out, only what edge routing (rows, columns and the
+ * vertex order) and a layout reusing its columns (the spanning tree, subtree
+ * placement and contours) read is kept. Routing arrays only live while edges
+ * are routed.
+ */
+final class LayoutState {
+	static final int ARRAY_HEADER = 16;
+
+	int[] sorted_list;
+	int rows;
+	int columns;
+	final LayoutGraph g;
+
+	// Edges, while routing
+	int[] mainCol;
+	int[] slots;
+
+	// dagEdges and treeEdges are subsets of the out edges, so they reuse
+	// g.outOffsets and only keep their own count per node. treeOffsets is
+	// g.outOffsets too, unless rows are width bounded: tree children are then
+	// not all out edges, see RizinLayoutEngine.selectBoundedTree.
+	int[] dagEdges;
+	int[] dagCount;
+	final int[] treeEdges;
+	final int[] treeCount;
+	int[] treeOffsets;
+
+	// Nodes
+	final int[] row;
+	final int[] col;
+	final int[] rowCount;
+	final int[] lastRowLeft;
+	final int[] lastRowRight;
+	final int[] leftPosition;
+	final int[] rightPosition;
+	// Head cells of the subtree contours in contours
+	final int[] leftSideShape;
+	final int[] rightSideShape;
+	final ContourPool contours;
+	boolean[] hasParent;
+	// Tree parent of the vertices pushed down by a width bound, or -1, see
+	// RizinLayoutEngine.assignBoundedRows
+	int[] adoptedBy;
+	
+	// Spanning tree subtrees, see hashSubtrees and reuseSubtrees
+	final long[] shapeHash;
+	final int[] subtreeSize;
+	boolean[] reused;
+	// Column of every vertex once its own subtree is placed, and relative to
+	// its tree parent once the whole tree is placed. relativeCol is set when
+	// assignColumns is done.
+	final int[] subtreeCol;
+	int[] relativeCol;
+	
+	// Metrics
+	long contourMergeLength;
+	int outerLaneEdges;
+
+	LayoutState(LayoutGraph g) {
+		this(g, new ContourPool(g.vertexCount * 4));
+	}
+
+	/**
+	 * Creates a state placing its contours in an existing pool, so contours of
+	 * an earlier layout built in that pool can be reused.
+	 */
+	LayoutState(LayoutGraph g, ContourPool contours) {
+		this.g = g;
+		int nodeCount = g.vertexCount;
+		int edgeCount = g.edgeCount;
+
+		this.dagEdges = new int[edgeCount];
+		this.dagCount = new int[nodeCount];
+		this.treeEdges = new int[edgeCount];
+		this.treeCount = new int[nodeCount];
+		this.treeOffsets = g.outOffsets;
+
+		this.row = new int[nodeCount];
+		this.col = new int[nodeCount];
+		this.rowCount = new int[nodeCount];
+		this.lastRowLeft = new int[nodeCount];
+		this.lastRowRight = new int[nodeCount];
+		this.leftPosition = new int[nodeCount];
+		this.rightPosition = new int[nodeCount];
+		this.leftSideShape = new int[nodeCount];
+		this.rightSideShape = new int[nodeCount];
+		this.contours = contours;
+		this.hasParent = new boolean[nodeCount];
+		
+		this.shapeHash = new long[nodeCount];
+		this.subtreeSize = new int[nodeCount];
+		this.reused = new boolean[nodeCount];
+		this.subtreeCol = new int[nodeCount];
+	}
+
+	/**
+	 * Drops what is only used while laying out the grid.
+	 */
+	void releaseGridState() {
+		dagEdges = null;
+		dagCount = null;
+		hasParent = null;
+		adoptedBy = null;
+		reused = null;
+		contours.trim();
+	}
+
+	/**
+	 * Returns an estimate of the heap this state retains, in bytes.
+	 */
+	long retainedBytes() {
+		long bytes = bytes(sorted_list) + bytes(mainCol) + bytes(slots) + bytes(dagEdges) +
+			bytes(dagCount) + bytes(treeEdges) + bytes(treeCount) + bytes(row) + bytes(col) +
+			bytes(rowCount) + bytes(lastRowLeft) + bytes(lastRowRight) + bytes(leftPosition) +
+			bytes(rightPosition) + bytes(leftSideShape) + bytes(rightSideShape) +
+			bytes(subtreeSize) + bytes(subtreeCol) + bytes(relativeCol) + bytes(adoptedBy) +
+			contours.retainedBytes();
+		if (treeOffsets != g.outOffsets) {
+			bytes += bytes(treeOffsets);
+		}
+		bytes += shapeHash.length * 8L + ARRAY_HEADER;
+		if (hasParent != null) {
+			bytes += hasParent.length + ARRAY_HEADER;
+		}
+		if (reused != null) {
+			bytes += reused.length + ARRAY_HEADER;
+		}
+		return bytes;
+	}
+
+	static long bytes(int[] array) {
+		return array == null ? 0 : array.length * 4L + ARRAY_HEADER;
+	}
+}
@@ -0,0 +1,360 @@
+package rizinLayout.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File of layouts keyed by function, read in place through memory mapped
+ * segments so opening a layout costs the same whatever the size of the file.
+ *
+ * Everything is little endian. The file starts with a header:
+ * <pre>
+ *  0 int  magic 'RZLS'
+ *  4 int  version
+ *  8 long offset of the index
+ * 16 int  capacity of the index, a power of two
+ * 20 int  number of functions
+ * 24 long end of the data, where the next record is appended
+ * </pre>
+ * The index is an open addressing table of capacity slots of a function key,
+ * the program MD5 high and low then the entry offset, and a record offset
+ * (long, long, long, long), probed linearly from the splitmix64 hash of the
+ * key. An offset of 0 is an empty slot. Every record is 8 byte aligned and
+ * within a single SEGMENT_SIZE segment of the file:
+ * <pre>
+ *  0 int    record length
+ *  4 int    flags, 1 if the record has articulations
+ *  8 long   program MD5, high then low, then long entry offset
+ * 32 long   structural hash, high then low
+ * 48 int    vertex count, int edge count of the graph
+ * 56 long   hash of the layout space the articulations were routed in
+ * 64 int    rows, int columns
+ * 72 int    articulation coordinate count, int reserved
+ * 80 int[]  row of every vertex, then column of every vertex
+ *    int[]  coordinate offset of every edge, none without articulations,
+ *           then the coordinate count
+ *    float[] x, y of every articulation
+ * </pre>
+ * Records are only ever appended: storing a function again appends a new
+ * record and points its index slot to it. When the index is half full, a
+ * twice larger one is appended and the header points to it.
+ *
+ * Only one process may write to a store. Another one opening it gets a read
+ * only view, put does nothing there.
+ */
+public final class LayoutStore implements Closeable {
+
+	public static final int MAGIC = 0x534C5A52;
+	public static final int VERSION = 2;
+	public static final long SEGMENT_SIZE = 1L << 30;
+
+	private static final int HEADER_SIZE = 64;
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int SLOT_SIZE = 32;
+	private static final int SLOT_RECORD = 24;
+
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_INDEX_OFFSET = 8;
+	private static final int H_INDEX_CAPACITY = 16;
+	private static final int H_COUNT = 20;
+	private static final int H_END = 24;
+
+	private final FileChannel channel;
+	private final FileLock lock;
+	private final MappedByteBuffer header;
+	private MappedByteBuffer index;
+	private int mask;
+	private MappedByteBuffer[] segments = new MappedByteBuffer[1];
+
+	private LayoutStore(FileChannel channel, FileLock lock) throws IOException {
+		this.channel = channel;
+		this.lock = lock;
+		if (channel.size() == 0) {
+			if (lock == null) {
+				throw new IOException("Empty layout store");
+			}
+			ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			h.putInt(H_MAGIC, MAGIC);
+			h.putInt(H_VERSION, VERSION);
+			h.putLong(H_INDEX_OFFSET, HEADER_SIZE);
+			h.putInt(H_INDEX_CAPACITY, INITIAL_CAPACITY);
+			h.putLong(H_END, HEADER_SIZE + (long) INITIAL_CAPACITY * SLOT_SIZE);
+			writeFully(h, 0);
+			writeZeros(HEADER_SIZE, (long) INITIAL_CAPACITY * SLOT_SIZE);
+		}
+		this.header = map(0, HEADER_SIZE);
+		if (header.getInt(H_MAGIC) != MAGIC || header.getInt(H_VERSION) != VERSION) {
+			throw new IOException("Not a layout store, or another version");
+		}
+		mapIndex();
+	}
+
+	/**
+	 * Opens the store at path, creating it if needed. If another process
+	 * has it open for writing, the store is read only.
+	 */
+	public static LayoutStore open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+			StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			FileLock lock;
+			try {
+				lock = channel.tryLock();
+			}
+			catch (OverlappingFileLockException e) {
+				lock = null;
+			}
+			return new LayoutStore(channel, lock);
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens an existing store read only.
+	 */
+	public static LayoutStore openReadOnly(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new LayoutStore(channel, null);
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public boolean isReadOnly() {
+		return lock == null;
+	}
+
+	public synchronized int size() {
+		return header.getInt(H_COUNT);
+	}
+
+	/**
+	 * Returns the last layout stored for functionKey, or null.
+	 */
+	public synchronized StoredLayout get(FunctionKey functionKey) throws IOException {
+		int slot = find(functionKey);
+		long offset = index.getLong(slot * SLOT_SIZE + SLOT_RECORD);
+		if (offset == 0) {
+			return null;
+		}
+		return new StoredLayout(record(offset));
+	}
+
+	/**
+	 * Appends the layout of a function. Nothing is written if the last layout
+	 * stored for it is the same graph routed in the same space, if the record
+	 * would not fit in a segment, or if the store is read only.
+	 *
+	 * @param articulations the articulations routed in the layout space of
+	 *  hash spaceHash, or null
+	 * @return true if the layout was written
+	 */
+	public synchronized boolean put(FunctionKey functionKey, StructuralHash hash, GridLayout grid,
+			long spaceHash, EdgeArticulations articulations) throws IOException {
+		if (lock == null) {
+			return false;
+		}
+		int slot = find(functionKey);
+		long previous = index.getLong(slot * SLOT_SIZE + SLOT_RECORD);
+		if (previous != 0) {
+			StoredLayout stored = new StoredLayout(record(previous));
+			if (stored.matches(hash) && stored.getSpaceHash() == spaceHash &&
+				stored.hasArticulations() == (articulations != null)) {
+				return false;
+			}
+		}
+
+		int length = StoredLayout.recordLength(grid.row.length,
+			StoredLayout.articulatedEdges(hash.getEdgeCount(), articulations != null),
+			articulations == null ? 0 : articulations.coords.length);
+		if (length < 0 || length > SEGMENT_SIZE) {
+			return false;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		StoredLayout.write(buffer, functionKey, hash, grid, spaceHash, articulations);
+		buffer.flip();
+		long offset = allocate(length);
+		writeFully(buffer, offset);
+
+		// The record is complete before the index points to it
+		writeKey(index, slot, functionKey);
+		index.putLong(slot * SLOT_SIZE + SLOT_RECORD, offset);
+		if (previous == 0) {
+			int count = header.getInt(H_COUNT) + 1;
+			header.putInt(H_COUNT, count);
+			if (count * 2 > mask + 1) {
+				growIndex();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (lock != null) {
+			header.force();
+			index.force();
+			lock.release();
+		}
+		channel.close();
+	}
+
+	/**
+	 * Returns the slot of functionKey in the index, or the empty slot it
+	 * would go to.
+	 */
+	private int find(FunctionKey functionKey) {
+		int slot = (int) mix(functionKey) & mask;
+		while (index.getLong(slot * SLOT_SIZE + SLOT_RECORD) != 0 &&
+			!readKey(index, slot).equals(functionKey)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static FunctionKey readKey(ByteBuffer table, int slot) {
+		return new FunctionKey(table.getLong(slot * SLOT_SIZE), table.getLong(slot * SLOT_SIZE + 8),
+			table.getLong(slot * SLOT_SIZE + 16));
+	}
+
+	private static void writeKey(ByteBuffer table, int slot, FunctionKey key) {
+		table.putLong(slot * SLOT_SIZE, key.programHigh);
+		table.putLong(slot * SLOT_SIZE + 8, key.programLow);
+		table.putLong(slot * SLOT_SIZE + 16, key.entry);
+	}
+
+	private void growIndex() throws IOException {
+		int capacity = (mask + 1) * 2;
+		long offset = allocate((long) capacity * SLOT_SIZE);
+		writeZeros(offset, (long) capacity * SLOT_SIZE);
+		MappedByteBuffer newIndex = map(offset, (long) capacity * SLOT_SIZE);
+		int newMask = capacity - 1;
+		for (int slot = 0; slot <= mask; slot++) {
+			long record = index.getLong(slot * SLOT_SIZE + SLOT_RECORD);
+			if (record == 0) {
+				continue;
+			}
+			FunctionKey key = readKey(index, slot);
+			int newSlot = (int) mix(key) & newMask;
+			while (newIndex.getLong(newSlot * SLOT_SIZE + SLOT_RECORD) != 0) {
+				newSlot = (newSlot + 1) & newMask;
+			}
+			writeKey(newIndex, newSlot, key);
+			newIndex.putLong(newSlot * SLOT_SIZE + SLOT_RECORD, record);
+		}
+		newIndex.force();
+		header.putInt(H_INDEX_CAPACITY, capacity);
+		header.putLong(H_INDEX_OFFSET, offset);
+		index = newIndex;
+		mask = newMask;
+	}
+
+	private void mapIndex() throws IOException {
+		int capacity = header.getInt(H_INDEX_CAPACITY);
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IOException("Corrupted layout store index");
+		}
+		index = map(header.getLong(H_INDEX_OFFSET), (long) capacity * SLOT_SIZE);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Reserves length bytes at the end of the data, in a single segment if
+	 * length fits in one.
+	 */
+	private long allocate(long length) {
+		long offset = header.getLong(H_END);
+		if (length <= SEGMENT_SIZE &&
+			offset / SEGMENT_SIZE != (offset + length - 1) / SEGMENT_SIZE) {
+			offset = (offset / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+		}
+		header.putLong(H_END, (offset + length + 7) & ~7L);
+		return offset;
+	}
+
+	/**
+	 * Returns the record at offset, a view of the segment holding it.
+	 */
+	private ByteBuffer record(long offset) throws IOException {
+		int segment = (int) (offset / SEGMENT_SIZE);
+		int position = (int) (offset % SEGMENT_SIZE);
+		MappedByteBuffer mapped = segment < segments.length ? segments[segment] : null;
+		if (mapped == null || mapped.limit() < position + StoredLayout.HEADER_SIZE ||
+			mapped.limit() < position + mapped.getInt(position)) {
+			mapped = mapSegment(segment);
+		}
+		ByteBuffer record = mapped.duplicate();
+		record.position(position);
+		record.limit(position + mapped.getInt(position));
+		return record.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Maps a segment up to the current end of the file. The last segment is
+	 * mapped again when records are appended past its mapped part.
+	 */
+	private MappedByteBuffer mapSegment(int segment) throws IOException {
+		if (segment >= segments.length) {
+			MappedByteBuffer[] grown = new MappedByteBuffer[Math.max(segment + 1, segments.length * 2)];
+			System.arraycopy(segments, 0, grown, 0, segments.length);
+			segments = grown;
+		}
+		long start = segment * SEGMENT_SIZE;
+		long length = Math.min(SEGMENT_SIZE, channel.size() - start);
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+		segments[segment] = mapped;
+		return mapped;
+	}
+
+	private MappedByteBuffer map(long offset, long length) throws IOException {
+		FileChannel.MapMode mode =
+			lock == null ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+		MappedByteBuffer mapped = channel.map(mode, offset, length);
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+		return mapped;
+	}
+
+	private void writeFully(ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			offset += channel.write(buffer, offset);
+		}
+	}
+
+	private void writeZeros(long offset, long length) throws IOException {
+		ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(length, 1 << 16));
+		while (length > 0) {
+			int n = (int) Math.min(length, zeros.capacity());
+			zeros.clear();
+			zeros.limit(n);
+			writeFully(zeros, offset);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	private static long mix(FunctionKey key) {
+		return mix(key.entry ^ mix(key.programHigh ^ mix(key.programLow)));
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
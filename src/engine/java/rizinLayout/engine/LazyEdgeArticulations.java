@@ -0,0 +1,216 @@
+package rizinLayout.engine;
+
+import java.util.Arrays;
+
+/**
+ * Articulations of the edges of a layout, routed the first time they are
+ * asked for: by {@link #routeIn(double, double, double, double)}, for the
+ * edges that may cross a rectangle of the layout space, typically the part
+ * of the graph on screen.
+ *
+ * The main columns and slots of every edge are assigned beforehand by
+ * {@link RizinLayoutEngine#positionEdgeArticulationsLazily(LayoutSpace)}, so
+ * an edge gets the same articulations whenever it is routed. The state of
+ * the engine is kept until every edge is routed.
+ *
+ * Edges are indexed by the rows their box spans, in a segment tree over the
+ * rows of the layout space: an edge is listed in the O(log rows) nodes
+ * covering its rows, and a rectangle only looks at the nodes over its own
+ * rows. Routed edges are dropped from the lists as they are met.
+ */
+public final class LazyEdgeArticulations {
+
+	private RizinLayoutEngine engine;
+	private final LayoutSpace space;
+	private final EdgeArticulations articulations;
+	private final boolean[] routed;
+	// Index of every edge among the in edges of its target
+	private final int[] inIndex;
+	private int routedCount = 0;
+	// Segment tree over the rows: the edges of node n, not all routed yet,
+	// are nodeEdges[nodeStart[n]] to nodeEdges[nodeStart[n] + nodeCount[n] - 1]
+	private final int leaves;
+	private int[] nodeStart;
+	private int[] nodeCount;
+	private int[] nodeEdges;
+	// Box of the edge being tested, see RizinLayoutEngine.edgeBounds
+	private final double[] bounds = new double[4];
+
+	LazyEdgeArticulations(RizinLayoutEngine engine, LayoutSpace space,
+			EdgeArticulations articulations) {
+		this.engine = engine;
+		this.space = space;
+		this.articulations = articulations;
+		LayoutGraph g = engine.getGraph();
+		this.routed = new boolean[g.edgeCount];
+		this.inIndex = new int[g.edgeCount];
+		for (int v = 0; v < g.vertexCount; v++) {
+			for (int j = g.inOffsets[v]; j < g.inOffsets[v + 1]; j++) {
+				inIndex[g.inEdges[j]] = j - g.inOffsets[v];
+			}
+		}
+
+		leaves = Integer.highestOneBit(Math.max(space.rowY.length - 1, 1)) << 1;
+		int[] firstRow = new int[g.edgeCount];
+		int[] lastRow = new int[g.edgeCount];
+		nodeStart = new int[2 * leaves + 1];
+		for (int e = 0; e < g.edgeCount; e++) {
+			engine.edgeBounds(space, e, bounds);
+			firstRow[e] = rowAt(bounds[2]);
+			lastRow[e] = rowAt(bounds[3]);
+			addToNodes(firstRow[e], lastRow[e], e, null);
+		}
+		for (int n = 0; n < 2 * leaves; n++) {
+			nodeStart[n + 1] += nodeStart[n];
+		}
+		nodeCount = new int[2 * leaves];
+		nodeEdges = new int[nodeStart[2 * leaves]];
+		for (int e = 0; e < g.edgeCount; e++) {
+			addToNodes(firstRow[e], lastRow[e], e, nodeEdges);
+		}
+	}
+
+	/**
+	 * Adds edge e to the nodes covering rows first to last, or counts it in
+	 * nodeStart if edges is null.
+	 */
+	private void addToNodes(int first, int last, int e, int[] edges) {
+		int l = first + leaves;
+		int r = last + leaves + 1;
+		while (l < r) {
+			if ((l & 1) != 0) {
+				addToNode(l++, e, edges);
+			}
+			if ((r & 1) != 0) {
+				addToNode(--r, e, edges);
+			}
+			l >>= 1;
+			r >>= 1;
+		}
+	}
+
+	private void addToNode(int n, int e, int[] edges) {
+		if (edges == null) {
+			nodeStart[n + 1]++;
+		}
+		else {
+			edges[nodeStart[n] + nodeCount[n]++] = e;
+		}
+	}
+
+	/**
+	 * Returns the row whose band of the layout space holds y: a row and the
+	 * gap below it, the first or last row outside the rows.
+	 */
+	private int rowAt(double y) {
+		int[] rowY = space.rowY;
+		int low = 0;
+		int high = rowY.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (rowY[mid] <= y) {
+				low = mid;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Routes the edges not routed yet that may cross the given rectangle of
+	 * the layout space, and returns them.
+	 */
+	public synchronized int[] routeIn(double x, double y, double width, double height) {
+		if (engine == null) {
+			return new int[0];
+		}
+		LayoutGraph g = engine.getGraph();
+		int[] newlyRouted = new int[16];
+		int count = 0;
+		// Every node over the rows of the rectangle, level by level
+		for (int l = rowAt(y) + leaves, r = rowAt(y + height) + leaves; l > 0; l >>= 1, r >>= 1) {
+			for (int n = l; n <= r; n++) {
+				int start = nodeStart[n];
+				for (int j = start; j < start + nodeCount[n]; ) {
+					int e = nodeEdges[j];
+					if (!routed[e]) {
+						engine.edgeBounds(space, e, bounds);
+						if (bounds[0] > x + width || bounds[1] < x || bounds[2] > y + height ||
+							bounds[3] < y) {
+							j++;
+							continue;
+						}
+						route(g, e);
+						if (count == newlyRouted.length) {
+							newlyRouted = Arrays.copyOf(newlyRouted, count * 2);
+						}
+						newlyRouted[count++] = e;
+					}
+					// Routed, the last edge of the node takes its place
+					nodeEdges[j] = nodeEdges[start + --nodeCount[n]];
+				}
+			}
+		}
+		release();
+		return Arrays.copyOf(newlyRouted, count);
+	}
+
+	/**
+	 * Routes the edges not routed yet.
+	 */
+	public synchronized void routeAll() {
+		if (engine == null) {
+			return;
+		}
+		LayoutGraph g = engine.getGraph();
+		for (int e = 0; e < g.edgeCount; e++) {
+			if (!routed[e]) {
+				route(g, e);
+			}
+		}
+		release();
+	}
+
+	private void route(LayoutGraph g, int e) {
+		int toNode = g.edgeTo[e];
+		engine.routeInEdge(space, articulations, e, inIndex[e], g.inOffsets[toNode + 1] - g.inOffsets[toNode]);
+		routed[e] = true;
+		routedCount++;
+	}
+
+	/**
+	 * Drops the engine and the index once every edge is routed.
+	 */
+	private void release() {
+		if (routedCount == routed.length) {
+			engine.ls.mainCol = null;
+			engine.ls.slots = null;
+			engine = null;
+			nodeStart = null;
+			nodeCount = null;
+			nodeEdges = null;
+		}
+	}
+
+	public synchronized boolean isRouted(int edge) {
+		return routed[edge];
+	}
+
+	public synchronized int getRoutedCount() {
+		return routedCount;
+	}
+
+	public synchronized boolean isComplete() {
+		return routedCount == routed.length;
+	}
+
+	/**
+	 * Returns the articulations, of which only those of the routed edges are
+	 * set.
+	 */
+	public EdgeArticulations getArticulations() {
+		return articulations;
+	}
+}
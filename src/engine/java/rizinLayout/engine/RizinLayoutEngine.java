@@ -0,0 +1,1547 @@
+package rizinLayout.engine;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rizin like layout of a {@link LayoutGraph}. Blocks are placed on a grid by
+ * laying out a spanning tree of the graph, then every edge is routed through
+ * a free column between its blocks.
+ *
+ * This class has no dependency on Ghidra: RizinLayoutProvider only adapts the
+ * function graph to a {@link LayoutGraph} and the results back.
+ */
+public class RizinLayoutEngine {
+
+	private static final double ART_DISTANCE_FROM_NODE = 10;
+	private static final int OFFSET_FROM_NODE_VER = 10;
+	private static final int SIZE_BETWEEN_NODE_VER = 50;
+	private static final int MAX_NUMBER_SEGMENT_PER_COL = 15;
+	private static final int DEFAULT_SPACE_BETWEEN_SEG = 3;
+	private static final int MAX_NUMBER_SEGMENT_PER_ROW = (SIZE_BETWEEN_NODE_VER - OFFSET_FROM_NODE_VER) / DEFAULT_SPACE_BETWEEN_SEG;
+	// Smaller subtrees are cheaper to place again than to look up
+	private static final int MIN_REUSED_SUBTREE = 8;
+	// A layout reusing columns starts a new contour pool past this many cells
+	// per vertex, so a long series of relayouts cannot grow it forever
+	private static final int MAX_SHARED_CONTOUR_CELLS_PER_VERTEX = 16;
+	private static final long LEAF_SHAPE = 0x9E3779B97F4A7C15L;
+	// Long phases check the monitor and the budget every 4096 steps
+	private static final int CHECK_MASK = 4095;
+	// Slots of an edge packed in ls.slots, none exceeds 8 bits
+	private static final int ROW_FROM_SLOT = 0;
+	private static final int COLUMN_SLOT = 8;
+	private static final int ROW_TO_SLOT = 16;
+	private static final int SLOT_MASK = 0xFF;
+	public static final String PARALLEL_ROUTING_PROPERTY = "rizinLayout.parallelRouting";
+	private static final int PARALLEL_ROUTING_MIN_EDGES = 8192;
+	private static final int ROUTING_CHUNK = 512;
+	public static final String PARALLEL_COLUMNS_PROPERTY = "rizinLayout.parallelColumns";
+	private static final int PARALLEL_COLUMNS_MIN_VERTICES = 8192;
+	public static final String BUNDLE_EDGES_PROPERTY = "rizinLayout.bundleEdges";
+	public static final String MAX_ROW_WIDTH_PROPERTY = "rizinLayout.maxRowWidth";
+
+	private final LayoutGraph graph;
+	LayoutState ls;
+	private LayoutMonitor monitor = LayoutMonitor.DUMMY;
+	private LayoutBudget budget = LayoutBudget.UNLIMITED;
+	private LayoutMetrics metrics = LayoutMetrics.global();
+	private long phaseStart;
+	private boolean degraded;
+	private boolean parallelRouting =
+		Boolean.parseBoolean(System.getProperty(PARALLEL_ROUTING_PROPERTY, "true"));
+	private boolean parallelColumns =
+		Boolean.parseBoolean(System.getProperty(PARALLEL_COLUMNS_PROPERTY, "true"));
+	private boolean bundleEdges = Boolean.getBoolean(BUNDLE_EDGES_PROPERTY);
+	private int maxRowWidth = Integer.getInteger(MAX_ROW_WIDTH_PROPERTY, 0);
+
+	public RizinLayoutEngine(LayoutGraph graph) {
+		this.graph = graph;
+	}
+
+	public LayoutGraph getGraph() {
+		return graph;
+	}
+	
+	public void setMonitor(LayoutMonitor monitor) {
+		this.monitor = monitor;
+	}
+	
+	public void setBudget(LayoutBudget budget) {
+		this.budget = budget;
+	}
+	
+	/**
+	 * Sets where phase timings are recorded, {@link LayoutMetrics#global()}
+	 * by default.
+	 */
+	public void setMetrics(LayoutMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Turns parallel edge routing on or off. It is on by default, unless the
+	 * rizinLayout.parallelRouting system property is false.
+	 */
+	public void setParallelRouting(boolean parallelRouting) {
+		this.parallelRouting = parallelRouting;
+	}
+	
+	/**
+	 * Turns the parallel column placement of the spanning trees on or off.
+	 * It is on by default, unless the rizinLayout.parallelColumns system
+	 * property is false.
+	 */
+	public void setParallelColumns(boolean parallelColumns) {
+		this.parallelColumns = parallelColumns;
+	}
+	
+	/**
+	 * Turns edge bundling on or off. It is off by default, unless the
+	 * rizinLayout.bundleEdges system property is true.
+	 *
+	 * Bundled edges entering a vertex from the same side run along the same
+	 * row gap segment into the same point of it, and those also sharing
+	 * their main column run along the same lane of it: they merge into a
+	 * single trunk. Edges leaving a vertex on the same side run along the
+	 * same row gap segment too. A switch or a merge block of hundreds of
+	 * edges then takes a few slots of every gap and lane instead of filling
+	 * them all.
+	 */
+	public void setBundleEdges(boolean bundleEdges) {
+		this.bundleEdges = bundleEdges;
+	}
+	
+	/**
+	 * Sets the maximum number of vertices on a grid row, 0 for no maximum.
+	 * It is the rizinLayout.maxRowWidth system property by default, 0 if it
+	 * is not set.
+	 *
+	 * The rows of a switch or a dispatcher otherwise hold all of its cases
+	 * side by side, hundreds of columns wide. Bounded, the cases past the
+	 * maximum go down to the next rows, under the first ones, so the grid,
+	 * the edges routed over it and the satellite view stay a bounded width.
+	 * The vertices without predecessors all stay on row 0.
+	 */
+	public void setMaxRowWidth(int maxRowWidth) {
+		this.maxRowWidth = maxRowWidth;
+	}
+	
+	/**
+	 * Returns true if the budget was exceeded: the grid rows are then packed
+	 * left to right, or the edges straight, instead of the full layout.
+	 */
+	public boolean isDegraded() {
+		return degraded;
+	}
+
+	/**
+	 * Assigns a grid row and column to every vertex.
+	 *
+	 * @throws LayoutCancelledException if the monitor is cancelled
+	 */
+	public GridLayout performInitialGridLayout() {
+		resetState();
+		return gridLayout(null);
+	}
+	
+	/**
+	 * Same as {@link #performInitialGridLayout()}, for a graph edited since
+	 * previous was laid out (grouped or split blocks...), reusing the column
+	 * placement of previous.
+	 *
+	 * The column placement of a subtree of the spanning tree only depends on
+	 * its shape, so every subtree shaped like one of the previous layout gets
+	 * its columns and contours from it, and only the edited subtrees and their
+	 * ancestors are placed again. Rows and the spanning tree are linear to
+	 * compute and an edit can move the rows of the whole graph, so they are
+	 * always recomputed. Nothing of the previous edge routing is reused
+	 * either: edits move rows, and slots are shared by every edge crossing a
+	 * row or column gap. The result is the same as a full layout.
+	 *
+	 * @param previous an engine of which a grid layout is done, or null
+	 * @throws LayoutCancelledException if the monitor is cancelled
+	 */
+	public GridLayout performGridLayoutReusingColumns(RizinLayoutEngine previous) {
+		LayoutState old = previous == null ? null : previous.ls;
+		if (old == null || old.relativeCol == null || old.contours.size() >
+				MAX_SHARED_CONTOUR_CELLS_PER_VERTEX * (old.g.vertexCount + graph.vertexCount)) {
+			return performInitialGridLayout();
+		}
+		ls = new LayoutState(graph, old.contours);
+		return gridLayout(old);
+	}
+	
+	private GridLayout gridLayout(LayoutState old) {
+		phaseStart = System.nanoTime();
+		degraded = budget.exceeds(graph);
+		long t = phaseStart;
+		
+		ls.sorted_list = Toposort(graph.entry);
+		t = recordPhase(LayoutPhase.TOPOSORT, t);
+		
+		assignRows();
+		t = recordPhase(LayoutPhase.ASSIGN_ROWS, t);
+		
+		if (!degraded) {
+			selectTree();
+			t = recordPhase(LayoutPhase.SELECT_TREE, t);
+			findMergePoint();
+			t = recordPhase(LayoutPhase.FIND_MERGE_POINT, t);
+			
+			hashSubtrees();
+			t = recordPhase(LayoutPhase.HASH_SUBTREES, t);
+			if (old != null) {
+				reuseSubtrees(old);
+				t = recordPhase(LayoutPhase.REUSE_SUBTREES, t);
+			}
+			assignColumns();
+			if (!degraded) {
+				if (maxRowWidth > 0) {
+					packBoundedColumns();
+				}
+				GridLayout grid = computeGridSize();
+				recordPhase(LayoutPhase.ASSIGN_COLUMNS, t, ls.contourMergeLength, 0);
+				ls.releaseGridState();
+				return grid;
+			}
+			t = recordPhase(LayoutPhase.ASSIGN_COLUMNS, t, ls.contourMergeLength, 0);
+		}
+		
+		GridLayout grid = packRows();
+		recordPhase(LayoutPhase.PACK_ROWS, t);
+		ls.releaseGridState();
+		return grid;
+	}
+	
+	private long recordPhase(LayoutPhase phase, long start) {
+		return recordPhase(phase, start, 0, 0);
+	}
+	
+	/**
+	 * Records a phase that started at start in the metrics, and returns the
+	 * time it ended.
+	 */
+	private long recordPhase(LayoutPhase phase, long start, long contourMergeLength, int outerLaneEdges) {
+		long end = System.nanoTime();
+		metrics.record(phase, end - start, graph.vertexCount, graph.edgeCount, ls.rows, ls.columns,
+			contourMergeLength, outerLaneEdges);
+		return end;
+	}
+	
+	/**
+	 * Grid of a layout over budget: the blocks of every row side by side, in
+	 * vertex order, two columns apart like in the full layout.
+	 */
+	GridLayout packRows() {
+		int[] nextCol = new int[graph.vertexCount];
+		for (int i = 0; i < graph.vertexCount; i++) {
+			ls.col[i] = nextCol[ls.row[i]];
+			nextCol[ls.row[i]] += 2;
+		}
+		return computeGridSize();
+	}
+	
+	private void startPhase(String message, int steps) {
+		monitor.setMessage(message);
+		monitor.initialize(steps);
+	}
+	
+	/**
+	 * Called every CHECK_MASK + 1 steps of the long phases.
+	 *
+	 * @return true once the time budget is exceeded
+	 * @throws LayoutCancelledException if the monitor is cancelled
+	 */
+	private boolean checkpoint(int step) {
+		if (monitor.isCancelled()) {
+			throw new LayoutCancelledException();
+		}
+		monitor.setProgress(step);
+		if (System.nanoTime() - phaseStart > budget.timeNanos()) {
+			degraded = true;
+		}
+		return degraded;
+	}
+	
+	/**
+	 * Starts a new layout run. The phases then have to be called in the order
+	 * of performInitialGridLayout.
+	 */
+	void resetState() {
+		ls = new LayoutState(graph);
+	}
+	
+	/**
+	 * Places the vertices in the cells of a grid laid out earlier (cached,
+	 * stored...) instead of laying them out, to route the edges over it. A
+	 * layout cannot reuse the columns of this engine.
+	 *
+	 * @throws LayoutCancelledException if the monitor is cancelled
+	 */
+	public void useGrid(GridLayout grid) {
+		resetState();
+		phaseStart = System.nanoTime();
+		degraded = budget.exceeds(graph);
+		ls.sorted_list = Toposort(graph.entry);
+		System.arraycopy(grid.row, 0, ls.row, 0, graph.vertexCount);
+		System.arraycopy(grid.col, 0, ls.col, 0, graph.vertexCount);
+		computeGridSize();
+		ls.releaseGridState();
+	}
+	
+	/**
+	 * Returns an estimate of the heap retained by the graph and the state of
+	 * the last layout, in bytes.
+	 */
+	public long getRetainedBytes() {
+		return graph.getRetainedBytes() + (ls == null ? 0 : ls.retainedBytes());
+	}
+
+	GridLayout computeGridSize() {
+		ls.columns = 1;
+		ls.rows = 1;
+		
+		for (int i = 0 ; i < graph.vertexCount ; i++) {
+			ls.rows = ls.rows > (ls.row[i] + 1) ? ls.rows : (ls.row[i] + 1);
+			ls.columns = ls.columns > (ls.col[i] + 2) ? ls.columns : (ls.col[i] + 2);
+		}
+		
+		return new GridLayout(ls.row, ls.col, ls.rows, ls.columns);
+	}
+
+	/**
+	 * Lays out the graph and routes its edges in a layout space derived from
+	 * the vertex sizes.
+	 */
+	public LayoutResult layout() {
+		GridLayout grid = performInitialGridLayout();
+		LayoutSpace space = LayoutSpace.fromGrid(graph, grid);
+		EdgeArticulations articulations = positionEdgeArticulations(space);
+		return new LayoutResult(grid, space, articulations);
+	}
+	
+	void assignColumns() {
+		// Reused subtrees keep their contours in the pool of the previous
+		// layout, which then has to be the only pool
+		long mergeLength;
+		if (parallelColumns && graph.vertexCount >= PARALLEL_COLUMNS_MIN_VERTICES &&
+				ls.contours.size() == 0 && ForkJoinPool.getCommonPoolParallelism() > 1) {
+			mergeLength = placeTreesInParallel();
+		}
+		else {
+			startPhase("Placing columns", ls.sorted_list.length);
+			mergeLength = placeSubtrees(ls.sorted_list, ls.contours);
+		}
+		if (mergeLength < 0) {
+			return;
+		}
+		ls.contourMergeLength = mergeLength;
+		ls.relativeCol = ls.col.clone();
+		
+		// The trees are packed side by side, by root vertex id
+		int nextEmptyColumn = 0;
+		for (int i = 0; i < graph.vertexCount; i++) {
+			if (ls.row[i] == 0) {
+				int offset = -ls.leftPosition[i];
+				ls.col[i] += nextEmptyColumn + offset;
+				nextEmptyColumn = ls.rightPosition[i] + offset + nextEmptyColumn;
+			}
+		}
+		
+		for (int i = ls.sorted_list.length - 1 ; i >= 0 ; i--) {
+			int nd = ls.sorted_list[i];
+			assert(ls.col[nd] >= 0);
+			for (int j = ls.treeOffsets[nd]; j < ls.treeOffsets[nd] + ls.treeCount[nd]; j++) {
+				ls.col[ls.treeEdges[j]] += ls.col[nd];
+			}
+		}
+		
+	}
+
+	/**
+	 * Places every vertex of order in its tree parent, and its subtree
+	 * relative to it. Children come before their parent in order.
+	 *
+	 * @return the number of contour cells compared while merging subtrees,
+	 *  or -1 once the budget is exceeded
+	 */
+	private long placeSubtrees(int[] order, ContourPool contours) {
+		long mergeLength = 0;
+		for (int i = 0 ; i < order.length; i++) {
+			if ((i & CHECK_MASK) == 0 && checkpoint(i)) {
+				return -1;
+			}
+			int gn = order[i];
+			if (ls.reused[gn]) {
+				continue;
+			}
+			int treeStart = ls.treeOffsets[gn];
+			int treeCount = ls.treeCount[gn];
+			if (treeCount == 0) {
+				ls.rowCount[gn] = 1;
+				ls.col[gn] = 0;
+				ls.lastRowRight[gn] = 2;
+				ls.lastRowLeft[gn] = 0;
+				ls.leftPosition[gn] = 0;
+				ls.rightPosition[gn] = 2;
+				ls.leftSideShape[gn] = contours.cons(0, ContourPool.NIL);
+				ls.rightSideShape[gn] = contours.cons(2, ContourPool.NIL);
+			}
+			else {
+				// Both sides of a subtree contour have one value per row of the subtree
+				int firstChild = ls.treeEdges[treeStart];
+				int leftSide = ls.leftSideShape[firstChild];
+				int rightSide = ls.rightSideShape[firstChild];
+				int sideLength = ls.rowCount[firstChild];
+				ls.rowCount[gn] = ls.rowCount[firstChild];
+				ls.lastRowRight[gn] = ls.lastRowRight[firstChild];
+				ls.lastRowLeft[gn] = ls.lastRowLeft[firstChild];
+				ls.leftPosition[gn] = ls.leftPosition[firstChild];
+				ls.rightPosition[gn] = ls.rightPosition[firstChild];
+				
+				for (int j = 1; j < treeCount; j++) {
+					int child = ls.treeEdges[treeStart + j];
+					int childLeftSide = ls.leftSideShape[child];
+					int childLength = ls.rowCount[child];
+					int minPos = Integer.MIN_VALUE;
+					int leftPos = 0;
+					int rightPos = 0;
+					int maxLeftWidth = 0;
+					int minRightPos = ls.col[child];
+					int offsetCnt = 0;
+					int leftIt = rightSide;
+					int rightIt = childLeftSide;
+					while (offsetCnt < sideLength && offsetCnt < childLength) {
+						leftPos += contours.value(leftIt);
+						rightPos += contours.value(rightIt);
+						minPos = minPos > (leftPos - rightPos) ? minPos : (leftPos - rightPos); // MAX
+						maxLeftWidth = maxLeftWidth > leftPos ? maxLeftWidth : leftPos; // MAX
+						minRightPos = minRightPos > rightPos ? rightPos : minRightPos; // MIN
+						leftIt = contours.next(leftIt);
+						rightIt = contours.next(rightIt);
+						offsetCnt++;
+					}
+					mergeLength += offsetCnt;
+					boolean leftHasNext = offsetCnt < sideLength;
+					boolean rightHasNext = offsetCnt < childLength;
+					// I chose here to do not implement tightSubtreePlacement (option)
+					int rightTreeOffset = 0;
+					if (leftHasNext) {
+						rightTreeOffset = maxLeftWidth - ls.leftPosition[child];
+					}
+					else {
+						rightTreeOffset = ls.rightPosition[gn] - minRightPos;
+					}
+					ls.col[child] += rightTreeOffset;
+					
+					if (leftHasNext) {
+						// The child is shorter: its right side, then what is left of ours
+						int rest = contours.addToHead(leftIt, -(rightTreeOffset + ls.lastRowRight[child] - leftPos));
+						rightSide = contours.join(ls.rightSideShape[child], offsetCnt, rest);
+					}
+					else if (rightHasNext) {
+						// The child is deeper: our left side, then what is left of its own
+						int rest = contours.addToHead(rightIt, rightPos + rightTreeOffset - ls.lastRowLeft[gn]);
+						leftSide = contours.join(leftSide, offsetCnt, rest);
+						rightSide = ls.rightSideShape[child];
+						sideLength = childLength;
+						ls.lastRowRight[gn] = ls.lastRowRight[child] + rightTreeOffset;
+						ls.lastRowLeft[gn] = ls.lastRowLeft[child] + rightTreeOffset;
+					}
+					else {
+						rightSide = ls.rightSideShape[child];
+					}
+					
+					rightSide = contours.addToHead(rightSide, rightTreeOffset);
+					
+					ls.rowCount[gn] = ls.rowCount[gn] > ls.rowCount[child] ? ls.rowCount[gn] : ls.rowCount[child];
+					ls.leftPosition[gn] = ls.leftPosition[gn] > (ls.leftPosition[child] + rightTreeOffset) ? (ls.leftPosition[child] + rightTreeOffset) : ls.leftPosition[gn];
+					ls.rightPosition[gn] = ls.rightPosition[gn] > (rightTreeOffset + ls.rightPosition[child]) ? ls.rightPosition[gn] : (rightTreeOffset + ls.rightPosition[child]);
+				}
+				int col = 0;
+				// Here we assume that parentBetweenDirectChild is set
+				for (int j = 0; j < treeCount; j++) {
+					col += ls.col[ls.treeEdges[treeStart + j]];
+				}
+				col /= treeCount;
+				
+				ls.col[gn] += col;
+				ls.rowCount[gn]++;
+				ls.leftPosition[gn] = ls.leftPosition[gn] > ls.col[gn] ? ls.col[gn] : ls.leftPosition[gn];
+				ls.rightPosition[gn] = ls.rightPosition[gn] > (ls.col[gn] + 2) ? ls.rightPosition[gn] : (ls.col[gn] + 2);
+				
+				leftSide = contours.addToHead(leftSide, -ls.col[gn]);
+				ls.leftSideShape[gn] = contours.cons(ls.col[gn], leftSide);
+				
+				rightSide = contours.addToHead(rightSide, -(ls.col[gn] + 2));
+				ls.rightSideShape[gn] = contours.cons(ls.col[gn] + 2, rightSide);
+				
+				for (int j = 0; j < treeCount; j++) {
+					ls.col[ls.treeEdges[treeStart + j]] -= ls.col[gn];
+				}
+			}
+			ls.subtreeCol[gn] = ls.col[gn];
+		}
+		return mergeLength;
+	}
+	
+	/**
+	 * Places the trees of the spanning forest, rooted on row 0, in parallel
+	 * on the common ForkJoin pool. A tree only depends on itself until the
+	 * trees are packed, and every connected component of the graph is one or
+	 * more of them (the orphaned blocks of a function are trees of their own).
+	 *
+	 * The trees are split in one batch per thread, largest first onto the
+	 * least loaded batch, and every batch builds its contours in a pool of its
+	 * own, appended to ls.contours afterwards. The columns are the same as
+	 * placed sequentially, only the contour cells are numbered differently.
+	 *
+	 * @return the number of contour cells compared while merging subtrees,
+	 *  or -1 once the budget is exceeded
+	 */
+	private long placeTreesInParallel() {
+		int[] order = ls.sorted_list;
+		// Root of the tree of every vertex. Tree parents come after their
+		// children in sorted_list, and only the vertices of row 0 have none
+		int[] treeRoot = new int[graph.vertexCount];
+		int rootCount = 0;
+		for (int i = order.length - 1; i >= 0; i--) {
+			int nd = order[i];
+			if (ls.row[nd] == 0) {
+				treeRoot[nd] = nd;
+				rootCount++;
+			}
+			for (int j = ls.treeOffsets[nd]; j < ls.treeOffsets[nd] + ls.treeCount[nd]; j++) {
+				treeRoot[ls.treeEdges[j]] = treeRoot[nd];
+			}
+		}
+		if (rootCount < 2) {
+			startPhase("Placing columns", order.length);
+			return placeSubtrees(order, ls.contours);
+		}
+		
+		Integer[] roots = new Integer[rootCount];
+		rootCount = 0;
+		for (int nd = 0; nd < graph.vertexCount; nd++) {
+			if (ls.row[nd] == 0) {
+				roots[rootCount++] = nd;
+			}
+		}
+		// Stable, so trees of the same size stay in vertex order
+		Arrays.sort(roots, (a, b) -> ls.subtreeSize[b] - ls.subtreeSize[a]);
+		int batchCount = Math.min(ForkJoinPool.getCommonPoolParallelism(), rootCount);
+		int[] rootBatch = new int[graph.vertexCount];
+		long[] load = new long[batchCount];
+		for (int root : roots) {
+			int lightest = 0;
+			for (int b = 1; b < batchCount; b++) {
+				if (load[b] < load[lightest]) {
+					lightest = b;
+				}
+			}
+			rootBatch[root] = lightest;
+			load[lightest] += ls.subtreeSize[root];
+		}
+		
+		// Every batch keeps the sorted_list order of its vertices
+		int[] batchStart = new int[batchCount + 1];
+		for (int nd : order) {
+			batchStart[rootBatch[treeRoot[nd]] + 1]++;
+		}
+		for (int b = 0; b < batchCount; b++) {
+			batchStart[b + 1] += batchStart[b];
+		}
+		int[] batchOrder = new int[order.length];
+		int[] next = Arrays.copyOf(batchStart, batchCount);
+		for (int nd : order) {
+			batchOrder[next[rootBatch[treeRoot[nd]]]++] = nd;
+		}
+		int[][] orders = new int[batchCount][];
+		ContourPool[] pools = new ContourPool[batchCount];
+		int longest = 0;
+		for (int b = 0; b < batchCount; b++) {
+			orders[b] = Arrays.copyOfRange(batchOrder, batchStart[b], batchStart[b + 1]);
+			pools[b] = new ContourPool(orders[b].length * 4);
+			longest = Math.max(longest, orders[b].length);
+		}
+		
+		// Every batch reports its own progress
+		startPhase("Placing columns", longest);
+		long[] mergeLengths = new long[batchCount];
+		ForkJoinPool.commonPool().invoke(new PlaceBatches(orders, pools, mergeLengths, 0, batchCount));
+		long mergeLength = 0;
+		for (int b = 0; b < batchCount; b++) {
+			if (mergeLengths[b] < 0) {
+				return -1;
+			}
+			mergeLength += mergeLengths[b];
+		}
+		
+		int[] base = new int[batchCount];
+		for (int b = 0; b < batchCount; b++) {
+			base[b] = ls.contours.append(pools[b]);
+		}
+		for (int nd = 0; nd < graph.vertexCount; nd++) {
+			int b = rootBatch[treeRoot[nd]];
+			ls.leftSideShape[nd] += base[b];
+			ls.rightSideShape[nd] += base[b];
+		}
+		return mergeLength;
+	}
+	
+	/**
+	 * Places the subtrees of a range of batches, split in halves down to a
+	 * single batch.
+	 */
+	private final class PlaceBatches extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int[][] orders;
+		private final ContourPool[] pools;
+		private final long[] mergeLengths;
+		private final int from;
+		private final int to;
+		
+		PlaceBatches(int[][] orders, ContourPool[] pools, long[] mergeLengths, int from, int to) {
+			this.orders = orders;
+			this.pools = pools;
+			this.mergeLengths = mergeLengths;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				mergeLengths[from] = placeSubtrees(orders[from], pools[from]);
+			}
+			else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new PlaceBatches(orders, pools, mergeLengths, from, mid),
+					new PlaceBatches(orders, pools, mergeLengths, mid, to));
+			}
+		}
+	}
+
+	/**
+	 * Computes the shape hash and the size of the subtree of every vertex in
+	 * the spanning tree. Two subtrees of the same shape have the same ordered
+	 * children, recursively.
+	 */
+	void hashSubtrees() {
+		for (int i = 0; i < ls.sorted_list.length; i++) {
+			int gn = ls.sorted_list[i];
+			int treeStart = ls.treeOffsets[gn];
+			int treeCount = ls.treeCount[gn];
+			long hash = LEAF_SHAPE + treeCount;
+			int size = 1;
+			for (int j = treeStart; j < treeStart + treeCount; j++) {
+				int child = ls.treeEdges[j];
+				hash = Long.rotateLeft(hash ^ ls.shapeHash[child], 29) * 0xBF58476D1CE4E5B9L;
+				size += ls.subtreeSize[child];
+			}
+			ls.shapeHash[gn] = hash ^ (hash >>> 31);
+			ls.subtreeSize[gn] = size;
+		}
+	}
+	
+	/**
+	 * Copies, from the finished layout old, the column placement of the
+	 * largest subtrees shaped like one of its own, and marks them reused so
+	 * assignColumns skips them. Their contours stay in the shared pool.
+	 */
+	void reuseSubtrees(LayoutState old) {
+		SubtreeIndex index = new SubtreeIndex(old, MIN_REUSED_SUBTREE);
+		int[] stackNew = new int[graph.vertexCount];
+		int[] stackOld = new int[graph.vertexCount];
+		
+		// Tree parents come after their children in sorted_list
+		for (int i = ls.sorted_list.length - 1; i >= 0; i--) {
+			int gn = ls.sorted_list[i];
+			if (ls.reused[gn] || ls.subtreeSize[gn] < MIN_REUSED_SUBTREE) {
+				continue;
+			}
+			int match = index.get(ls.shapeHash[gn]);
+			if (match != -1 && sameShape(old, gn, match, stackNew, stackOld)) {
+				copySubtree(old, gn, match, stackNew, stackOld);
+			}
+		}
+	}
+	
+	private boolean sameShape(LayoutState old, int root, int oldRoot, int[] stackNew, int[] stackOld) {
+		int top = 0;
+		stackNew[0] = root;
+		stackOld[0] = oldRoot;
+		while (top >= 0) {
+			int gn = stackNew[top];
+			int on = stackOld[top];
+			top--;
+			int treeCount = ls.treeCount[gn];
+			if (treeCount != old.treeCount[on]) {
+				return false;
+			}
+			int treeStart = ls.treeOffsets[gn];
+			int oldStart = old.treeOffsets[on];
+			for (int j = 0; j < treeCount; j++) {
+				top++;
+				stackNew[top] = ls.treeEdges[treeStart + j];
+				stackOld[top] = old.treeEdges[oldStart + j];
+			}
+		}
+		return true;
+	}
+	
+	private void copySubtree(LayoutState old, int root, int oldRoot, int[] stackNew, int[] stackOld) {
+		int top = 0;
+		stackNew[0] = root;
+		stackOld[0] = oldRoot;
+		while (top >= 0) {
+			int gn = stackNew[top];
+			int on = stackOld[top];
+			top--;
+			ls.reused[gn] = true;
+			ls.rowCount[gn] = old.rowCount[on];
+			ls.lastRowLeft[gn] = old.lastRowLeft[on];
+			ls.lastRowRight[gn] = old.lastRowRight[on];
+			ls.leftPosition[gn] = old.leftPosition[on];
+			ls.rightPosition[gn] = old.rightPosition[on];
+			ls.leftSideShape[gn] = old.leftSideShape[on];
+			ls.rightSideShape[gn] = old.rightSideShape[on];
+			ls.subtreeCol[gn] = old.subtreeCol[on];
+			// The root is not placed in its parent yet
+			ls.col[gn] = gn == root ? old.subtreeCol[on] : old.relativeCol[on];
+			
+			int treeStart = ls.treeOffsets[gn];
+			int oldStart = old.treeOffsets[on];
+			for (int j = 0; j < ls.treeCount[gn]; j++) {
+				top++;
+				stackNew[top] = ls.treeEdges[treeStart + j];
+				stackOld[top] = old.treeEdges[oldStart + j];
+			}
+		}
+	}
+
+	void findMergePoint() {
+		for (int gn = 0; gn < graph.vertexCount; gn++) {
+			int treeStart = ls.treeOffsets[gn];
+			int treeEnd = treeStart + ls.treeCount[gn];
+			int mergeBlock_idx = -1;
+			int grandChildCount = 0;
+			
+			for (int j = treeStart; j < treeEnd; j++) {
+				int target = ls.treeEdges[j];
+				int tree_edges_size = ls.treeCount[target];
+				if (tree_edges_size != 0) {
+					mergeBlock_idx = ls.treeEdges[ls.treeOffsets[target]];
+				}
+				grandChildCount += tree_edges_size;
+			}
+			if (mergeBlock_idx == -1 || grandChildCount != 1) {
+				continue;
+			}
+			
+			int blockGoingToMerge = 0;
+			int blockWithTreeEdge = 0;
+			for (int j = treeStart; j < treeEnd; j++) {
+				int target = ls.treeEdges[j];
+				int targetStart = graph.outOffsets[target];
+				boolean goesToMerge = false;
+				for (int k = targetStart; k < targetStart + ls.dagCount[target]; k++) {
+					if (ls.dagEdges[k] == mergeBlock_idx) {
+						goesToMerge = true;
+						break;
+					}
+					if (goesToMerge) {
+						if (ls.treeCount[target] == 1) {
+							blockWithTreeEdge = blockGoingToMerge;
+						}
+						blockGoingToMerge++;
+					}
+					else {
+						break;
+					}
+				}
+				if (blockGoingToMerge != 0) {
+					ls.col[ls.treeEdges[ls.treeOffsets[target] + blockWithTreeEdge]] = blockWithTreeEdge * 2 - (blockGoingToMerge - 1);
+				}
+			}
+				
+		}
+	}
+
+	void selectTree() {
+		if (ls.adoptedBy != null) {
+			selectBoundedTree();
+			return;
+		}
+		for (int nd = 0; nd < graph.vertexCount; nd++) {
+			int start = graph.outOffsets[nd];
+			for (int j = start; j < start + ls.dagCount[nd]; j++) {
+				int target = ls.dagEdges[j];
+				if (!ls.hasParent[target] && ls.row[target] == ls.row[nd] + 1) {
+					ls.treeEdges[start + ls.treeCount[nd]++] = target;
+					ls.hasParent[target] = true;
+				}	
+			}
+		}
+	}
+
+	/**
+	 * selectTree of width bounded rows. The children of a vertex are its own
+	 * ones, in out edge order, then the ones it adopted, in the order they
+	 * were placed on their row. Adopted children are not out edges of their
+	 * parent, so the tree edges get offsets of their own.
+	 */
+	void selectBoundedTree() {
+		int[] parent = new int[graph.vertexCount];
+		Arrays.fill(parent, -1);
+		int[] offsets = new int[graph.vertexCount + 1];
+		for (int nd = 0; nd < graph.vertexCount; nd++) {
+			int start = graph.outOffsets[nd];
+			for (int j = start; j < start + ls.dagCount[nd]; j++) {
+				int target = ls.dagEdges[j];
+				if (parent[target] == -1 && ls.adoptedBy[target] == -1 &&
+						ls.row[target] == ls.row[nd] + 1) {
+					parent[target] = nd;
+					offsets[nd + 1]++;
+				}
+			}
+		}
+		for (int nd = 0; nd < graph.vertexCount; nd++) {
+			if (ls.adoptedBy[nd] != -1) {
+				offsets[ls.adoptedBy[nd] + 1]++;
+			}
+		}
+		for (int nd = 0; nd < graph.vertexCount; nd++) {
+			offsets[nd + 1] += offsets[nd];
+		}
+		ls.treeOffsets = offsets;
+		
+		for (int nd = 0; nd < graph.vertexCount; nd++) {
+			int start = graph.outOffsets[nd];
+			for (int j = start; j < start + ls.dagCount[nd]; j++) {
+				int target = ls.dagEdges[j];
+				if (parent[target] == nd && !ls.hasParent[target]) {
+					ls.treeEdges[offsets[nd] + ls.treeCount[nd]++] = target;
+					ls.hasParent[target] = true;
+				}
+			}
+		}
+		for (int i = ls.sorted_list.length - 1; i >= 0; i--) {
+			int nd = ls.sorted_list[i];
+			int adopter = ls.adoptedBy[nd];
+			if (adopter != -1) {
+				ls.treeEdges[offsets[adopter] + ls.treeCount[adopter]++] = nd;
+				ls.hasParent[nd] = true;
+			}
+		}
+	}
+
+	void assignRows() {
+		if (maxRowWidth > 0) {
+			assignBoundedRows();
+			return;
+		}
+		for (int i = ls.sorted_list.length - 1 ; i >= 0 ; i--) {
+			int nd = ls.sorted_list[i];
+			int nextLvl = ls.row[nd] + 1;
+			int start = graph.outOffsets[nd];
+			for (int j = start; j < start + ls.dagCount[nd]; j++) {
+				int target = ls.dagEdges[j];
+				ls.row[target] = ls.row[target] > nextLvl ? ls.row[target] : nextLvl;
+			}
+		}	
+	}
+
+	/**
+	 * Longest path layering with at most maxRowWidth vertices on a row, in
+	 * the spirit of Coffman-Graham: in topological order, every vertex goes
+	 * on the first row below its predecessors that is not full. Vertices
+	 * without predecessors all stay on row 0.
+	 *
+	 * A vertex pushed past the row right below its predecessors has none of
+	 * them on the row above to be its tree parent. The vertices of that row,
+	 * full, adopt the ones pushed to the next row instead, one each in the
+	 * order they were placed, so the rows of a wide switch stack straight
+	 * down rather than side by side. The edges of a pushed vertex from its
+	 * predecessors are routed like any other edge spanning rows.
+	 */
+	void assignBoundedRows() {
+		int n = graph.vertexCount;
+		int[] rowSize = new int[n];
+		// Vertices of every row in placement order, linked by nextOnRow
+		int[] lastOnRow = new int[n];
+		int[] nextOnRow = new int[n];
+		// Next vertex of the row above to adopt a vertex pushed to the row
+		int[] nextAdopter = new int[n + 1];
+		// Every row not full leads to itself, a full one to the next one
+		int[] nextFree = new int[n + 1];
+		for (int r = 0; r <= n; r++) {
+			nextFree[r] = r;
+		}
+		ls.adoptedBy = new int[n];
+		Arrays.fill(ls.adoptedBy, -1);
+		
+		for (int i = ls.sorted_list.length - 1; i >= 0; i--) {
+			int nd = ls.sorted_list[i];
+			int lowest = ls.row[nd];
+			if (lowest > 0) {
+				int r = lowest;
+				while (nextFree[r] != r) {
+					nextFree[r] = nextFree[nextFree[r]];
+					r = nextFree[r];
+				}
+				if (r != lowest) {
+					ls.adoptedBy[nd] = nextAdopter[r];
+					nextAdopter[r] = nextOnRow[nextAdopter[r]];
+				}
+				ls.row[nd] = r;
+				if (rowSize[r] == 0) {
+					nextAdopter[r + 1] = nd;
+				}
+				else {
+					nextOnRow[lastOnRow[r]] = nd;
+				}
+				lastOnRow[r] = nd;
+				if (++rowSize[r] == maxRowWidth) {
+					nextFree[r] = r + 1;
+				}
+			}
+			int nextLvl = ls.row[nd] + 1;
+			int start = graph.outOffsets[nd];
+			for (int j = start; j < start + ls.dagCount[nd]; j++) {
+				int target = ls.dagEdges[j];
+				ls.row[target] = ls.row[target] > nextLvl ? ls.row[target] : nextLvl;
+			}
+		}
+	}
+
+	/**
+	 * Moves the vertices of width bounded rows into as many pairs of columns
+	 * as the widest row has vertices, at least maxRowWidth. Placed from their
+	 * spanning tree alone, the adopted vertices of a switch and the steps of
+	 * an if / else ladder still drift sideways row after row, their grid as
+	 * wide as without a bound.
+	 *
+	 * Rows are packed top down. The vertices of a row keep their order in
+	 * the tree placement, and every one goes as close as it can to where it
+	 * was placed from its tree parent, the parent in its packed column.
+	 */
+	void packBoundedColumns() {
+		int n = graph.vertexCount;
+		int rows = 0;
+		for (int v = 0; v < n; v++) {
+			rows = Math.max(rows, ls.row[v] + 1);
+		}
+		int[] parent = new int[n];
+		Arrays.fill(parent, -1);
+		for (int v = 0; v < n; v++) {
+			for (int j = ls.treeOffsets[v]; j < ls.treeOffsets[v] + ls.treeCount[v]; j++) {
+				parent[ls.treeEdges[j]] = v;
+			}
+		}
+		
+		// Vertices by row, then by column in the tree placement
+		int[] rowStart = new int[rows + 1];
+		for (int v = 0; v < n; v++) {
+			rowStart[ls.row[v] + 1]++;
+		}
+		int widest = maxRowWidth;
+		for (int r = 0; r < rows; r++) {
+			widest = Math.max(widest, rowStart[r + 1]);
+			rowStart[r + 1] += rowStart[r];
+		}
+		long[] byRow = new long[n];
+		int[] next = Arrays.copyOf(rowStart, rows);
+		for (int v = 0; v < n; v++) {
+			byRow[next[ls.row[v]]++] = ((long) ls.col[v] << 32) | v;
+		}
+		
+		int lastColumn = 2 * (widest - 1);
+		int[] packed = new int[n];
+		for (int r = 0; r < rows; r++) {
+			Arrays.sort(byRow, rowStart[r], rowStart[r + 1]);
+			int count = rowStart[r + 1] - rowStart[r];
+			int previous = -2;
+			for (int i = 0; i < count; i++) {
+				int v = (int) byRow[rowStart[r] + i];
+				int p = parent[v];
+				int wanted = p == -1 ? ls.col[v] : packed[p] + ls.col[v] - ls.col[p];
+				// Room for the vertices left of it, and the ones right of it
+				packed[v] = Math.min(Math.max(wanted, previous + 2), lastColumn - 2 * (count - 1 - i));
+				previous = packed[v];
+			}
+		}
+		System.arraycopy(packed, 0, ls.col, 0, n);
+	}
+
+	int[] Toposort(int entry_idx) {
+		int NotVisited = 0;
+		int gn_size = graph.vertexCount;
+		int[] blockOrder = new int[gn_size];
+		int orderSize = 0;
+		
+		// All blocks start as NotVisited
+		int[] visited = new int[gn_size];
+		
+		// A block is pushed at most once, so the stack never holds more than
+		// gn_size frames. Each frame is a block and the position of the next
+		// out edge to explore in graph.outEdges.
+		int[] stackNode = new int[gn_size];
+		int[] stackEdge = new int[gn_size];
+		
+		startPhase("Sorting blocks", gn_size);
+		orderSize = Dfs(visited, stackNode, stackEdge, blockOrder, orderSize, entry_idx);
+		
+		for (int i = 0 ; i < gn_size ; i++) {
+			if (visited[i] == NotVisited) {
+				orderSize = Dfs(visited, stackNode, stackEdge, blockOrder, orderSize, i);
+			}
+		}
+		return blockOrder;	
+	}
+	
+	int Dfs(int[] visited, int[] stackNode, int[] stackEdge, int[] blockOrder, int orderSize, int entry_idx) {
+		int NotVisited = 0, InStack = 1 , Visited = 2;
+		
+		int top = 0;
+		visited[entry_idx] = InStack;
+		stackNode[top] = entry_idx;
+		stackEdge[top] = graph.outOffsets[entry_idx];
+		
+		while (top >= 0) {
+			int gn = stackNode[top];
+			int edge_index = stackEdge[top];
+			
+			if (edge_index < graph.outOffsets[gn + 1]) {
+				stackEdge[top] = edge_index + 1;
+				int target = graph.edgeTo[graph.outEdges[edge_index]];
+				int targetState = visited[target];
+				if (targetState == NotVisited) {
+					visited[target] = InStack;
+					top++;
+					stackNode[top] = target;
+					stackEdge[top] = graph.outOffsets[target];
+					ls.dagEdges[graph.outOffsets[gn] + ls.dagCount[gn]++] = target;
+				}
+				else if (targetState == Visited) {
+					ls.dagEdges[graph.outOffsets[gn] + ls.dagCount[gn]++] = target;
+				}
+			}
+			else {
+				top--;
+				visited[gn] = Visited;
+				blockOrder[orderSize++] = gn;
+				if ((orderSize & CHECK_MASK) == 0) {
+					// Rows need the whole order, so the budget is only checked after
+					checkpoint(orderSize);
+				}
+			}
+		}
+		return orderSize;
+	}
+
+	/**
+	 * Routes every edge of the graph laid out by {@link #performInitialGridLayout()}.
+	 *
+	 * Slots are given to the segments sequentially, then the articulations of
+	 * large graphs are computed in parallel on the common ForkJoin pool, if it
+	 * has more than one thread and parallel routing is on. Both give the same
+	 * result.
+	 *
+	 * @param space geometry of the grid
+	 * @return the articulations of every edge. Every edge is straight if the
+	 *  budget is exceeded.
+	 * @throws LayoutCancelledException if the monitor is cancelled
+	 */
+	public EdgeArticulations positionEdgeArticulations(LayoutSpace space) {
+		
+		phaseStart = System.nanoTime();
+		long t = phaseStart;
+		try {
+			if (!degraded) {
+				calculateEdgeMainColumn();
+				t = recordPhase(LayoutPhase.CALCULATE_EDGE_MAIN_COLUMN, t, 0, ls.outerLaneEdges);
+			}
+			if (!degraded) {
+				assignSlots();
+				t = recordPhase(LayoutPhase.ASSIGN_SLOTS, t);
+			}
+			if (degraded) {
+				return EdgeArticulations.straight(graph.edgeCount);
+			}
+			
+			EdgeArticulations newEdgeArticulations = routeEdges(space);
+			recordPhase(LayoutPhase.ROUTE_EDGES, t);
+			
+			return newEdgeArticulations;
+		}
+		finally {
+			ls.mainCol = null;
+			ls.slots = null;
+		}
+	}
+	
+	/**
+	 * Writes the articulations of every edge, once its slots are assigned.
+	 */
+	EdgeArticulations routeEdges(LayoutSpace space) {
+		EdgeArticulations newEdgeArticulations = new EdgeArticulations(articulationOffsets());
+		if (parallelRouting && graph.edgeCount >= PARALLEL_ROUTING_MIN_EDGES &&
+				ForkJoinPool.getCommonPoolParallelism() > 1) {
+			ForkJoinPool.commonPool().invoke(new RouteVertices(space, newEdgeArticulations, 0, graph.vertexCount));
+		}
+		else {
+			routeVertices(space, newEdgeArticulations, 0, graph.vertexCount);
+		}
+		return newEdgeArticulations;
+	}
+	
+	/**
+	 * Same as {@link #positionEdgeArticulations(LayoutSpace)}, routing every
+	 * edge only the first time it is asked for: the main columns and slots of
+	 * the edges are assigned now, their articulations by the returned
+	 * {@link LazyEdgeArticulations}, which keeps the state of this engine
+	 * until all edges are routed.
+	 *
+	 * @return the lazy articulations, or null if the budget is exceeded and
+	 *  every edge is straight
+	 * @throws LayoutCancelledException if the monitor is cancelled
+	 */
+	public LazyEdgeArticulations positionEdgeArticulationsLazily(LayoutSpace space) {
+		
+		phaseStart = System.nanoTime();
+		long t = phaseStart;
+		LazyEdgeArticulations lazy = null;
+		try {
+			if (!degraded) {
+				calculateEdgeMainColumn();
+				t = recordPhase(LayoutPhase.CALCULATE_EDGE_MAIN_COLUMN, t, 0, ls.outerLaneEdges);
+			}
+			if (!degraded) {
+				assignSlots();
+				recordPhase(LayoutPhase.ASSIGN_SLOTS, t);
+			}
+			if (!degraded) {
+				lazy = new LazyEdgeArticulations(this, space, new EdgeArticulations(articulationOffsets()));
+			}
+			return lazy;
+		}
+		finally {
+			if (lazy == null) {
+				ls.mainCol = null;
+				ls.slots = null;
+			}
+		}
+	}
+	
+	/**
+	 * Gives a slot to every segment of an edge running along a row gap or a
+	 * column, numbering the segments of each gap and column in the order
+	 * edges are routed: by target in sorted_list order, then by in edge.
+	 * Slots of an edge are packed in ls.slots, see ROW_FROM_SLOT.
+	 *
+	 * Bundled edges take the slot of the first edge of their bundle, see
+	 * {@link #setBundleEdges(boolean)}.
+	 */
+	void assignSlots() {
+		ls.slots = new int[graph.edgeCount];
+		// Gap below row r at r + 1, so the gap above row 0 is at 0
+		int[] rowCountSegment = new int[ls.rows + 1];
+		// Column c at c + 1, from the outer lane on the left (-1) to the one
+		// on the right (ls.columns)
+		int[] columnCountSegment = new int[ls.columns + 2];
+		// Slot of every bundle, 0 until its first edge takes one: by source
+		// or target and side, and by lane for the target whose in edges are
+		// being assigned
+		int[] fromBundles = null;
+		int[] toBundles = null;
+		int[] laneBundles = null;
+		int[] laneTarget = null;
+		if (bundleEdges) {
+			fromBundles = new int[2 * graph.vertexCount];
+			toBundles = new int[2 * graph.vertexCount];
+			laneBundles = new int[ls.columns + 2];
+			laneTarget = new int[ls.columns + 2];
+		}
+		
+		startPhase("Routing edges", ls.sorted_list.length);
+		for (int i = 0 ; i < ls.sorted_list.length; i++) {
+			if ((i & CHECK_MASK) == 0 && checkpoint(i)) {
+				return;
+			}
+			int toNode = ls.sorted_list[i];
+			for (int j = graph.inOffsets[toNode]; j < graph.inOffsets[toNode + 1]; j++) {
+				int edge_idx = graph.inEdges[j];
+				int fromNode = graph.edgeFrom[edge_idx];
+				int mainCol = ls.mainCol[edge_idx];
+				int fromCol = ls.col[fromNode];
+				int toCol = ls.col[toNode];
+				int fromGap = ls.row[fromNode] + 1;
+				int toGap = ls.row[toNode];
+				int fromBundle = 2 * fromNode + (mainCol > fromCol ? 1 : 0);
+				int toBundle = 2 * toNode + (mainCol < toCol ? 1 : 0);
+				
+				int slots = 0;
+				if (mainCol != fromCol && mainCol == toCol) {
+					slots = bundledSlot(fromBundles, fromBundle, rowCountSegment, fromGap, MAX_NUMBER_SEGMENT_PER_ROW) << ROW_FROM_SLOT;
+				}
+				else if (mainCol == fromCol && mainCol != toCol) {
+					slots = bundledSlot(toBundles, toBundle, rowCountSegment, toGap, MAX_NUMBER_SEGMENT_PER_ROW) << ROW_TO_SLOT;
+				}
+				else if (mainCol != fromCol) {
+					if (laneTarget != null && laneTarget[mainCol + 1] != toNode + 1) {
+						laneTarget[mainCol + 1] = toNode + 1;
+						laneBundles[mainCol + 1] = 0;
+					}
+					slots = bundledSlot(fromBundles, fromBundle, rowCountSegment, fromGap, MAX_NUMBER_SEGMENT_PER_ROW) << ROW_FROM_SLOT;
+					slots |= bundledSlot(laneBundles, mainCol + 1, columnCountSegment, mainCol + 1, MAX_NUMBER_SEGMENT_PER_COL) << COLUMN_SLOT;
+					slots |= bundledSlot(toBundles, toBundle, rowCountSegment, toGap, MAX_NUMBER_SEGMENT_PER_ROW) << ROW_TO_SLOT;
+				}
+				ls.slots[edge_idx] = slots;
+			}
+		}
+	}
+	
+	/**
+	 * Returns where the coordinates of every edge start: edges leaving their
+	 * main column at both ends get 4 articulations, at one end 2, and
+	 * straight edges none.
+	 */
+	private int[] articulationOffsets() {
+		int[] offsets = new int[graph.edgeCount + 1];
+		for (int e = 0; e < graph.edgeCount; e++) {
+			int mainCol = ls.mainCol[e];
+			int bends = (mainCol != ls.col[graph.edgeFrom[e]] ? 1 : 0) + (mainCol != ls.col[graph.edgeTo[e]] ? 1 : 0);
+			offsets[e + 1] = offsets[e] + bends * 4;
+		}
+		return offsets;
+	}
+	
+	/**
+	 * Counts one more segment in counts[index], up to max, and returns the count.
+	 */
+	private static int nextSlot(int[] counts, int index, int max) {
+		int n = counts[index] + 1 > max ? max : counts[index] + 1;
+		counts[index] = n;
+		return n;
+	}
+	
+	/**
+	 * Returns the slot of a bundle, taking the next one of counts[index] for
+	 * its first edge, or the next one for every edge if bundles is null.
+	 */
+	private static int bundledSlot(int[] bundles, int bundle, int[] counts, int index, int max) {
+		if (bundles == null) {
+			return nextSlot(counts, index, max);
+		}
+		if (bundles[bundle] == 0) {
+			bundles[bundle] = nextSlot(counts, index, max);
+		}
+		return bundles[bundle];
+	}
+	
+	/**
+	 * Routes the in edges of a range of vertices, split in halves down to
+	 * ROUTING_CHUNK vertices.
+	 */
+	private final class RouteVertices extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final LayoutSpace space;
+		private final EdgeArticulations articulations;
+		private final int from;
+		private final int to;
+		
+		RouteVertices(LayoutSpace space, EdgeArticulations articulations, int from, int to) {
+			this.space = space;
+			this.articulations = articulations;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from <= ROUTING_CHUNK) {
+				routeVertices(space, articulations, from, to);
+			}
+			else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new RouteVertices(space, articulations, from, mid),
+					new RouteVertices(space, articulations, mid, to));
+			}
+		}
+	}
+	
+	private void routeVertices(LayoutSpace space, EdgeArticulations newEdgeArticulations, int from, int to) {
+		for (int toNode = from; toNode < to; toNode++) {
+			int inStart = graph.inOffsets[toNode];
+			int inCount = graph.inOffsets[toNode + 1] - inStart;
+			for (int j = 0 ; j < inCount; j++) {
+				int edge_idx = graph.inEdges[inStart + j];
+				routeInEdge(space, newEdgeArticulations, edge_idx, j, inCount);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the articulations of the j-th of the inCount in edges of its
+	 * target, once its slots are assigned.
+	 */
+	void routeInEdge(LayoutSpace space, EdgeArticulations out, int edge_idx, int j, int inCount) {
+		// Bundled edges all enter their target at the point of the first one
+		routeEdge(space, out, edge_idx, bundleEdges ? 0 : j, inCount);
+	}
+	
+	/**
+	 * Writes to bounds the box of the articulations of an edge, once its slots
+	 * are assigned, and of its ends: min x, max x, min y then max y. The box
+	 * is computed without routing the edge, so it holds every slot the edge
+	 * may have been given.
+	 */
+	void edgeBounds(LayoutSpace space, int edge_idx, double[] bounds) {
+		int fromNode = graph.edgeFrom[edge_idx];
+		int toNode = graph.edgeTo[edge_idx];
+		int mainCol = ls.mainCol[edge_idx];
+		int fromRow = ls.row[fromNode];
+		int toCol = ls.col[toNode];
+		int toRow = ls.row[toNode];
+		int columnCount = space.columnX.length;
+		
+		double fromX = space.vertexX[fromNode];
+		double toX = space.vertexX[toNode];
+		double fromBottom = space.rowY[fromRow] + space.rowHeight[fromRow];
+		double toTop = space.rowY[toRow];
+		
+		// Edges bend at most ART_DISTANCE_FROM_NODE from their source, and
+		// enter their target less than its column width from it
+		double minX = Math.min(fromX - ART_DISTANCE_FROM_NODE, toX - space.columnWidth[toCol]);
+		double maxX = Math.max(fromX + ART_DISTANCE_FROM_NODE, toX + space.columnWidth[toCol]);
+		if (mainCol == -1) {
+			minX = Math.min(minX, space.columnX[0] - (space.columnWidth[0] >> 2) -
+				MAX_NUMBER_SEGMENT_PER_COL * DEFAULT_SPACE_BETWEEN_SEG);
+		}
+		else if (mainCol == columnCount) {
+			maxX = Math.max(maxX, space.columnX[columnCount - 1] +
+				5 * (space.columnWidth[columnCount - 1] >> 2) +
+				MAX_NUMBER_SEGMENT_PER_COL * DEFAULT_SPACE_BETWEEN_SEG);
+		}
+		else {
+			minX = Math.min(minX, space.columnX[mainCol]);
+			maxX = Math.max(maxX, space.columnX[mainCol] + space.columnWidth[mainCol]);
+		}
+		
+		double minY = Math.min(Math.min(space.vertexY[fromNode], space.vertexY[toNode]),
+			toTop - SIZE_BETWEEN_NODE_VER);
+		double maxY = Math.max(Math.max(space.vertexY[fromNode], space.vertexY[toNode]),
+			fromBottom + SIZE_BETWEEN_NODE_VER);
+		bounds[0] = minX;
+		bounds[1] = maxX;
+		bounds[2] = minY;
+		bounds[3] = maxY;
+	}
+	
+	/**
+	 * Writes the articulations of the j-th of the inCount in edges of its
+	 * target, once its slots are assigned.
+	 */
+	private void routeEdge(LayoutSpace space, EdgeArticulations out, int edge_idx, int j, int inCount) {
+		int fromNode = graph.edgeFrom[edge_idx];
+		int toNode = graph.edgeTo[edge_idx];
+		int mainCol = ls.mainCol[edge_idx];
+		int fromRow = ls.row[fromNode];
+		int fromCol = ls.col[fromNode];
+		int toRow = ls.row[toNode];
+		int toCol = ls.col[toNode];
+		int slots = ls.slots[edge_idx];
+		int columnCount = space.columnX.length;
+		
+		double fromX = space.vertexX[fromNode];
+		double fromBottom = space.rowY[fromRow] + space.rowHeight[fromRow];
+		
+		double toX = space.vertexX[toNode];
+		double toTop = space.rowY[toRow];
+		
+		double[] articulations = out.coords;
+		int at = out.offset(edge_idx);
+		double x1, y1;
+		
+		double spaceBetweenInEdgeHor = space.columnWidth[toCol] / (inCount + 1);					
+		
+		if (mainCol == fromCol && mainCol == toCol) {
+			// NOTHING TO DO ?? THE EDGE GOES IN A STRAIGHT LINE, NO ARTICULATIONS NEEDED
+		}
+		else if (mainCol != fromCol && mainCol == toCol) {
+			// IN THIS CASE WE JUST HAVE TO MOVE TO MAIN COL
+			int direction = mainCol > fromCol ? 1 : -1;
+			int n = (slots >>> ROW_FROM_SLOT) & SLOT_MASK;
+			
+			x1 = fromX + direction * ART_DISTANCE_FROM_NODE;
+			y1 = fromBottom + OFFSET_FROM_NODE_VER + (SIZE_BETWEEN_NODE_VER - OFFSET_FROM_NODE_VER) * n / MAX_NUMBER_SEGMENT_PER_ROW;
+			
+			articulations[at] = x1;
+			articulations[at + 1] = y1;
+			articulations[at + 2] = toX;
+			articulations[at + 3] = y1;
+		}
+		else if (mainCol == fromCol && mainCol != toCol) {
+			// IN THIS CASE WE JUST MOVE UP OR DOWN THEN MOVE TO MAIN COL
+			int n = (slots >>> ROW_TO_SLOT) & SLOT_MASK;
+			
+			int direction = mainCol < toCol ? 1 : -1;
+			x1 = fromX + direction * ART_DISTANCE_FROM_NODE;
+			y1 = toTop - SIZE_BETWEEN_NODE_VER + OFFSET_FROM_NODE_VER + ((SIZE_BETWEEN_NODE_VER - OFFSET_FROM_NODE_VER) * n / MAX_NUMBER_SEGMENT_PER_ROW);
+			
+			double x2 = toX + (-1 * direction * 5) + (-1 * direction * j * spaceBetweenInEdgeHor);
+			articulations[at] = x1;
+			articulations[at + 1] = y1;
+			articulations[at + 2] = x2;
+			articulations[at + 3] = y1;
+		}
+		else {
+			// IN THIS LAST CASE WE NEED 4 ARTICULATIONS! 
+			// MOVE TO MAIN COLUMN
+			int direction = mainCol > fromCol ? 1 : -1;
+			int n = (slots >>> ROW_FROM_SLOT) & SLOT_MASK;
+			
+			x1 = fromX + direction * ART_DISTANCE_FROM_NODE;
+			y1 = fromBottom + OFFSET_FROM_NODE_VER + (SIZE_BETWEEN_NODE_VER - OFFSET_FROM_NODE_VER) * n / MAX_NUMBER_SEGMENT_PER_ROW;
+			articulations[at] = x1;
+			articulations[at + 1] = y1;
+			
+			n = (slots >>> COLUMN_SLOT) & SLOT_MASK;
+			
+			if (mainCol == -1) {
+				x1 = space.columnX[0] - (space.columnWidth[0] >> 2) - n * DEFAULT_SPACE_BETWEEN_SEG;
+			}
+			else if (mainCol == columnCount) {
+				x1 = space.columnX[columnCount - 1] + 5 * (space.columnWidth[columnCount - 1] >> 2) + n * DEFAULT_SPACE_BETWEEN_SEG;
+			}
+			else {
+				x1 = space.columnX[mainCol] + space.columnWidth[mainCol] * n / MAX_NUMBER_SEGMENT_PER_COL;		
+			}
+			
+			articulations[at + 2] = x1;
+			articulations[at + 3] = y1;
+			
+			n = (slots >>> ROW_TO_SLOT) & SLOT_MASK;
+			
+			// THEN MOVE TO TO COLUMN
+			direction = mainCol < toCol ? 1 : -1;
+			
+			y1 = toTop - SIZE_BETWEEN_NODE_VER + OFFSET_FROM_NODE_VER + ((SIZE_BETWEEN_NODE_VER - OFFSET_FROM_NODE_VER) * n / MAX_NUMBER_SEGMENT_PER_ROW);
+			articulations[at + 4] = x1;
+			articulations[at + 5] = y1;
+			
+			x1 = toX + (-1 * direction * 5) + -1 * direction * j * spaceBetweenInEdgeHor;
+			articulations[at + 6] = x1;
+			articulations[at + 7] = y1;
+		}
+	}
+
+	void calculateEdgeMainColumn() {
+		ls.mainCol = new int[graph.edgeCount];
+		int[] events = sortEvents();
+		
+		BlockedColumns blockedColumns = new BlockedColumns(ls.columns);
+		
+		startPhase("Choosing edge columns", events.length);
+		for (int i = 0 ; i < events.length; i++) {
+			if ((i & CHECK_MASK) == 0 && checkpoint(i)) {
+				return;
+			}
+			int event = events[i];
+			if (event < 0) {
+				int block = ~event;
+				blockedColumns.set(ls.col[block], ls.row[block]);
+			}
+			else {
+				int edge = event;
+				int gn = graph.edgeFrom[edge];
+				int col = ls.col[gn];
+				int target = graph.edgeTo[edge];
+				int topRow = ls.row[gn] > ls.row[target] ? ls.row[target] : ls.row[gn];
+				int targetColumn = ls.col[target];
+				
+				if (blockedColumns.get(col) <= topRow) {
+					ls.mainCol[edge] = col;
+				}
+				else if (blockedColumns.get(targetColumn) <= topRow) {
+					ls.mainCol[edge] = targetColumn;
+				}
+				else {
+					int nearestLeft = blockedColumns.leftMostLessThan(col, topRow);
+					int nearestRight = blockedColumns.rightMostLessThan(col, topRow);
+											
+					int distanceLeft = col - nearestLeft + Math.abs(targetColumn - nearestLeft);
+					int distanceRight = nearestRight - col + Math.abs(targetColumn - nearestRight);
+					
+					if (ls.row[target] < ls.row[gn]) {
+						if (targetColumn < col && blockedColumns.get(col) < topRow && col - targetColumn <= distanceLeft) {
+							ls.mainCol[edge] = col;
+							continue;
+						}
+						else if (targetColumn > col && blockedColumns.get(col) < topRow && targetColumn - col <= distanceRight) {
+							ls.mainCol[edge] = col;
+							continue;
+						}
+					}
+					
+					if (distanceLeft != distanceRight) {
+						ls.mainCol[edge] = distanceLeft < distanceRight ? nearestLeft : nearestRight;
+					}
+					else {
+						// LOL
+						ls.mainCol[edge] = (edge % 2 == 0) ? nearestLeft : nearestRight;
+					}
+				}
+			}
+			
+		}
+		
+		ls.outerLaneEdges = 0;
+		for (int edge = 0; edge < graph.edgeCount; edge++) {
+			if (ls.mainCol[edge] == -1 || ls.mainCol[edge] == ls.columns) {
+				ls.outerLaneEdges++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the sweep events of calculateEdgeMainColumn: every block, encoded
+	 * as ~block, and every edge, encoded as its id, at the lowest row it
+	 * reaches. Events are ordered by row, edges before blocks on a same row,
+	 * and by creation order (each block followed by its out edges) otherwise.
+	 * Rows are bounded by ls.rows, so this is a counting sort on
+	 * row * 2 + (block ? 1 : 0).
+	 */
+	private int[] sortEvents() {
+		int[] bucketStart = new int[ls.rows * 2 + 1];
+		for (int i = 0; i < graph.vertexCount; i++) {
+			bucketStart[ls.row[i] * 2 + 1 + 1]++;
+			for (int j = graph.outOffsets[i]; j < graph.outOffsets[i + 1]; j++) {
+				bucketStart[edgeEventRow(graph.outEdges[j]) * 2 + 1]++;
+			}
+		}
+		for (int k = 1; k < bucketStart.length; k++) {
+			bucketStart[k] += bucketStart[k - 1];
+		}
+		
+		int[] events = new int[graph.vertexCount + graph.edgeCount];
+		for (int i = 0; i < graph.vertexCount; i++) {
+			events[bucketStart[ls.row[i] * 2 + 1]++] = ~i;
+			for (int j = graph.outOffsets[i]; j < graph.outOffsets[i + 1]; j++) {
+				int edge = graph.outEdges[j];
+				events[bucketStart[edgeEventRow(edge) * 2]++] = edge;
+			}
+		}
+		return events;
+	}
+	
+	private int edgeEventRow(int edge) {
+		int startRow = ls.row[graph.edgeFrom[edge]];
+		int endRow = ls.row[graph.edgeTo[edge]];
+		return startRow > endRow ? startRow : endRow;
+	}
+}
@@ -0,0 +1,195 @@
+package rizinLayout.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout record of a {@link LayoutStore}, read in place from the mapped file.
+ * Nothing is copied until toGridLayout or toArticulations is called.
+ */
+public final class StoredLayout {
+
+	static final int LENGTH = 0;
+	static final int FLAGS = 4;
+	static final int PROGRAM_HIGH = 8;
+	static final int PROGRAM_LOW = 16;
+	static final int ENTRY = 24;
+	static final int HASH_HIGH = 32;
+	static final int HASH_LOW = 40;
+	static final int VERTEX_COUNT = 48;
+	static final int EDGE_COUNT = 52;
+	static final int SPACE_HASH = 56;
+	static final int ROWS = 64;
+	static final int COLUMNS = 68;
+	static final int COORD_COUNT = 72;
+	static final int HEADER_SIZE = 80;
+
+	static final int HAS_ARTICULATIONS = 1;
+
+	private final ByteBuffer record;
+	private final int vertexCount;
+	private final int edgeCount;
+	private final int colStart;
+	private final int offsetStart;
+	private final int coordStart;
+
+	StoredLayout(ByteBuffer record) {
+		this.record = record;
+		this.vertexCount = record.getInt(VERTEX_COUNT);
+		this.edgeCount = record.getInt(EDGE_COUNT);
+		this.colStart = HEADER_SIZE + 4 * vertexCount;
+		this.offsetStart = colStart + 4 * vertexCount;
+		this.coordStart = offsetStart + 4 * (articulatedEdges(edgeCount, hasArticulations()) + 1);
+	}
+
+	/**
+	 * Returns the number of edges the offsets of a record are given for.
+	 */
+	static int articulatedEdges(int edgeCount, boolean hasArticulations) {
+		return hasArticulations ? edgeCount : 0;
+	}
+
+	static int recordLength(int vertexCount, int articulatedEdges, int coordCount) {
+		long length = HEADER_SIZE + 8L * vertexCount + 4L * (articulatedEdges + 1) + 4L * coordCount;
+		length = (length + 7) & ~7;
+		return length > Integer.MAX_VALUE ? -1 : (int) length;
+	}
+
+	/**
+	 * Writes the record of a layout to buffer, from its position.
+	 *
+	 * @throws IllegalArgumentException if articulations are not given for
+	 *  every edge of the graph of hash
+	 */
+	static void write(ByteBuffer buffer, FunctionKey functionKey, StructuralHash hash,
+			GridLayout grid, long spaceHash, EdgeArticulations articulations) {
+		int vertexCount = grid.row.length;
+		// The edge count of the graph, not of the articulations, which may be left out
+		int edgeCount = hash.getEdgeCount();
+		if (articulations != null && articulations.getEdgeCount() != edgeCount) {
+			throw new IllegalArgumentException("Articulations of " + articulations.getEdgeCount() +
+				" edges for a graph of " + edgeCount);
+		}
+		int articulatedEdges = articulatedEdges(edgeCount, articulations != null);
+		int coordCount = articulations == null ? 0 : articulations.coords.length;
+		int start = buffer.position();
+		buffer.putInt(recordLength(vertexCount, articulatedEdges, coordCount));
+		buffer.putInt(articulations == null ? 0 : HAS_ARTICULATIONS);
+		buffer.putLong(functionKey.programHigh);
+		buffer.putLong(functionKey.programLow);
+		buffer.putLong(functionKey.entry);
+		buffer.putLong(hash.high);
+		buffer.putLong(hash.low);
+		buffer.putInt(vertexCount);
+		buffer.putInt(edgeCount);
+		buffer.putLong(spaceHash);
+		buffer.putInt(grid.rows);
+		buffer.putInt(grid.columns);
+		buffer.putInt(coordCount);
+		buffer.putInt(0);
+		for (int v = 0; v < vertexCount; v++) {
+			buffer.putInt(grid.row[v]);
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			buffer.putInt(grid.col[v]);
+		}
+		for (int e = 0; e <= articulatedEdges; e++) {
+			buffer.putInt(e == articulatedEdges ? coordCount : articulations.offset(e));
+		}
+		for (int i = 0; i < coordCount; i++) {
+			buffer.putFloat((float) articulations.coords[i]);
+		}
+		buffer.position(start + recordLength(vertexCount, articulatedEdges, coordCount));
+	}
+
+	public FunctionKey getFunctionKey() {
+		return new FunctionKey(record.getLong(PROGRAM_HIGH), record.getLong(PROGRAM_LOW),
+			record.getLong(ENTRY));
+	}
+
+	/**
+	 * Returns true if this layout was computed for a graph of that hash.
+	 */
+	public boolean matches(StructuralHash hash) {
+		return record.getLong(HASH_HIGH) == hash.high && record.getLong(HASH_LOW) == hash.low &&
+			vertexCount == hash.getVertexCount() && edgeCount == hash.getEdgeCount();
+	}
+
+	/**
+	 * Returns the hash of the layout space the articulations were routed in.
+	 */
+	public long getSpaceHash() {
+		return record.getLong(SPACE_HASH);
+	}
+
+	public boolean hasArticulations() {
+		return (record.getInt(FLAGS) & HAS_ARTICULATIONS) != 0;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	public int getRows() {
+		return record.getInt(ROWS);
+	}
+
+	public int getColumns() {
+		return record.getInt(COLUMNS);
+	}
+
+	public int getRow(int vertex) {
+		return record.getInt(HEADER_SIZE + 4 * vertex);
+	}
+
+	public int getCol(int vertex) {
+		return record.getInt(colStart + 4 * vertex);
+	}
+
+	public int getPointCount(int edge) {
+		return (offset(edge + 1) - offset(edge)) >> 1;
+	}
+
+	public float getX(int edge, int point) {
+		return record.getFloat(coordStart + 4 * (offset(edge) + 2 * point));
+	}
+
+	public float getY(int edge, int point) {
+		return record.getFloat(coordStart + 4 * (offset(edge) + 2 * point + 1));
+	}
+
+	private int offset(int edge) {
+		return record.getInt(offsetStart + 4 * edge);
+	}
+
+	public GridLayout toGridLayout() {
+		int[] row = new int[vertexCount];
+		int[] col = new int[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			row[v] = getRow(v);
+			col[v] = getCol(v);
+		}
+		return new GridLayout(row, col, getRows(), getColumns());
+	}
+
+	/**
+	 * Returns the articulations of the layout, or null if it has none.
+	 */
+	public EdgeArticulations toArticulations() {
+		if (!hasArticulations()) {
+			return null;
+		}
+		int[] offsets = new int[edgeCount + 1];
+		for (int e = 0; e <= edgeCount; e++) {
+			offsets[e] = offset(e);
+		}
+		EdgeArticulations articulations = new EdgeArticulations(offsets);
+		for (int i = 0; i < articulations.coords.length; i++) {
+			articulations.coords[i] = record.getFloat(coordStart + 4 * i);
+		}
+		return articulations;
+	}
+}
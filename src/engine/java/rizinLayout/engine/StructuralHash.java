@@ -0,0 +1,118 @@
+package rizinLayout.engine;
+
+/**
+ * 128 bit hash of the structure of a {@link LayoutGraph}: vertex and edge
+ * counts, entry, vertex sizes and edge endpoints, in id order. Two graphs
+ * numbered the same way get the same hash, so callers must number vertices
+ * and edges canonically (e.g. by address) for the hash to identify a graph
+ * across layouts.
+ */
+public final class StructuralHash {
+
+	final long high;
+	final long low;
+	private final int vertices;
+	private final int edges;
+
+	private StructuralHash(long high, long low, int vertices, int edges) {
+		this.high = high;
+		this.low = low;
+		this.vertices = vertices;
+		this.edges = edges;
+	}
+
+	public static StructuralHash of(LayoutGraph g) {
+		Hasher h = new Hasher();
+		h.add(g.vertexCount);
+		h.add(g.edgeCount);
+		h.add(g.entry);
+		for (int v = 0; v < g.vertexCount; v++) {
+			h.add(g.width[v]);
+			h.add(g.height[v]);
+		}
+		for (int e = 0; e < g.edgeCount; e++) {
+			h.add(g.edgeFrom[e]);
+			h.add(g.edgeTo[e]);
+		}
+		return new StructuralHash(h.a, h.b, g.vertexCount, g.edgeCount);
+	}
+
+	/**
+	 * Returns a 64 bit hash of the geometry of a layout space: everything edge
+	 * routing reads from it.
+	 */
+	public static long of(LayoutSpace space) {
+		Hasher h = new Hasher();
+		h.add(space.columnX.length);
+		for (int i = 0; i < space.columnX.length; i++) {
+			h.add(space.columnX[i]);
+			h.add(space.columnWidth[i]);
+		}
+		h.add(space.rowY.length);
+		for (int i = 0; i < space.rowY.length; i++) {
+			h.add(space.rowY[i]);
+			h.add(space.rowHeight[i]);
+		}
+		for (int v = 0; v < space.vertexX.length; v++) {
+			h.add(Double.doubleToLongBits(space.vertexX[v]));
+		}
+		return h.a ^ h.b;
+	}
+
+	/**
+	 * Same as {@link #of(LayoutSpace)}, telling apart the spaces whose edges
+	 * are bundled: their articulations differ.
+	 */
+	public static long of(LayoutSpace space, boolean bundleEdges) {
+		long hash = of(space);
+		return bundleEdges ? Hasher.mix(hash + 1) : hash;
+	}
+
+	public int getVertexCount() {
+		return vertices;
+	}
+
+	public int getEdgeCount() {
+		return edges;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof StructuralHash)) {
+			return false;
+		}
+		StructuralHash other = (StructuralHash) obj;
+		return high == other.high && low == other.low && vertices == other.vertices &&
+			edges == other.edges;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(high ^ low);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+
+	/**
+	 * Two independent 64 bit lanes fed with the splitmix64 finalizer of every
+	 * value.
+	 */
+	private static final class Hasher {
+		long a = 0x243F6A8885A308D3L;
+		long b = 0x13198A2E03707344L;
+
+		void add(long x) {
+			a = Long.rotateLeft(a ^ mix(x), 27) * 0x9E3779B97F4A7C15L;
+			b = Long.rotateLeft(b + mix(x ^ 0xC2B2AE3D27D4EB4FL), 31) * 0xFF51AFD7ED558CCDL;
+		}
+
+		private static long mix(long z) {
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package rizinLayout.engine;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing table from the shape hash of a spanning tree subtree to a
+ * vertex of a finished layout whose subtree has that shape. Only subtrees of
+ * at least minSize vertices are indexed.
+ */
+final class SubtreeIndex {
+
+	private final long[] keys;
+	private final int[] vertices;
+	private final int mask;
+
+	SubtreeIndex(LayoutState ls, int minSize) {
+		int count = 0;
+		for (int v = 0; v < ls.g.vertexCount; v++) {
+			if (ls.subtreeSize[v] >= minSize) {
+				count++;
+			}
+		}
+		int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+		this.keys = new long[capacity];
+		this.vertices = new int[capacity];
+		this.mask = capacity - 1;
+		Arrays.fill(vertices, -1);
+
+		for (int v = 0; v < ls.g.vertexCount; v++) {
+			if (ls.subtreeSize[v] >= minSize) {
+				long key = ls.shapeHash[v];
+				int slot = slot(key);
+				while (vertices[slot] != -1 && keys[slot] != key) {
+					slot = (slot + 1) & mask;
+				}
+				if (vertices[slot] == -1) {
+					keys[slot] = key;
+					vertices[slot] = v;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a vertex whose subtree has the given shape hash, or -1.
+	 */
+	int get(long key) {
+		int slot = slot(key);
+		while (vertices[slot] != -1) {
+			if (keys[slot] == key) {
+				return vertices[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private int slot(long key) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+}
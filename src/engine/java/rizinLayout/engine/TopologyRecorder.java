@@ -0,0 +1,230 @@
+package rizinLayout.engine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Appends the graphs laid out to a corpus file, to replay their layout
+ * outside of the program they come from. Only the structure of a graph is
+ * recorded: vertex sizes, edges and entry, by id. Nothing identifies the
+ * function, no address, name or instruction.
+ *
+ * The file is a header, int magic 'RZTC' and int version, big endian,
+ * followed by records. Every record is its length then its content, all
+ * unsigned LEB128 varints:
+ * <pre>
+ * vertex count, edge count, entry
+ * width, height of every vertex
+ * source, target of every edge, both zigzag encoded: the source as the
+ *   difference with the source of the previous edge, the target with the
+ *   source of the edge
+ * </pre>
+ * A graph of a structure already in the file is not recorded again. Records
+ * are appended under a file lock, so several processes may share a corpus. A
+ * record cut short, by a crash while writing it, ends the corpus.
+ */
+public final class TopologyRecorder {
+
+	public static final String RECORD_PROPERTY = "rizinLayout.record";
+	public static final int MAGIC = 0x525A5443;
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+
+	private final Path path;
+	// Structures in the file, read from it on first use
+	private Set<StructuralHash> recorded;
+
+	public TopologyRecorder(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Returns a recorder appending to the file at the path of the
+	 * rizinLayout.record system property, or null if it is not set.
+	 */
+	public static TopologyRecorder fromSystemProperties() {
+		String path = System.getProperty(RECORD_PROPERTY);
+		return path == null || path.isEmpty() ? null : new TopologyRecorder(Paths.get(path));
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Appends g to the corpus, unless a graph of the same structure is in it.
+	 *
+	 * @return true if g was appended
+	 */
+	public synchronized boolean record(LayoutGraph g) throws IOException {
+		if (recorded == null) {
+			recorded = new HashSet<StructuralHash>();
+			if (Files.exists(path)) {
+				read(path, recordedGraph -> recorded.add(StructuralHash.of(recordedGraph)));
+			}
+		}
+		if (!recorded.add(StructuralHash.of(g))) {
+			return false;
+		}
+
+		ByteArrayOutputStream content = new ByteArrayOutputStream(16 + 4 * (g.vertexCount + g.edgeCount));
+		writeVarint(content, g.vertexCount);
+		writeVarint(content, g.edgeCount);
+		writeVarint(content, g.entry);
+		for (int v = 0; v < g.vertexCount; v++) {
+			writeVarint(content, g.width[v]);
+			writeVarint(content, g.height[v]);
+		}
+		int previousFrom = 0;
+		for (int e = 0; e < g.edgeCount; e++) {
+			writeVarint(content, zigzag(g.edgeFrom[e] - previousFrom));
+			writeVarint(content, zigzag(g.edgeTo[e] - g.edgeFrom[e]));
+			previousFrom = g.edgeFrom[e];
+		}
+		ByteArrayOutputStream record = new ByteArrayOutputStream(content.size() + 5);
+		writeVarint(record, content.size());
+		content.writeTo(record);
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			FileLock lock = channel.lock();
+			try {
+				if (channel.size() == 0) {
+					ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+					header.putInt(MAGIC).putInt(VERSION).flip();
+					writeFully(channel, header);
+				}
+				writeFully(channel, ByteBuffer.wrap(record.toByteArray()));
+			}
+			finally {
+				lock.release();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the graphs of a corpus in the order they were recorded.
+	 */
+	public static void read(Path path, Consumer<LayoutGraph> consumer) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a topology corpus, or another version");
+			}
+			while (true) {
+				int length;
+				byte[] content;
+				try {
+					length = readVarint(in);
+					content = new byte[length];
+					in.readFully(content);
+				}
+				catch (EOFException e) {
+					return;
+				}
+				consumer.accept(parse(content));
+			}
+		}
+	}
+
+	private static LayoutGraph parse(byte[] content) throws IOException {
+		Reader in = new Reader(content);
+		int vertexCount = in.next();
+		int edgeCount = in.next();
+		int entry = in.next();
+		LayoutGraph.Builder builder = new LayoutGraph.Builder(vertexCount, edgeCount);
+		for (int v = 0; v < vertexCount; v++) {
+			builder.addVertex(in.next(), in.next());
+		}
+		int from = 0;
+		try {
+			for (int e = 0; e < edgeCount; e++) {
+				from += unzigzag(in.next());
+				builder.addEdge(from, from + unzigzag(in.next()));
+			}
+			return builder.setEntry(entry).build();
+		}
+		catch (IllegalArgumentException | IllegalStateException e) {
+			throw new IOException("Corrupted topology record", e);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	private static int unzigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int n) {
+		while ((n & ~0x7F) != 0) {
+			out.write((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		out.write(n);
+	}
+
+	private static int readVarint(InputStream in) throws IOException {
+		int n = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.read();
+			if (b == -1) {
+				throw new EOFException();
+			}
+			n |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return n;
+			}
+		}
+		throw new IOException("Corrupted topology record");
+	}
+
+	/**
+	 * Varints of the content of a record.
+	 */
+	private static final class Reader {
+		private final byte[] content;
+		private int at = 0;
+
+		Reader(byte[] content) {
+			this.content = content;
+		}
+
+		int next() throws IOException {
+			int n = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				if (at == content.length) {
+					throw new IOException("Corrupted topology record");
+				}
+				int b = content[at++];
+				n |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return n;
+				}
+			}
+			throw new IOException("Corrupted topology record");
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package rizinLayout.engine;
+
+import java.util.Random;
+
+/**
+ * Generators of synthetic control flow graphs reproducing the shapes that are
+ * the most expensive to lay out. Every generator returns exactly the requested
+ * number of vertices, with vertex 0 as entry and pseudo random vertex sizes
+ * derived from the seed.
+ */
+public enum CfgShape {
+
+	/**
+	 * if / else if / ... / else chain: every condition block has a then block
+	 * and falls to the next condition, every then block jumps to the exit.
+	 */
+	IF_ELSE_LADDER {
+		@Override
+		void addEdges(LayoutGraph.Builder b, int n, Random random) {
+			int exit = n - 1;
+			int cond = 0;
+			for (; cond + 1 < exit; cond += 2) {
+				b.addEdge(cond, cond + 1);
+				b.addEdge(cond, Math.min(cond + 2, exit));
+				b.addEdge(cond + 1, exit);
+			}
+			if (cond < exit) {
+				b.addEdge(cond, exit);
+			}
+		}
+	},
+
+	/**
+	 * A single dispatch block jumping to n - 2 cases, every case breaking to
+	 * the join block except one in four falling through to the next case.
+	 */
+	SWITCH_TABLE {
+		@Override
+		void addEdges(LayoutGraph.Builder b, int n, Random random) {
+			int join = n - 1;
+			for (int c = 1; c < join; c++) {
+				b.addEdge(0, c);
+				if (c % 4 == 0 && c + 1 < join) {
+					b.addEdge(c, c + 1);
+				}
+				else {
+					b.addEdge(c, join);
+				}
+			}
+		}
+	},
+
+	/**
+	 * Straight line code wrapped in three levels of nested loops of 8, 64 and
+	 * 512 blocks. Every loop has a back edge from its latch to its header and
+	 * an exit edge from its header, plus random continue edges.
+	 */
+	NESTED_LOOPS {
+		@Override
+		void addEdges(LayoutGraph.Builder b, int n, Random random) {
+			for (int i = 0; i + 1 < n; i++) {
+				b.addEdge(i, i + 1);
+			}
+			for (int size = 8; size <= 512; size *= 8) {
+				for (int header = 0; header + size < n; header += size) {
+					int latch = header + size - 1;
+					b.addEdge(latch, header);
+					b.addEdge(header, latch + 1);
+					int continueFrom = header + 1 + random.nextInt(size - 2);
+					b.addEdge(continueFrom, header);
+				}
+			}
+		}
+	},
+
+	/**
+	 * Control flow flattening: every state block goes back to a central
+	 * dispatcher, which jumps to any of them. One state in eight returns.
+	 */
+	FLATTENED_DISPATCHER {
+		@Override
+		void addEdges(LayoutGraph.Builder b, int n, Random random) {
+			int dispatcher = 1;
+			int ret = n - 1;
+			b.addEdge(0, dispatcher);
+			for (int state = 2; state < ret; state++) {
+				b.addEdge(dispatcher, state);
+				b.addEdge(state, dispatcher);
+				if (random.nextInt(8) == 0) {
+					b.addEdge(state, ret);
+				}
+			}
+			b.addEdge(dispatcher, ret);
+		}
+	};
+
+	private static final int MIN_VERTICES = 4;
+
+	abstract void addEdges(LayoutGraph.Builder b, int n, Random random);
+
+	public LayoutGraph generate(int vertices, long seed) {
+		int n = Math.max(vertices, MIN_VERTICES);
+		Random random = new Random(seed);
+		LayoutGraph.Builder b = new LayoutGraph.Builder(n, n * 2);
+		for (int i = 0; i < n; i++) {
+			b.addVertex(100 + random.nextInt(300), 20 + random.nextInt(380));
+		}
+		b.setEntry(0);
+		addEdges(b, n, random);
+		return b.build();
+	}
+}
@@ -0,0 +1,226 @@
+package rizinLayout.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks every phase of {@link RizinLayoutEngine} on its own, plus the
+ * whole grid layout, over the synthetic graphs of {@link CfgShape}.
+ *
+ * Phases that modify the layout state get a fresh state, already run up to
+ * the previous phase, before every invocation. The gc profiler counts the
+ * allocations of that setup too, so compare their gc.alloc.rate.norm against
+ * the same benchmark only. Run with
+ * <pre>gradle jmh</pre>
+ * which enables the gc profiler to report the allocation rate next to the time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayoutPhasesBenchmark {
+
+	private static final long SEED = 0x5EED;
+
+	private static final int TOPOSORT = 1;
+	private static final int ASSIGN_ROWS = 2;
+	private static final int SELECT_TREE = 3;
+	private static final int FIND_MERGE_POINT = 4;
+
+	@State(Scope.Thread)
+	public static class Input {
+
+		@Param({ "IF_ELSE_LADDER", "SWITCH_TABLE", "NESTED_LOOPS", "FLATTENED_DISPATCHER" })
+		public CfgShape shape;
+
+		@Param({ "1000", "5000", "20000" })
+		public int vertices;
+
+		LayoutGraph graph;
+
+		@Setup(Level.Trial)
+		public void generate() {
+			graph = shape.generate(vertices, SEED);
+		}
+
+		/**
+		 * Returns an engine on which the first phases of the grid layout,
+		 * in performInitialGridLayout order, have already run.
+		 */
+		RizinLayoutEngine prepare(int phases) {
+			RizinLayoutEngine engine = new RizinLayoutEngine(graph);
+			engine.resetState();
+			if (phases >= TOPOSORT) {
+				engine.ls.sorted_list = engine.Toposort(graph.entry);
+			}
+			if (phases >= ASSIGN_ROWS) {
+				engine.assignRows();
+			}
+			if (phases >= SELECT_TREE) {
+				engine.selectTree();
+			}
+			if (phases >= FIND_MERGE_POINT) {
+				engine.findMergePoint();
+			}
+			return engine;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class BeforeToposort {
+		RizinLayoutEngine engine;
+
+		@Setup(Level.Invocation)
+		public void prepare(Input input) {
+			engine = input.prepare(0);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class BeforeAssignRows {
+		RizinLayoutEngine engine;
+
+		@Setup(Level.Invocation)
+		public void prepare(Input input) {
+			engine = input.prepare(TOPOSORT);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class BeforeSelectTree {
+		RizinLayoutEngine engine;
+
+		@Setup(Level.Invocation)
+		public void prepare(Input input) {
+			engine = input.prepare(ASSIGN_ROWS);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class BeforeFindMergePoint {
+		RizinLayoutEngine engine;
+
+		@Setup(Level.Invocation)
+		public void prepare(Input input) {
+			engine = input.prepare(SELECT_TREE);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class BeforeAssignColumns {
+		RizinLayoutEngine engine;
+
+		@Setup(Level.Invocation)
+		public void prepare(Input input) {
+			engine = input.prepare(FIND_MERGE_POINT);
+		}
+	}
+
+	/**
+	 * Edge routing only reads the grid, so one grid layout serves the whole
+	 * trial.
+	 */
+	@State(Scope.Thread)
+	public static class Grid {
+		RizinLayoutEngine engine;
+		LayoutSpace space;
+
+		@Setup(Level.Trial)
+		public void prepare(Input input) {
+			engine = new RizinLayoutEngine(input.graph);
+			space = LayoutSpace.fromGrid(input.graph, engine.performInitialGridLayout());
+		}
+	}
+
+	/**
+	 * The input graph with its middle block split in two, as after a
+	 * re-disassembly, and a layout of the input graph to start from. The
+	 * layout is redone before every invocation because a layout reusing columns
+	 * appends to its contour pool.
+	 */
+	@State(Scope.Thread)
+	public static class SplitBlock {
+		LayoutGraph graph;
+		RizinLayoutEngine previous;
+
+		@Setup(Level.Trial)
+		public void split(Input input) {
+			LayoutGraph g = input.graph;
+			int split = g.vertexCount / 2;
+			LayoutGraph.Builder builder = new LayoutGraph.Builder(g.vertexCount + 1, g.edgeCount + 1);
+			for (int v = 0; v < g.vertexCount; v++) {
+				builder.addVertex(g.width[v], g.height[v]);
+			}
+			int tail = builder.addVertex(g.width[split], g.height[split]);
+			for (int e = 0; e < g.edgeCount; e++) {
+				builder.addEdge(g.edgeFrom[e] == split ? tail : g.edgeFrom[e], g.edgeTo[e]);
+			}
+			builder.addEdge(split, tail);
+			builder.setEntry(g.entry);
+			graph = builder.build();
+		}
+
+		@Setup(Level.Invocation)
+		public void prepare(Input input) {
+			previous = new RizinLayoutEngine(input.graph);
+			previous.performInitialGridLayout();
+		}
+	}
+
+	@Benchmark
+	public int[] toposort(BeforeToposort state) {
+		return state.engine.Toposort(state.engine.getGraph().entry);
+	}
+
+	@Benchmark
+	public int[] assignRows(BeforeAssignRows state) {
+		state.engine.assignRows();
+		return state.engine.ls.row;
+	}
+
+	@Benchmark
+	public int[] selectTree(BeforeSelectTree state) {
+		state.engine.selectTree();
+		return state.engine.ls.treeCount;
+	}
+
+	@Benchmark
+	public int[] findMergePoint(BeforeFindMergePoint state) {
+		state.engine.findMergePoint();
+		return state.engine.ls.col;
+	}
+
+	@Benchmark
+	public int[] assignColumns(BeforeAssignColumns state) {
+		state.engine.assignColumns();
+		return state.engine.ls.col;
+	}
+
+	@Benchmark
+	public int[] calculateEdgeMainColumn(Grid state) {
+		state.engine.calculateEdgeMainColumn();
+		return state.engine.ls.mainCol;
+	}
+
+	@Benchmark
+	public EdgeArticulations positionEdgeArticulationsInLayoutSpace(Grid state) {
+		return state.engine.positionEdgeArticulations(state.space);
+	}
+
+	@Benchmark
+	public GridLayout performInitialGridLayout(Input input) {
+		return new RizinLayoutEngine(input.graph).performInitialGridLayout();
+	}
+
+	@Benchmark
+	public GridLayout performGridLayoutReusingColumns(SplitBlock state) {
+		return new RizinLayoutEngine(state.graph).performGridLayoutReusingColumns(state.previous);
+	}
+
+	@Benchmark
+	public LayoutResult layout(Input input) {
+		return new RizinLayoutEngine(input.graph).layout();
+	}
+}
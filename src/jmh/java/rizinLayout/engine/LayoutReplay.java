@@ -0,0 +1,181 @@
+package rizinLayout.engine;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Lays out the graphs of {@link TopologyRecorder} corpora and prints the time
+ * and allocated bytes of every phase, in total and for the slowest graphs.
+ *
+ * Every graph is laid out runs times after a first warm up pass over the
+ * corpora, and the best run of every phase is kept. Phases run one by one on
+ * the current thread, with parallel column placement and edge routing turned
+ * off, so their allocations can be told apart. Run with
+ * <pre>gradle replay -PreplayArgs="corpus.rztc [more corpora] [-runs n]"</pre>
+ */
+public class LayoutReplay {
+
+	private static final int DEFAULT_RUNS = 3;
+	private static final int SLOWEST_REPORTED = 20;
+
+	private static final class Step {
+		final LayoutPhase phase;
+		final Consumer<RizinLayoutEngine> run;
+
+		Step(LayoutPhase phase, Consumer<RizinLayoutEngine> run) {
+			this.phase = phase;
+			this.run = run;
+		}
+	}
+
+	// In performInitialGridLayout then positionEdgeArticulations order
+	private static final Step[] STEPS = {
+		new Step(LayoutPhase.TOPOSORT, e -> e.ls.sorted_list = e.Toposort(e.getGraph().entry)),
+		new Step(LayoutPhase.ASSIGN_ROWS, RizinLayoutEngine::assignRows),
+		new Step(LayoutPhase.SELECT_TREE, RizinLayoutEngine::selectTree),
+		new Step(LayoutPhase.FIND_MERGE_POINT, RizinLayoutEngine::findMergePoint),
+		new Step(LayoutPhase.HASH_SUBTREES, RizinLayoutEngine::hashSubtrees),
+		new Step(LayoutPhase.ASSIGN_COLUMNS, e -> {
+			e.assignColumns();
+			e.computeGridSize();
+			e.ls.releaseGridState();
+		}),
+		new Step(LayoutPhase.CALCULATE_EDGE_MAIN_COLUMN, RizinLayoutEngine::calculateEdgeMainColumn),
+		new Step(LayoutPhase.ASSIGN_SLOTS, RizinLayoutEngine::assignSlots),
+		new Step(LayoutPhase.ROUTE_EDGES, e -> e.routeEdges(
+			LayoutSpace.fromGrid(e.getGraph(), e.computeGridSize()))),
+	};
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static final class Replayed {
+		final int index;
+		final StructuralHash hash;
+		final int vertices;
+		final int edges;
+		final long[] nanos = new long[STEPS.length];
+		final long[] bytes = new long[STEPS.length];
+
+		Replayed(int index, LayoutGraph g) {
+			this.index = index;
+			this.hash = StructuralHash.of(g);
+			this.vertices = g.vertexCount;
+			this.edges = g.edgeCount;
+			Arrays.fill(nanos, Long.MAX_VALUE);
+			Arrays.fill(bytes, Long.MAX_VALUE);
+		}
+
+		long totalNanos() {
+			long total = 0;
+			for (long n : nanos) {
+				total += n;
+			}
+			return total;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		List<Path> corpora = new ArrayList<Path>();
+		int runs = DEFAULT_RUNS;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-runs") && i + 1 < args.length) {
+				runs = Integer.parseInt(args[++i]);
+			}
+			else {
+				corpora.add(Paths.get(args[i]));
+			}
+		}
+		if (corpora.isEmpty()) {
+			System.err.println("usage: LayoutReplay <corpus>... [-runs n]");
+			System.exit(2);
+		}
+
+		for (Path corpus : corpora) {
+			TopologyRecorder.read(corpus, LayoutReplay::measure);
+		}
+		List<Replayed> replayed = new ArrayList<Replayed>();
+		int finalRuns = runs;
+		for (Path corpus : corpora) {
+			TopologyRecorder.read(corpus, g -> {
+				Replayed r = new Replayed(replayed.size(), g);
+				for (int run = 0; run < finalRuns; run++) {
+					long[][] cost = measure(g);
+					for (int s = 0; s < STEPS.length; s++) {
+						r.nanos[s] = Math.min(r.nanos[s], cost[0][s]);
+						r.bytes[s] = Math.min(r.bytes[s], cost[1][s]);
+					}
+				}
+				replayed.add(r);
+			});
+		}
+		System.out.print(report(replayed, runs));
+	}
+
+	/**
+	 * Runs every step once on a new engine and returns their time and
+	 * allocated bytes.
+	 */
+	private static long[][] measure(LayoutGraph g) {
+		RizinLayoutEngine engine = new RizinLayoutEngine(g);
+		engine.setMetrics(new LayoutMetrics());
+		engine.setParallelRouting(false);
+		engine.setParallelColumns(false);
+		engine.resetState();
+		long[][] cost = new long[2][STEPS.length];
+		long thread = Thread.currentThread().getId();
+		for (int s = 0; s < STEPS.length; s++) {
+			long bytes = THREADS.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			STEPS[s].run.accept(engine);
+			cost[0][s] = System.nanoTime() - start;
+			cost[1][s] = THREADS.getThreadAllocatedBytes(thread) - bytes;
+		}
+		return cost;
+	}
+
+	private static String report(List<Replayed> replayed, int runs) {
+		StringBuilder sb = new StringBuilder();
+		long vertices = 0;
+		long edges = 0;
+		for (Replayed r : replayed) {
+			vertices += r.vertices;
+			edges += r.edges;
+		}
+		sb.append(String.format("%d graphs, %d blocks, %d edges, best of %d runs%n",
+			replayed.size(), vertices, edges, runs));
+		for (int s = 0; s < STEPS.length; s++) {
+			long nanos = 0;
+			long maxNanos = 0;
+			long bytes = 0;
+			for (Replayed r : replayed) {
+				nanos += r.nanos[s];
+				maxNanos = Math.max(maxNanos, r.nanos[s]);
+				bytes += r.bytes[s];
+			}
+			sb.append(String.format("%-28s %12.3f ms total %10.3f ms max %12d KiB%n",
+				STEPS[s].phase, nanos / 1e6, maxNanos / 1e6, bytes / 1024));
+		}
+
+		List<Replayed> slowest = new ArrayList<Replayed>(replayed);
+		slowest.sort(Comparator.comparingLong(Replayed::totalNanos).reversed());
+		slowest = slowest.subList(0, Math.min(SLOWEST_REPORTED, slowest.size()));
+		sb.append(String.format("Slowest %d:%n", slowest.size()));
+		for (Replayed r : slowest) {
+			sb.append(String.format("  #%d %s: %d blocks, %d edges, %.3f ms%n", r.index, r.hash,
+				r.vertices, r.edges, r.totalNanos() / 1e6));
+			for (int s = 0; s < STEPS.length; s++) {
+				sb.append(String.format("    %-26s %10.3f ms %10d KiB%n", STEPS[s].phase,
+					r.nanos[s] / 1e6, r.bytes[s] / 1024));
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,149 @@
+package rizinLayout;
+
+import java.awt.Dimension;
+import java.util.*;
+
+import ghidra.program.model.address.Address;
+import ghidra.program.model.address.AddressSetView;
+import ghidra.program.model.block.*;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.Instruction;
+import ghidra.program.model.listing.Listing;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
+import rizinLayout.engine.CanonicalGraph;
+import rizinLayout.engine.LayoutGraph;
+
+/**
+ * LayoutGraph of the basic blocks of a function, built straight from the
+ * program, without the function graph plugin and its vertex components.
+ *
+ * Blocks are numbered by address and the edges of a block by target, through
+ * the same builder as RizinLayoutProvider numbers the vertices of a function
+ * graph with, and the size of a block is estimated from its instructions.
+ */
+public final class FunctionBlockGraph {
+
+	private static final int LINE_HEIGHT = 14;
+	private static final int CHAR_WIDTH = 7;
+	private static final int HORIZONTAL_MARGIN = 20;
+	private static final int VERTICAL_MARGIN = 30;
+	/** Order of the blocks of a function, by start then end address */
+	static final Comparator<AddressSetView> BLOCK_ORDER =
+		Comparator.comparing(AddressSetView::getMinAddress)
+				.thenComparing(AddressSetView::getMaxAddress);
+
+	public final Function function;
+	public final LayoutGraph graph;
+	/** Start address of the block of every vertex */
+	public final Address[] blocks;
+
+	private FunctionBlockGraph(Function function, LayoutGraph graph, Address[] blocks) {
+		this.function = function;
+		this.graph = graph;
+		this.blocks = blocks;
+	}
+
+	/**
+	 * Builds the block graph of function. Calls are not edges, and neither are
+	 * flows to blocks out of the function body.
+	 *
+	 * @return the graph, or null if the function has no code block
+	 */
+	public static FunctionBlockGraph build(Function function, TaskMonitor monitor)
+			throws CancelledException {
+		return build(function, true, monitor);
+	}
+
+	/**
+	 * Same as {@link #build(Function, TaskMonitor)}, with every block of size
+	 * 0 like RizinLayoutProvider gives them: the structural hash of the graph
+	 * is then the one of the function graph, if they have the same blocks and
+	 * edges.
+	 */
+	public static FunctionBlockGraph buildStructure(Function function, TaskMonitor monitor)
+			throws CancelledException {
+		return build(function, false, monitor);
+	}
+
+	private static FunctionBlockGraph build(Function function, boolean sized,
+			TaskMonitor monitor) throws CancelledException {
+		BasicBlockModel model = new BasicBlockModel(function.getProgram());
+		Listing listing = function.getProgram().getListing();
+
+		List<CodeBlock> codeBlocks = new ArrayList<CodeBlock>();
+		CodeBlockIterator it = model.getCodeBlocksContaining(function.getBody(), monitor);
+		while (it.hasNext()) {
+			codeBlocks.add(it.next());
+		}
+		if (codeBlocks.isEmpty()) {
+			return null;
+		}
+		Map<Address, CodeBlock> blocksByStart = new HashMap<Address, CodeBlock>(codeBlocks.size() * 2);
+		CanonicalGraph.Builder<CodeBlock, CodeBlockReference> builder =
+			newGraphBuilder(BLOCK_ORDER, codeBlocks.size(), codeBlocks.size() * 2);
+		for (CodeBlock block : codeBlocks) {
+			blocksByStart.put(block.getFirstStartAddress(), block);
+			if (sized) {
+				Dimension size = estimateSize(listing, block);
+				builder.addVertex(block, size.width, size.height);
+			}
+			else {
+				builder.addVertex(block, 0, 0);
+			}
+			if (block.getFirstStartAddress().equals(function.getEntryPoint())) {
+				builder.setEntry(block);
+			}
+		}
+
+		for (CodeBlock block : codeBlocks) {
+			monitor.checkCancelled();
+			CodeBlockReferenceIterator destinations = block.getDestinations(monitor);
+			while (destinations.hasNext()) {
+				CodeBlockReference reference = destinations.next();
+				if (reference.getFlowType().isCall()) {
+					continue;
+				}
+				CodeBlock target = blocksByStart.get(reference.getDestinationAddress());
+				if (target != null) {
+					builder.addEdge(reference, block, target);
+				}
+			}
+		}
+
+		CanonicalGraph<CodeBlock, CodeBlockReference> canonical = builder.build();
+		Address[] blocks = new Address[codeBlocks.size()];
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = canonical.getVertices().get(i).getFirstStartAddress();
+		}
+		return new FunctionBlockGraph(function, canonical.graph, blocks);
+	}
+
+	/**
+	 * Returns a builder numbering blocks by order, which should be
+	 * {@link #BLOCK_ORDER} of their addresses, and keeping one edge of every
+	 * pair of blocks, like a function graph does. RizinLayoutProvider and the
+	 * block graphs both build through it, so a function has the same
+	 * structural hash either way.
+	 */
+	static <V, E> CanonicalGraph.Builder<V, E> newGraphBuilder(Comparator<? super V> order,
+			int expectedVertices, int expectedEdges) {
+		return new CanonicalGraph.Builder<V, E>(order, expectedVertices, expectedEdges)
+				.mergeParallelEdges();
+	}
+
+	/**
+	 * Returns the size of the listing of some instructions, estimated from
+	 * their count and the longest of them, without building its component.
+	 */
+	public static Dimension estimateSize(Listing listing, AddressSetView addresses) {
+		int lines = 0;
+		int longestLine = 0;
+		for (Instruction instruction : listing.getInstructions(addresses, true)) {
+			lines++;
+			longestLine = Math.max(longestLine, instruction.toString().length());
+		}
+		return new Dimension(HORIZONTAL_MARGIN + CHAR_WIDTH * longestLine,
+			VERTICAL_MARGIN + LINE_HEIGHT * lines);
+	}
+}
@@ -0,0 +1,274 @@
+package rizinLayout;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import ghidra.program.model.listing.Function;
+import ghidra.util.Msg;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
+import ghidra.util.task.TaskMonitorAdapter;
+import rizinLayout.engine.CachedLayout;
+import rizinLayout.engine.GridLayout;
+import rizinLayout.engine.LayoutBudget;
+import rizinLayout.engine.LayoutCache;
+import rizinLayout.engine.LayoutCancelledException;
+import rizinLayout.engine.LayoutMetrics;
+import rizinLayout.engine.LayoutMonitor;
+import rizinLayout.engine.RizinLayoutEngine;
+import rizinLayout.engine.StructuralHash;
+
+/**
+ * Lays out in the background the functions likely to be opened next: the
+ * callees and callers of the function just laid out.
+ *
+ * Prelayouts run on a low priority daemon thread, with at most MAX_QUEUED
+ * functions waiting, and only compute the grid: edges are routed in the
+ * vertex sizes of the function graph, only known once it is shown. They are
+ * built from the {@link FunctionBlockGraph} of the function, and kept in a
+ * cache of their own until a layout of the same structure takes them.
+ *
+ * {@link #cancel()} drops the queued prelayouts and stops the running one.
+ * RizinLayoutProvider calls it when another layout starts, so prelayouts
+ * never compete with the function being opened.
+ */
+public final class LayoutPrefetcher {
+
+	public static final String PREFETCH_PROPERTY = "rizinLayout.prefetch";
+	private static final int MAX_QUEUED = 64;
+	// Callees first, then callers
+	private static final int MAX_NEIGHBOURS = 16;
+	private static final int MAX_PREFETCHED_LAYOUTS = 32;
+	private static final long MAX_PREFETCHED_WEIGHT = 1_000_000;
+
+	private final LayoutCache layoutCache;
+	private final LayoutCache prefetched =
+		new LayoutCache(MAX_PREFETCHED_LAYOUTS, MAX_PREFETCHED_WEIGHT);
+	private final LayoutMetrics metrics = new LayoutMetrics();
+	private final ThreadPoolExecutor executor;
+	// Incremented by cancel, prelayouts of an older generation stop
+	private volatile long generation = 0;
+	private long queued = 0;
+	private long laidOut = 0;
+	private long used = 0;
+	private long cancelled = 0;
+	private long dropped = 0;
+
+	/**
+	 * @param layoutCache the cache of the provider, functions already in it
+	 *  are not laid out again
+	 */
+	public LayoutPrefetcher(LayoutCache layoutCache) {
+		this.layoutCache = layoutCache;
+		this.executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(MAX_QUEUED), r -> {
+				Thread thread = new Thread(r, "Rizin layout prefetch");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}, (r, e) -> countDropped());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Returns a prefetcher if the rizinLayout.prefetch system property is
+	 * true, or null.
+	 */
+	public static LayoutPrefetcher fromSystemProperties(LayoutCache layoutCache) {
+		return Boolean.getBoolean(PREFETCH_PROPERTY) ? new LayoutPrefetcher(layoutCache) : null;
+	}
+
+	/**
+	 * Queues the prelayout of the callees and callers of function. They are
+	 * looked up in the background too.
+	 */
+	public void prefetchNeighbours(Function function) {
+		long current = generation;
+		executor.execute(() -> queueNeighbours(function, current));
+	}
+
+	/**
+	 * Removes and returns the prelayout of a graph of the given structure, or
+	 * null.
+	 */
+	public CachedLayout take(StructuralHash hash) {
+		CachedLayout layout = prefetched.remove(hash);
+		if (layout != null) {
+			synchronized (this) {
+				used++;
+			}
+		}
+		return layout;
+	}
+
+	/**
+	 * Drops the queued prelayouts and stops the running one.
+	 */
+	public void cancel() {
+		generation++;
+		List<Runnable> waiting = new ArrayList<Runnable>();
+		executor.getQueue().drainTo(waiting);
+		synchronized (this) {
+			cancelled += waiting.size();
+		}
+	}
+
+	private void queueNeighbours(Function function, long taskGeneration) {
+		// A cancelled lookup returns what it found so far, the loop stops then
+		TaskMonitor monitor = createTaskMonitor(taskGeneration);
+		try {
+			Set<Function> neighbours = new LinkedHashSet<Function>(function.getCalledFunctions(monitor));
+			neighbours.addAll(function.getCallingFunctions(monitor));
+			neighbours.remove(function);
+			int count = 0;
+			for (Function neighbour : neighbours) {
+				if (count == MAX_NEIGHBOURS || generation != taskGeneration) {
+					break;
+				}
+				// External functions have no body, thunks are a single jump
+				if (neighbour.isExternal() || neighbour.isThunk()) {
+					continue;
+				}
+				count++;
+				synchronized (this) {
+					queued++;
+				}
+				executor.execute(() -> prelayout(neighbour, taskGeneration));
+			}
+		}
+		catch (RuntimeException e) {
+			// The program may be closed or changed under us, it is only a guess
+			Msg.debug(this, "Cannot look up the neighbours of " + function.getName(), e);
+		}
+	}
+
+	private void prelayout(Function function, long taskGeneration) {
+		if (generation != taskGeneration) {
+			synchronized (this) {
+				cancelled++;
+			}
+			return;
+		}
+		try {
+			FunctionBlockGraph blockGraph =
+				FunctionBlockGraph.buildStructure(function, createTaskMonitor(taskGeneration));
+			if (blockGraph == null) {
+				return;
+			}
+			StructuralHash hash = StructuralHash.of(blockGraph.graph);
+			if (layoutCache.contains(hash) || prefetched.contains(hash)) {
+				return;
+			}
+			RizinLayoutEngine engine = new RizinLayoutEngine(blockGraph.graph);
+			engine.setMonitor(createLayoutMonitor(taskGeneration));
+			engine.setBudget(LayoutBudget.fromSystemProperties());
+			engine.setMetrics(metrics);
+			// The common pool is left to the layouts being shown
+			engine.setParallelColumns(false);
+			GridLayout grid = engine.performInitialGridLayout();
+			if (!engine.isDegraded()) {
+				prefetched.put(hash, new CachedLayout(grid));
+				synchronized (this) {
+					laidOut++;
+				}
+			}
+		}
+		catch (CancelledException | LayoutCancelledException e) {
+			synchronized (this) {
+				cancelled++;
+			}
+		}
+		catch (RuntimeException e) {
+			Msg.debug(this, "Cannot prelayout " + function.getName(), e);
+		}
+	}
+
+	private TaskMonitor createTaskMonitor(long taskGeneration) {
+		return new TaskMonitorAdapter(true) {
+			@Override
+			public boolean isCancelled() {
+				return generation != taskGeneration;
+			}
+		};
+	}
+
+	private LayoutMonitor createLayoutMonitor(long taskGeneration) {
+		return new LayoutMonitor() {
+			@Override
+			public boolean isCancelled() {
+				return generation != taskGeneration;
+			}
+
+			@Override
+			public void setMessage(String message) {
+				// nobody watches prelayouts
+			}
+
+			@Override
+			public void initialize(long max) {
+				// nobody watches prelayouts
+			}
+
+			@Override
+			public void setProgress(long value) {
+				// nobody watches prelayouts
+			}
+		};
+	}
+
+	private synchronized void countDropped() {
+		dropped++;
+	}
+
+	/**
+	 * Returns the phase timings of the prelayouts, kept apart from
+	 * {@link LayoutMetrics#global()}.
+	 */
+	public LayoutMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the number of functions queued for a prelayout.
+	 */
+	public synchronized long getQueued() {
+		return queued;
+	}
+
+	/**
+	 * Returns the number of prelayouts computed.
+	 */
+	public synchronized long getLaidOut() {
+		return laidOut;
+	}
+
+	/**
+	 * Returns the number of prelayouts a layout used.
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+	/**
+	 * Returns the number of prefetch tasks cancelled, waiting or running.
+	 */
+	public synchronized long getCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns the number of tasks dropped because the queue was full.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "LayoutPrefetcher[queued=" + queued + ", laidOut=" + laidOut + ", used=" + used +
+			", cancelled=" + cancelled + ", dropped=" + dropped + ", cached=" +
+			prefetched.size() + "]";
+	}
+}
@@ -1,737 +1,1255 @@
-package rizinLayout;
-
-import java.awt.Rectangle;
-import java.awt.geom.Point2D;
-import java.util.*;
-import java.util.Map.Entry;
-
-import javax.swing.Icon;
-
-import ghidra.app.plugin.core.functiongraph.graph.layout.FGLayout;
-import ghidra.app.plugin.core.functiongraph.graph.layout.AbstractFGLayout;
-import ghidra.app.plugin.core.functiongraph.graph.layout.FGLayoutProviderExtensionPoint;
-import ghidra.app.plugin.core.functiongraph.graph.FGEdge;
-import ghidra.app.plugin.core.functiongraph.graph.FunctionGraph;
-import ghidra.app.plugin.core.functiongraph.graph.vertex.FGVertex;
-import ghidra.graph.VisualGraph;
-import ghidra.graph.viewer.layout.*;
-import ghidra.graph.viewer.vertex.VisualGraphVertexShapeTransformer;
-import ghidra.util.exception.CancelledException;
-import ghidra.util.task.TaskMonitor;
-import resources.Icons;
-
-public class RizinLayoutProvider extends FGLayoutProviderExtensionPoint {
-
-	private static final String NAME = "Rizin Layout";
-
-	@Override
-	public String getLayoutName() {
-		return NAME;
-	}
-
-	@Override
-	public Icon getActionIcon() {
-		return Icons.ARROW_UP_LEFT_ICON;
-	}
-
-	@Override
-	public int getPriorityLevel() {
-		// Just because it's your favorite layout out there
-		return 1000;
-	}
-
-	@Override
-	public FGLayout getFGLayout(FunctionGraph graph, TaskMonitor monitor)
-			throws CancelledException {
-		RizinLayout t = new RizinLayout(graph);
-		t.setTaskMonitor(monitor);
-		return t;
-	}
-	
-	public String toString() {
-		return NAME;
-	}
-
-	private class RizinLayout extends AbstractFGLayout {
-		
-		public LayoutState ls;
-
-		protected RizinLayout(FunctionGraph graph) {
-			super(graph, NAME);
-		}
-
-		@Override
-		protected AbstractVisualGraphLayout<FGVertex, FGEdge> createClonedFGLayout(
-				FunctionGraph newGraph) {
-			return new RizinLayout(newGraph);
-		}
-
-		@Override
-		protected Point2D getVertexLocation(FGVertex v, Column col, Row<FGVertex> row,
-				Rectangle bounds) {
-			return getCenteredVertexLocation(v, col, row, bounds);
-		}
-
-		@Override
-		protected GridLocationMap<FGVertex, FGEdge> performInitialGridLayout(
-				VisualGraph<FGVertex, FGEdge> g) throws CancelledException {
-
-			GridLocationMap<FGVertex, FGEdge> gridLocations = new GridLocationMap<>();
-			
-			ls = new LayoutState(g);
-			
-			int entry_idx = 0;
-			
-			List<FGVertex> vertices = new ArrayList<FGVertex>(g.getVertices());
-			for(int i = 0 ; i < vertices.size() ; i++) {
-				FGVertex v = vertices.get(i);
-				
-				if (v.isEntry()) {
-					entry_idx = i;
-				}
-				
-				GridNode gn = new GridNode(v);
-				ls.gridNodes.put(i, gn);
-				ls.gridNodesR.put(v, i);
-			}
-			
-			List<FGEdge> edges = new ArrayList<FGEdge>(g.getEdges());
-			for(int i = 0 ; i < edges.size() ; i++) {
-				FGEdge e = edges.get(i);
-				
-				GridEdge ge = new GridEdge(e);
-				ge.from = ls.gridNodesR.get(e.getStart());
-				ge.to = ls.gridNodesR.get(e.getEnd());
-				ls.gridEdges.put(i, ge);
-				ls.gridEdgesR.put(e, i);
-			}
-			
-			ls.sorted_list = Toposort(entry_idx);
-			
-			assignRows();
-			
-			selectTree();
-			findMergePoint();
-			
-			assignColumns();
-			
-			ls.columns = 1;
-			ls.rows = 1;
-			
-			for (int i = 0 ; i < ls.gridNodes.size() ; i++) {
-				GridNode gn = ls.gridNodes.get(i);
-				ls.rows = ls.rows > (gn.row + 1) ? ls.rows : (gn.row + 1);
-				ls.columns = ls.columns > (gn.col + 2) ? ls.columns : (gn.col + 2);
-			}
-			
-			for (int i = 0; i < ls.gridNodes.size(); i++) {
-				GridNode gn = ls.gridNodes.get(i);
-				gridLocations.row(gn.v, gn.row);
-				gridLocations.col(gn.v, gn.col);
-			}
-
-			return gridLocations;
-		}
-		
-		private void assignColumns() {
-			for (int i = 0 ; i < ls.sorted_list.size(); i++) {
-				Integer idx = ls.sorted_list.get(i);
-				GridNode gn = ls.gridNodes.get(idx);
-				if (gn.treeEdges.size() == 0) {
-					gn.row_count = 1;
-					gn.col = 0;
-					gn.lastRowRight = 2;
-					gn.lastRowLeft = 0;
-					gn.leftPosition = 0;
-					gn.rightPosition = 2;
-					gn.leftSideShape = Arrays.asList(0);
-					gn.rightSideShape = Arrays.asList(2);
-				}
-				else {
-					Integer firstChild_idx = gn.treeEdges.get(0);
-					GridNode firstChild = ls.gridNodes.get(firstChild_idx);
-					List<Integer> leftSide = firstChild.leftSideShape;
-					List<Integer> rightSide = firstChild.rightSideShape;
-					gn.row_count = firstChild.row_count;
-					gn.lastRowRight = firstChild.lastRowRight;
-					gn.lastRowLeft = firstChild.lastRowLeft;
-					gn.leftPosition = firstChild.leftPosition;
-					gn.rightPosition = firstChild.rightPosition;
-					
-					for (int j = 1; j < gn.treeEdges.size(); j++) {
-						Integer child_idx = gn.treeEdges.get(j);
-						GridNode child = ls.gridNodes.get(child_idx);
-						int minPos = Integer.MIN_VALUE;
-						int leftPos = 0;
-						int rightPos = 0;
-						Iterator<Integer> leftIt = rightSide.iterator();
-						Iterator<Integer> rightIt = child.leftSideShape.iterator();
-						int maxLeftWidth = 0;
-						int minRightPos = child.col;
-						int offsetCnt = 0;
-						while (leftIt.hasNext() && rightIt.hasNext()) {
-							leftPos += leftIt.next();
-							rightPos += rightIt.next();
-							minPos = minPos > (leftPos - rightPos) ? minPos : (leftPos - rightPos); // MAX
-							maxLeftWidth = maxLeftWidth > leftPos ? maxLeftWidth : leftPos; // MAX
-							minRightPos = minRightPos > rightPos ? rightPos : minRightPos; // MIN
-							offsetCnt++;
-						}
-						// I chose here to do not implement tightSubtreePlacement (option)
-						int rightTreeOffset = 0;
-						if (leftIt.hasNext()) {
-							rightTreeOffset = maxLeftWidth - child.leftPosition;
-						}
-						else {
-							rightTreeOffset = gn.rightPosition - minRightPos;
-						}
-						child.col += rightTreeOffset;
-						
-						if (leftIt.hasNext()) {
-							int val = rightSide.get(offsetCnt);
-							rightSide.set(offsetCnt, val - (rightTreeOffset + child.lastRowRight - leftPos));
-							int lst_size = rightSide.size();
-							ArrayList<Integer> nl = new ArrayList<Integer>();
-							nl.addAll(child.rightSideShape);
-							nl.addAll(rightSide.subList(offsetCnt, lst_size));
-							rightSide = nl;
-						}
-						else if (rightIt.hasNext()) {
-							int val = child.leftSideShape.get(offsetCnt);
-							child.leftSideShape.set(offsetCnt, val + (rightPos + rightTreeOffset - gn.lastRowLeft));
-							int lst_size = child.leftSideShape.size();
-							ArrayList<Integer> nl = new ArrayList<Integer>();
-							nl.addAll(leftSide);
-							nl.addAll(child.leftSideShape.subList(offsetCnt, lst_size));
-							leftSide = nl;
-							rightSide = child.rightSideShape;
-							gn.lastRowRight = child.lastRowRight + rightTreeOffset;
-							gn.lastRowLeft = child.lastRowLeft + rightTreeOffset;
-						}
-						else {
-							rightSide = child.rightSideShape;
-						}
-						
-						Integer head = rightSide.get(0);
-						rightSide.set(0, head + rightTreeOffset);
-						
-						gn.row_count = gn.row_count > child.row_count ? gn.row_count : child.row_count;
-						gn.leftPosition = gn.leftPosition > (child.leftPosition + rightTreeOffset) ? (child.leftPosition + rightTreeOffset) : gn.leftPosition;
-						gn.rightPosition = gn.rightPosition > (rightTreeOffset + child.rightPosition) ? gn.rightPosition : (rightTreeOffset + child.rightPosition);
-					}
-					int col = 0;
-					// Here we assume that parentBetweenDirectChild is set
-					for (int j = 0; j < gn.treeEdges.size(); j++) {
-						Integer child_idx = gn.treeEdges.get(j);
-						GridNode child = ls.gridNodes.get(child_idx);
-						col += child.col;
-					}
-					col /= gn.treeEdges.size();
-					
-					gn.col += col;
-					gn.row_count++;
-					gn.leftPosition = gn.leftPosition > gn.col ? gn.col : gn.leftPosition;
-					gn.rightPosition = gn.rightPosition > (gn.col + 2) ? gn.rightPosition : (gn.col + 2);
-					
-					Integer head = leftSide.get(0);
-					leftSide.set(0, head - gn.col);
-					
-					ArrayList<Integer> nl = new ArrayList<Integer>();
-					nl.add(gn.col);
-					nl.addAll(leftSide);
-					gn.leftSideShape = nl;
-					
-					head = rightSide.get(0);
-					rightSide.set(0,  head - (gn.col + 2));
-					
-					nl = new ArrayList<Integer>();
-					nl.add(gn.col + 2);
-					nl.addAll(rightSide);
-					gn.rightSideShape = nl;
-					
-					for (int j = 0; j < gn.treeEdges.size(); j++) {
-						Integer child_idx = gn.treeEdges.get(j);
-						GridNode child = ls.gridNodes.get(child_idx);
-						child.col -= gn.col;
-					}
-				}
-			}
-			
-			int nextEmptyColumn = 0;
-			for (int i = 0; i < ls.gridNodes.size(); i++) {
-				GridNode gn = ls.gridNodes.get(i);
-				if(gn.row == 0) {
-					int offset = -gn.leftPosition;
-					gn.col += nextEmptyColumn + offset;
-					nextEmptyColumn = gn.rightPosition + offset + nextEmptyColumn;
-				}
-			}
-			
-			for (int i = ls.sorted_list.size() - 1 ; i >= 0 ; i--) {
-				Integer idx = ls.sorted_list.get(i);
-				GridNode nd = ls.gridNodes.get(idx);
-				assert(nd.col >= 0);
-				for (int j = 0 ; j < nd.treeEdges.size(); j++) {
-					Integer child_idx = nd.treeEdges.get(j);
-					GridNode child = ls.gridNodes.get(child_idx);
-					child.col += nd.col;
-				}
-			}
-			
-		}
-
-		private void findMergePoint() {
-			for (int i = 0; i < ls.gridNodes.size(); i++) {
-				GridNode gn = ls.gridNodes.get(i);
-				int mergeBlock_idx = -1;
-				int grandChildCount = 0;
-				
-				for (int j = 0 ; j < gn.treeEdges.size(); j++) {
-					Integer target_idx = gn.treeEdges.get(j);
-					GridNode targetGn = ls.gridNodes.get(target_idx);
-					int tree_edges_size = targetGn.treeEdges.size();
-					if (tree_edges_size != 0) {
-						mergeBlock_idx = targetGn.treeEdges.get(0);
-					}
-					grandChildCount += tree_edges_size;
-				}
-				if (mergeBlock_idx == -1 || grandChildCount != 1) {
-					continue;
-				}
-				
-				int blockGoingToMerge = 0;
-				int blockWithTreeEdge = 0;
-				for (int j = 0 ; j < gn.treeEdges.size(); j++) {
-					Integer target_idx = gn.treeEdges.get(j);
-					GridNode targetGn = ls.gridNodes.get(target_idx);
-					boolean goesToMerge = false;
-					for (int k = 0 ; k < targetGn.dagEdges.size(); k++) {
-						Integer target_dag_idx = targetGn.dagEdges.get(k);
-						if (target_dag_idx == mergeBlock_idx) {
-							goesToMerge = true;
-							break;
-						}
-						if (goesToMerge) {
-							if (targetGn.treeEdges.size() == 1) {
-								blockWithTreeEdge = blockGoingToMerge;
-							}
-							blockGoingToMerge++;
-						}
-						else {
-							break;
-						}
-					}
-					if (blockGoingToMerge != 0) {
-						ls.gridNodes.get(targetGn.treeEdges.get(blockWithTreeEdge)).col = blockWithTreeEdge * 2 - (blockGoingToMerge - 1);
-					}
-				}
-					
-			}
-		}
-
-		private void selectTree() {
-			for (int i = 0; i < ls.gridNodes.size(); i++) {
-				GridNode nd = ls.gridNodes.get(i);
-				for (int j = 0 ; j < nd.dagEdges.size(); j++){
-					Integer target_idx = nd.dagEdges.get(j);
-					GridNode target = ls.gridNodes.get(target_idx);
-					if (!target.hasParent && target.row == nd.row + 1) {
-						nd.treeEdges.add(target_idx);
-						target.hasParent = true;
-					}	
-				}
-			}
-		}
-
-		private void assignRows() {
-			for (int i = ls.sorted_list.size() - 1 ; i >= 0 ; i--) {
-				Integer idx = ls.sorted_list.get(i);
-				GridNode nd = ls.gridNodes.get(idx);
-				int nextLvl = nd.row + 1;
-				for (int j = 0 ; j < nd.dagEdges.size(); j++) {
-					Integer target_idx = nd.dagEdges.get(j);
-					GridNode target = ls.gridNodes.get(target_idx);
-					target.row = target.row > nextLvl ? target.row : nextLvl;
-				}
-			}	
-		}
-
-		protected List<Integer> Toposort(int entry_idx) {
-			List<Integer> blockOrder = new ArrayList<Integer>();
-			int NotVisited = 0;
-			int gn_size = ls.gridNodes.size();
-			
-			List<Integer> visited = new ArrayList<Integer>(gn_size);
-			
-			// Init the visited list with all 0 as blocks aren't visited yet
-			for (int i = 0; i < gn_size; i++) {
-				visited.add(0);
-			}
-			
-			Stack<Map.Entry<Integer, Integer>> stack = new Stack<Map.Entry<Integer, Integer>>();
-			
-			Dfs(visited, stack, blockOrder, entry_idx);
-			
-			for (int i = 0 ; i < gn_size ; i++) {
-				if (visited.get(i) == NotVisited) {
-					Dfs(visited, stack, blockOrder, i);
-				}
-			}
-			return blockOrder;	
-		}
-		
-		void Dfs(List<Integer> visited, Stack<Entry<Integer, Integer>> stack, List<Integer> blockOrder, int entry_idx) {
-			int NotVisited = 0, InStack = 1 , Visited = 2;
-			
-			visited.set(entry_idx, InStack);
-			stack.push(new AbstractMap.SimpleEntry<Integer, Integer>(entry_idx, 0));
-			
-			while (!stack.isEmpty()) {
-				Entry<Integer, Integer> elem = stack.lastElement();
-				GridNode gn = ls.gridNodes.get(elem.getKey());
-				int edge_index = elem.getValue();
-								
-				List<FGEdge> edges = new ArrayList<FGEdge>(ls.g.getOutEdges(gn.v));
-				if (edge_index < edges.size()) {
-					stack.lastElement().setValue(edge_index + 1);
-					int target = ls.gridNodesR.get(edges.get(edge_index).getEnd());
-					Integer targetState = visited.get(target);
-					if (targetState.intValue() == NotVisited) {
-						visited.set(target, InStack);
-						stack.push(new AbstractMap.SimpleEntry<Integer, Integer>(target, 0));
-						gn.dagEdges.add(target);
-					}
-					else if (targetState.intValue() == Visited) {
-						gn.dagEdges.add(target);
-					}
-				}
-				else {
-					stack.pop();
-					visited.set(elem.getKey(), Visited);
-					blockOrder.add(elem.getKey());
-				}
-			}
-		}
-
-		@Override
-		protected Map<FGEdge, List<Point2D>> positionEdgeArticulationsInLayoutSpace(
-				VisualGraphVertexShapeTransformer<FGVertex> transformer,
-				Map<FGVertex, Point2D> vertexLayoutLocations, Collection<FGEdge> edges,
-				LayoutLocationMap<FGVertex, FGEdge> layoutLocations) throws CancelledException {
-
-			Map<FGEdge, List<Point2D>> newEdgeArticulations = new HashMap<>();
-			
-			double ART_DISTANCE_FROM_NODE = 10;
-			
-			calculateEdgeMainColumn();
-			
-			
-			List<Column> columns = new ArrayList<Column>(layoutLocations.columns());
-			List<Row<FGVertex>> rows = new ArrayList<Row<FGVertex>>(layoutLocations.rows());
-			
-			Map<Integer, Integer> columnCountSegment = new HashMap<Integer, Integer>();
-			Map<Integer, Integer> rowCountSegment = new HashMap<Integer, Integer>();
-			
-			for (int i = 0 ; i < ls.sorted_list.size(); i++) {
-				GridNode toNode = ls.gridNodes.get(ls.sorted_list.get(i));
-				List<FGEdge> inEdges = new ArrayList<FGEdge>(ls.g.getInEdges(toNode.v));
-				for (int j = 0 ; j < inEdges.size(); j++)
-				{
-					FGEdge f_edge = inEdges.get(j);
-					Integer edge_idx = ls.gridEdgesR.get(f_edge);
-					GridEdge edge = ls.gridEdges.get(edge_idx);
-					
-					GridNode fromNode = ls.gridNodes.get(edge.from);
-					int mainCol = edge.main_col;
-					
-					Point2D fromLoc = vertexLayoutLocations.get(fromNode.v);
-					double fromBottom = rows.get(fromNode.row).y + rows.get(fromNode.row).height;
-					
-					Point2D toLoc = vertexLayoutLocations.get(toNode.v);
-					double toTop = rows.get(toNode.row).y;
-					
-					List<Point2D> articulations = new ArrayList<>();
-					double x1, y1;
-					
-					int OFFSET_FROM_NODE_VER = 10;
-					int SIZE_BETWEEN_NODE_VER = 50;
-					int MAX_NUMBER_SEGMENT_PER_COL = 15;
-					int DEFAULT_SPACE_BETWEEN_SEG = 3;
-					int MAX_NUMBER_SEGMENT_PER_ROW = (SIZE_BETWEEN_NODE_VER - OFFSET_FROM_NODE_VER) / DEFAULT_SPACE_BETWEEN_SEG;
-					
-					
-					double spaceBetweenInEdgeHor = columns.get(toNode.col).getPaddedWidth(false) / (inEdges.size() + 1);					
-					
-					if (mainCol == fromNode.col && mainCol == toNode.col) {
-						// NOTHING TO DO ?? THE EDGE GOES IN A STRAIGHT LINE, NO ARTICULATIONS NEEDED
-					}
-					else if (mainCol != fromNode.col && mainCol == toNode.col) {
-						// IN THIS CASE WE JUST HAVE TO MOVE TO MAIN COL
-						int direction = mainCol > fromNode.col ? 1 : -1;
-						
-						Integer n = rowCountSegment.computeIfPresent(fromNode.row, (k, v) -> (v + 1) > MAX_NUMBER_SEGMENT_PER_ROW ? MAX_NUMBER_SEGMENT_PER_ROW : v + 1);
-						if (n == null) {
-							rowCountSegment.put(fromNode.row, 1);
-							n = 1;
-						}
-						
-						x1 = fromLoc.getX() + direction * ART_DISTANCE_FROM_NODE;
-						y1 = fromBottom + OFFSET_FROM_NODE_VER + (SIZE_BETWEEN_NODE_VER - OFFSET_FROM_NODE_VER) * n / MAX_NUMBER_SEGMENT_PER_ROW;
-						articulations.add(new Point2D.Double(x1, y1));
-						
-						x1 = toLoc.getX();
-						articulations.add(new Point2D.Double(x1, y1));	
-					}
-					else if (mainCol == fromNode.col && mainCol != toNode.col) {
-						// IN THIS CASE WE JUST MOVE UP OR DOWN THEN MOVE TO MAIN COL
-						
-						Integer n = rowCountSegment.computeIfPresent(toNode.row - 1, (k, v) -> (v + 1) > MAX_NUMBER_SEGMENT_PER_ROW ? MAX_NUMBER_SEGMENT_PER_ROW : v + 1);
-						if (n == null) {
-							rowCountSegment.put(toNode.row - 1, 1);
-							n = 1;
-						}
-						
-						int direction = mainCol < toNode.col ? 1 : -1;
-						x1 = fromLoc.getX() + direction * ART_DISTANCE_FROM_NODE;
-						y1 = toTop - SIZE_BETWEEN_NODE_VER + OFFSET_FROM_NODE_VER + ((SIZE_BETWEEN_NODE_VER - OFFSET_FROM_NODE_VER) * n / MAX_NUMBER_SEGMENT_PER_ROW);
-						articulations.add(new Point2D.Double(x1, y1));
-						
-						x1 = toLoc.getX() + (-1 * direction * 5) + (-1 * direction * j * spaceBetweenInEdgeHor);
-						articulations.add(new Point2D.Double(x1, y1));
-						
-					}
-					else {
-						// IN THIS LAST CASE WE NEED 4 ARTICULATIONS! 
-						// MOVE TO MAIN COLUMN
-						int direction = mainCol > fromNode.col ? 1 : -1;
-						
-						Integer n = rowCountSegment.computeIfPresent(fromNode.row, (k, v) -> (v + 1) > MAX_NUMBER_SEGMENT_PER_ROW ? MAX_NUMBER_SEGMENT_PER_ROW : v + 1);
-						if (n == null) {
-							rowCountSegment.put(fromNode.row, 1);
-							n = 1;
-						}
-						
-						x1 = fromLoc.getX() + direction * ART_DISTANCE_FROM_NODE;
-						y1 = fromBottom + OFFSET_FROM_NODE_VER + (SIZE_BETWEEN_NODE_VER - OFFSET_FROM_NODE_VER) * n / MAX_NUMBER_SEGMENT_PER_ROW;
-						articulations.add(new Point2D.Double(x1, y1));
-													
-						n = columnCountSegment.computeIfPresent(mainCol, (k, v) -> (v + 1) > MAX_NUMBER_SEGMENT_PER_COL ? MAX_NUMBER_SEGMENT_PER_COL : v + 1);
-						if (n == null) {
-							columnCountSegment.put(mainCol, 1);
-							n = 1;
-						}
-						
-						if (mainCol == -1) {
-							Column firstCol = columns.get(0);
-							x1 = firstCol.x - (firstCol.getPaddedWidth(false) >> 2) - n * DEFAULT_SPACE_BETWEEN_SEG;
-						}
-						else if (mainCol == columns.size()) {
-							Column lastCol = columns.get(columns.size() - 1);
-							x1 = lastCol.x + 5 * (lastCol.getPaddedWidth(false) >> 2) + n * DEFAULT_SPACE_BETWEEN_SEG;
-						}
-						else {
-							Column destcol = columns.get(mainCol);
-							x1 = destcol.x + destcol.getPaddedWidth(false) * n / MAX_NUMBER_SEGMENT_PER_COL;		
-						}
-						
-						articulations.add(new Point2D.Double(x1, y1));
-						
-						n = rowCountSegment.computeIfPresent(toNode.row - 1, (k, v) -> (v + 1) > MAX_NUMBER_SEGMENT_PER_ROW ? MAX_NUMBER_SEGMENT_PER_ROW : v + 1);
-						if (n == null) {
-							rowCountSegment.put(toNode.row - 1, 1);
-							n = 1;
-						}
-						
-						// THEN MOVE TO TO COLUMN
-						direction = mainCol < toNode.col ? 1 : -1;
-						
-						y1 = toTop - SIZE_BETWEEN_NODE_VER + OFFSET_FROM_NODE_VER + ((SIZE_BETWEEN_NODE_VER - OFFSET_FROM_NODE_VER) * n / MAX_NUMBER_SEGMENT_PER_ROW);
-						articulations.add(new Point2D.Double(x1, y1));
-						
-						x1 = toLoc.getX() + (-1 * direction * 5) + -1 * direction * j * spaceBetweenInEdgeHor;
-						articulations.add(new Point2D.Double(x1, y1));
-					}
-					
-					newEdgeArticulations.put(edge.e, articulations);
-				}
-			}
-			
-			
-			return newEdgeArticulations;
-		}
-
-		private void calculateEdgeMainColumn() {
-			List<Event> events = new ArrayList<Event>();
-			
-			for (int i = 0; i < ls.gridNodes.size(); i++) {
-				GridNode gn = ls.gridNodes.get(i);
-				events.add(new Event(i, 0, gn.row, 1));
-				
-				int startRow = gn.row;
-				
-				List<FGEdge> outEdges = new ArrayList<FGEdge>(ls.g.getOutEdges(gn.v));
-				for (int j = 0; j < outEdges.size(); j++) {
-					FGEdge edge = outEdges.get(j);
-					Integer target_idx = ls.gridNodesR.get(edge.getEnd());
-					GridNode target = ls.gridNodes.get(target_idx);
-					int endRow = target.row;
-					int edgeIdx = ls.gridEdgesR.get(edge);
-					events.add(new Event(i, edgeIdx, startRow > endRow ? startRow : endRow, 0));
-				}
-			}
-			
-			Collections.sort(events, new Comparator<Event>(){
-				public int compare(Event o1, Event o2) {
-					if (o1.row != o2.row) {
-						return o1.row - o2.row;	
-					}
-					return o1.type - o2.type;
-				  }
-			});
-			
-			List<Integer> blockedColumns = new ArrayList<Integer>();
-			for (int i = 0; i < ls.columns; i++) {
-				blockedColumns.add(-1);
-			}
-			
-			for (int i = 0 ; i < events.size(); i++) {
-				Event event = events.get(i);
-				if (event.type == 1) {
-					int col = ls.gridNodes.get(event.node_id).col;
-					blockedColumns.set(col, event.row);
-				}
-				else {
-					GridNode gn = ls.gridNodes.get(event.node_id);
-					GridEdge edge = ls.gridEdges.get(event.edge_id);
-					int col = gn.col;
-					Integer target_idx = edge.to;
-					GridNode target = ls.gridNodes.get(target_idx);
-					int topRow = gn.row > target.row ? target.row : gn.row;
-					int targetColumn = target.col;
-					
-					if (blockedColumns.get(col).intValue() <= topRow) {
-						edge.main_col = col;
-					}
-					else if (blockedColumns.get(targetColumn).intValue() <= topRow) {
-						edge.main_col = targetColumn;
-					}
-					else {
-						int nearestLeft = leftMostLessThan(blockedColumns, col, topRow);
-						int nearestRight = rightMostLessThan(blockedColumns, col, topRow);
-												
-						int distanceLeft = col - nearestLeft + Math.abs(targetColumn - nearestLeft);
-						int distanceRight = nearestRight - col + Math.abs(targetColumn - nearestRight);
-						
-						if (target.row < gn.row) {
-							if (targetColumn < col && blockedColumns.get(col).intValue() < topRow && col - targetColumn <= distanceLeft) {
-								edge.main_col = col;
-								continue;
-							}
-							else if (targetColumn > col && blockedColumns.get(col).intValue() < topRow && targetColumn - col <= distanceRight) {
-								edge.main_col = col;
-								continue;
-							}
-						}
-						
-						if (distanceLeft != distanceRight) {
-							edge.main_col = distanceLeft < distanceRight ? nearestLeft : nearestRight;
-						}
-						else {
-							// LOL
-							edge.main_col = (event.edge_id % 2 == 0) ? nearestLeft : nearestRight;
-						}
-					}
-				}
-				
-			}		
-		}
-
-		private int leftMostLessThan(List<Integer> blockedColumns, int col, int topRow) {
-			for (int i = col; i >= 0; i--) {
-				if (blockedColumns.get(i) < topRow) {
-					return i;
-				}
-			}
-			return -1;
-		}
-		
-		private int rightMostLessThan(List<Integer> blockedColumns, int col, int topRow) {
-			for (int i = col; i < blockedColumns.size(); i++) {
-				if (blockedColumns.get(i) < topRow) {
-					return i;
-				}
-			}
-			return blockedColumns.size();
-		}
-	}
-	
-	private class LayoutState {
-		public List<Integer> sorted_list;
-		public int rows;
-		public int columns;
-		Map<Integer, GridNode> gridNodes;
-		Map<FGVertex, Integer> gridNodesR;
-		Map<Integer, GridEdge> gridEdges;
-		Map<FGEdge, Integer> gridEdgesR;
-		VisualGraph<FGVertex, FGEdge> g;
-		
-		LayoutState(VisualGraph<FGVertex, FGEdge> g){
-			this.g = g;
-			this.gridNodes = new HashMap<Integer, GridNode>();
-			this.gridNodesR = new HashMap<FGVertex, Integer>();
-			this.gridEdges = new HashMap<Integer, GridEdge>();
-			this.gridEdgesR = new HashMap<FGEdge, Integer>();
-		}
-	}
-
-	private class GridNode {
-
-		public int rightPosition;
-		public List<Integer> rightSideShape;
-		public List<Integer> leftSideShape;
-		public int leftPosition;
-		public int lastRowLeft;
-		public int lastRowRight;
-		public int row_count;
-		public int row = 0;
-		public int col = 0;
-		public boolean hasParent = false;
-		private FGVertex v;
-		private List<Integer> dagEdges;
-		private List<Integer> treeEdges;
-
-		GridNode(FGVertex v) {
-			this.v = v;
-			this.dagEdges = new ArrayList<Integer>();
-			this.treeEdges = new ArrayList<Integer>();
-		}
-
-	}
-	
-	private class GridEdge {
-
-		private FGEdge e;
-		int from = -1;
-		int to = -1;
-		int main_col;
-
-		GridEdge(FGEdge e) {
-			this.e = e;
-		}
-	}
-	
-	private class Event{
-
-		int node_id;
-		int edge_id;
-		int row;
-		int type; // Edge = 0; Block = 1
-
-		Event(int nid, int eid, int row, int t) {
-			this.node_id = nid;
-			this.edge_id = eid;
-			this.row = row;
-			this.type = t;
-		}
-	}
-}
+package rizinLayout;
+
+import java.awt.Dimension;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Rectangle;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.Icon;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import edu.uci.ics.jung.algorithms.layout.Layout;
+import edu.uci.ics.jung.visualization.VisualizationViewer;
+import edu.uci.ics.jung.visualization.control.SatelliteVisualizationViewer;
+
+import ghidra.app.plugin.core.functiongraph.graph.layout.FGLayout;
+import ghidra.app.plugin.core.functiongraph.graph.layout.AbstractFGLayout;
+import ghidra.app.plugin.core.functiongraph.graph.layout.FGLayoutProviderExtensionPoint;
+import ghidra.app.plugin.core.functiongraph.graph.FGEdge;
+import ghidra.app.plugin.core.functiongraph.graph.FunctionGraph;
+import ghidra.app.plugin.core.functiongraph.graph.vertex.FGVertex;
+import ghidra.graph.VisualGraph;
+import ghidra.graph.viewer.layout.*;
+import ghidra.graph.viewer.vertex.VisualGraphVertexShapeTransformer;
+import ghidra.program.model.listing.Function;
+import ghidra.program.model.listing.Listing;
+import ghidra.program.model.listing.Program;
+import ghidra.util.Msg;
+import ghidra.util.exception.CancelledException;
+import ghidra.util.task.TaskMonitor;
+import resources.Icons;
+import rizinLayout.engine.CachedLayout;
+import rizinLayout.engine.CanonicalGraph;
+import rizinLayout.engine.EdgeArticulations;
+import rizinLayout.engine.FunctionKey;
+import rizinLayout.engine.GridLayout;
+import rizinLayout.engine.LazyEdgeArticulations;
+import rizinLayout.engine.LayoutBudget;
+import rizinLayout.engine.LayoutCache;
+import rizinLayout.engine.LayoutCancelledException;
+import rizinLayout.engine.LayoutGraph;
+import rizinLayout.engine.LayoutMetrics;
+import rizinLayout.engine.LayoutMonitor;
+import rizinLayout.engine.LayoutPhase;
+import rizinLayout.engine.LayoutSpace;
+import rizinLayout.engine.LayoutStore;
+import rizinLayout.engine.RizinLayoutEngine;
+import rizinLayout.engine.StoredLayout;
+import rizinLayout.engine.StructuralHash;
+import rizinLayout.engine.TopologyRecorder;
+
+public class RizinLayoutProvider extends FGLayoutProviderExtensionPoint {
+
+	private static final String NAME = "Rizin Layout";
+	// Vertices of a same start address, if any, are told apart by their end
+	private static final Comparator<FGVertex> VERTEX_ORDER =
+		Comparator.comparing(FGVertex::getAddresses, FunctionBlockGraph.BLOCK_ORDER);
+	private static final int MAX_CACHED_LAYOUTS = 64;
+	// Sum of the vertex and edge counts of the cached graphs
+	private static final long MAX_CACHED_WEIGHT = 2_000_000;
+	// Path of the layout store, none if not set
+	private static final String STORE_PROPERTY = "rizinLayout.store";
+	// Shows the blocks of large graphs before their edges are routed
+	private static final String PROGRESSIVE_PROPERTY = "rizinLayout.progressive";
+	private static final int PROGRESSIVE_MIN_EDGES = 2000;
+	// Vertices moved by more than this since the layout keep straight edges
+	private static final double MOVED_DISTANCE = 0.5;
+	// The layout may not be applied to the vertices when routing ends
+	private static final int SWAP_RETRY_MS = 100;
+	private static final int MAX_SWAP_ATTEMPTS = 50;
+	// Vertices measured between two Swing events after an estimated layout
+	private static final int MEASURED_PER_TICK = 32;
+	// Routes the edges of large graphs once they are scrolled into view
+	private static final String LAZY_ROUTING_PROPERTY = "rizinLayout.lazyRouting";
+	private static final int LAZY_ROUTING_MIN_EDGES = 2000;
+	// Lays out with vertex sizes estimated from the listing, not the vertex bounds
+	private static final String ESTIMATE_SIZES_PROPERTY = "rizinLayout.estimateSizes";
+
+	// Shared by every provider, a store may only be opened once for writing
+	private static LayoutStore store;
+	// Corpus the graphs laid out are recorded in, none if not set
+	private static final TopologyRecorder recorder = TopologyRecorder.fromSystemProperties();
+	private static boolean storeOpened;
+
+	private final LayoutCache cache = new LayoutCache(MAX_CACHED_LAYOUTS, MAX_CACHED_WEIGHT);
+	// Null unless the rizinLayout.prefetch system property is true
+	private final LayoutPrefetcher prefetcher = LayoutPrefetcher.fromSystemProperties(cache);
+	// Last grid layout computed. The next layout of the same function, after
+	// grouping vertices or splitting blocks, starts from it.
+	private Function previousFunction;
+	private RizinLayoutEngine previousEngine;
+	private final boolean progressive = Boolean.getBoolean(PROGRESSIVE_PROPERTY);
+	private final boolean estimateSizes = Boolean.getBoolean(ESTIMATE_SIZES_PROPERTY);
+	private final boolean bundleEdges = Boolean.getBoolean(RizinLayoutEngine.BUNDLE_EDGES_PROPERTY);
+	private final boolean lazyRouting = Boolean.getBoolean(LAZY_ROUTING_PROPERTY);
+	// Routes the edges of progressive layouts, created on first use
+	private ThreadPoolExecutor routingExecutor;
+	// Incremented by every layout, background routing of an older one stops
+	private volatile long routingGeneration = 0;
+
+	@Override
+	public String getLayoutName() {
+		return NAME;
+	}
+
+	@Override
+	public Icon getActionIcon() {
+		return Icons.ARROW_UP_LEFT_ICON;
+	}
+
+	@Override
+	public int getPriorityLevel() {
+		// Just because it's your favorite layout out there
+		return 1000;
+	}
+
+	@Override
+	public FGLayout getFGLayout(FunctionGraph graph, TaskMonitor monitor)
+			throws CancelledException {
+		RizinLayout t = new RizinLayout(graph);
+		t.setTaskMonitor(monitor);
+		return t;
+	}
+	
+	public LayoutCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Returns the prefetcher laying out the callees and callers of the
+	 * functions shown, or null if prefetching is off.
+	 */
+	public LayoutPrefetcher getPrefetcher() {
+		return prefetcher;
+	}
+	
+	/**
+	 * Returns the last layout of function, if it is the last one laid out, and
+	 * forgets it: a layout reusing its columns appends to the contour pool of the
+	 * layout it starts from, so only one may start from it.
+	 */
+	private synchronized RizinLayoutEngine takePreviousLayout(Function function) {
+		if (function == null || !function.equals(previousFunction)) {
+			return null;
+		}
+		RizinLayoutEngine previous = previousEngine;
+		previousEngine = null;
+		return previous;
+	}
+	
+	private synchronized void setPreviousLayout(Function function, RizinLayoutEngine engine) {
+		previousFunction = function;
+		previousEngine = engine;
+	}
+	
+	/**
+	 * Returns the layout store at the path of the rizinLayout.store system
+	 * property, opened on first use, or null.
+	 */
+	public static synchronized LayoutStore getStore() {
+		if (!storeOpened) {
+			storeOpened = true;
+			String path = System.getProperty(STORE_PROPERTY);
+			if (path != null && !path.isEmpty()) {
+				try {
+					store = LayoutStore.open(Paths.get(path));
+				}
+				catch (IOException e) {
+					Msg.warn(RizinLayoutProvider.class, "Cannot open layout store " + path, e);
+				}
+			}
+		}
+		return store;
+	}
+	
+	/**
+	 * Returns the key of function in the layout store: the MD5 of its
+	 * program, or of the program name if it has none, and its entry point.
+	 */
+	private static FunctionKey storeKey(Function function) {
+		Program program = function.getProgram();
+		String id = program.getExecutableMD5() != null ? program.getExecutableMD5()
+				: program.getName();
+		return FunctionKey.of(id, function.getEntryPoint().getOffset());
+	}
+	
+	private synchronized ThreadPoolExecutor getRoutingExecutor() {
+		if (routingExecutor == null) {
+			routingExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread thread = new Thread(r, "Rizin edge routing");
+					thread.setDaemon(true);
+					return thread;
+				});
+			routingExecutor.allowCoreThreadTimeOut(true);
+		}
+		return routingExecutor;
+	}
+	
+	public String toString() {
+		return NAME;
+	}
+
+	private class RizinLayout extends AbstractFGLayout {
+		
+		private final Function function;
+		private RizinLayoutEngine engine;
+		private boolean gridComputed;
+		private CachedLayout cached;
+		private StructuralHash structuralHash;
+		private LayoutGraph layoutGraph;
+		private FGVertex[] vertices;
+		private FGEdge[] edges;
+		// Time spent in the hooks during calculateLocations
+		private long hookNanos;
+
+		protected RizinLayout(FunctionGraph graph) {
+			super(graph, NAME);
+			this.function = graph.getFunction();
+		}
+
+		@Override
+		protected AbstractVisualGraphLayout<FGVertex, FGEdge> createClonedFGLayout(
+				FunctionGraph newGraph) {
+			return new RizinLayout(newGraph);
+		}
+
+		@Override
+		public LayoutPositions<FGVertex, FGEdge> calculateLocations(VisualGraph<FGVertex, FGEdge> g,
+				TaskMonitor taskMonitor) throws CancelledException {
+			long start = System.nanoTime();
+			hookNanos = 0;
+			try {
+				if (estimateSizes && function != null) {
+					return estimateLocations(g, taskMonitor);
+				}
+				return super.calculateLocations(g, taskMonitor);
+			}
+			finally {
+				LayoutMetrics.global().record(LayoutPhase.SUPERCLASS,
+					System.nanoTime() - start - hookNanos, g.getVertexCount(), g.getEdgeCount());
+			}
+		}
+
+		/**
+		 * Lays out g with vertex sizes estimated from the listing of their
+		 * blocks, instead of the superclass asking every vertex for its
+		 * bounds, which builds its component. A vertex larger than its
+		 * estimate overlaps its neighbours until swapInRealSizes has measured
+		 * it on screen and moved them apart.
+		 */
+		private LayoutPositions<FGVertex, FGEdge> estimateLocations(VisualGraph<FGVertex, FGEdge> g,
+				TaskMonitor taskMonitor) throws CancelledException {
+			// Set by the superclass when it lays out, the engine reads it
+			TaskMonitor previousMonitor = monitor;
+			monitor = taskMonitor;
+			try {
+				performInitialGridLayout(g);
+				
+				long start = System.nanoTime();
+				Listing listing = function.getProgram().getListing();
+				int[] width = new int[vertices.length];
+				int[] height = new int[vertices.length];
+				for (int i = 0; i < vertices.length; i++) {
+					Dimension size = FunctionBlockGraph.estimateSize(listing, vertices[i].getAddresses());
+					width[i] = size.width;
+					height[i] = size.height;
+				}
+				// Not recorded: only the vertices shown are ever measured, the
+				// corpus would get the estimates instead of the real sizes
+				LayoutSpace space = LayoutSpace.fromSizes(width, height, cached.grid);
+				Map<FGVertex, Point2D> locations = new HashMap<FGVertex, Point2D>(vertices.length * 2);
+				for (int i = 0; i < vertices.length; i++) {
+					locations.put(vertices[i], new Point2D.Double(space.getVertexX(i), space.getVertexY(i)));
+				}
+				EdgeArticulations articulations = routeEdges(space);
+				swapInRealSizes(space, width, height);
+				
+				recordHook(LayoutPhase.ROUTING_HOOK, start);
+				return LayoutPositions.createNewPositions(locations, new ArticulationMap(articulations));
+			}
+			finally {
+				monitor = previousMonitor;
+			}
+		}
+		
+		/**
+		 * Once the vertices laid out with estimated sizes are placed, measures
+		 * the ones a graph viewer shows, and again whenever it is scrolled or
+		 * zoomed, so only the vertices on screen build their components.
+		 * Gives up if another layout starts or the user moves a vertex.
+		 */
+		private void swapInRealSizes(LayoutSpace estimated, int[] estimatedWidth,
+				int[] estimatedHeight) {
+			long generation = routingGeneration;
+			LayoutGraph shownGraph = layoutGraph;
+			GridLayout grid = cached.grid;
+			FGVertex[] shownVertices = vertices;
+			FGEdge[] shownEdges = edges;
+			if (shownVertices.length == 0) {
+				return;
+			}
+			int[] width = estimatedWidth.clone();
+			int[] height = estimatedHeight.clone();
+			Timer timer = new Timer(SWAP_RETRY_MS, null);
+			timer.setInitialDelay(0);
+			timer.addActionListener(new ActionListener() {
+				private int attempts = 0;
+				
+				@Override
+				public void actionPerformed(ActionEvent event) {
+					if (routingGeneration != generation) {
+						timer.stop();
+						return;
+					}
+					List<VisualizationViewer<FGVertex, FGEdge>> viewers =
+						findViewers(shownVertices[0], false);
+					if (layoutOffset(shownVertices, estimated) != null && !viewers.isEmpty()) {
+						timer.stop();
+						SizeWatcher watcher = new SizeWatcher(generation, shownGraph, grid,
+							shownVertices, shownEdges, estimated, width, height);
+						watcher.watch(viewers);
+					}
+					else if (++attempts == MAX_SWAP_ATTEMPTS) {
+						timer.stop();
+					}
+				}
+			});
+			timer.start();
+		}
+		
+		/**
+		 * Measures the vertices a graph viewer shows whenever it is scrolled or
+		 * zoomed, a few per tick of a Swing timer as it builds their
+		 * components. If one is larger than its estimate, the edges are routed
+		 * again on the routing thread over the same grid, each vertex taking
+		 * the larger of both sizes, then the vertices and edges are moved on
+		 * the Swing thread, the way routeInBackground swaps articulations.
+		 */
+		private final class SizeWatcher implements ChangeListener, ActionListener {
+			
+			private final LayoutGraph shownGraph;
+			private final GridLayout grid;
+			private final FGVertex[] shownVertices;
+			private final FGEdge[] shownEdges;
+			private final int[] width;
+			private final int[] height;
+			private final boolean[] measured;
+			// Vertices shown but not measured yet, from next to queued
+			private final int[] queue;
+			// View in which every vertex was last queued
+			private final int[] queuedIn;
+			private final Timer timer = new Timer(0, this);
+			private final List<VisualizationViewer<FGVertex, FGEdge>> viewers =
+				new ArrayList<VisualizationViewer<FGVertex, FGEdge>>();
+			// Bumped by every layout with the real sizes
+			private long generation;
+			// Where the vertices are, until a layout with the real sizes moves them
+			private LayoutSpace space;
+			private int views = 0;
+			private int next = 0;
+			private int queued = 0;
+			private boolean larger = false;
+			private boolean relayingOut = false;
+			// The layout moves the vertices, the viewers change on the way
+			private boolean moving = false;
+			private boolean stopped = false;
+			
+			SizeWatcher(long generation, LayoutGraph shownGraph, GridLayout grid,
+					FGVertex[] shownVertices, FGEdge[] shownEdges, LayoutSpace space, int[] width,
+					int[] height) {
+				this.generation = generation;
+				this.shownGraph = shownGraph;
+				this.grid = grid;
+				this.shownVertices = shownVertices;
+				this.shownEdges = shownEdges;
+				this.space = space;
+				this.width = width;
+				this.height = height;
+				this.measured = new boolean[shownVertices.length];
+				this.queue = new int[shownVertices.length];
+				this.queuedIn = new int[shownVertices.length];
+			}
+			
+			void watch(List<VisualizationViewer<FGVertex, FGEdge>> newViewers) {
+				viewers.addAll(newViewers);
+				for (VisualizationViewer<FGVertex, FGEdge> viewer : viewers) {
+					viewer.addChangeListener(this);
+				}
+				queueShown();
+			}
+			
+			@Override
+			public void stateChanged(ChangeEvent event) {
+				if (!stopped && !moving) {
+					queueShown();
+				}
+			}
+			
+			/**
+			 * Queues the vertices not measured yet that a watched viewer shows,
+			 * in place of the ones queued for an earlier view.
+			 */
+			private void queueShown() {
+				Point2D offset = layoutOffset(shownVertices, space);
+				if (routingGeneration != generation || offset == null) {
+					stop();
+					return;
+				}
+				views++;
+				next = 0;
+				queued = 0;
+				for (VisualizationViewer<FGVertex, FGEdge> viewer : viewers) {
+					Rectangle2D view = viewer.getRenderContext().getMultiLayerTransformer().inverseTransform(
+						new Rectangle(0, 0, viewer.getWidth(), viewer.getHeight())).getBounds2D();
+					double minX = view.getX() - offset.getX();
+					double minY = view.getY() - offset.getY();
+					double maxX = minX + view.getWidth();
+					double maxY = minY + view.getHeight();
+					for (int i = 0; i < shownVertices.length; i++) {
+						double x = space.getVertexX(i);
+						double y = space.getVertexY(i);
+						if (!measured[i] && queuedIn[i] != views &&
+							x + width[i] / 2.0 >= minX && x - width[i] / 2.0 <= maxX &&
+							y + height[i] / 2.0 >= minY && y - height[i] / 2.0 <= maxY) {
+							queuedIn[i] = views;
+							queue[queued++] = i;
+						}
+					}
+				}
+				if (next < queued) {
+					timer.start();
+				}
+			}
+			
+			@Override
+			public void actionPerformed(ActionEvent event) {
+				if (stopped || routingGeneration != generation) {
+					stop();
+					return;
+				}
+				VisualGraphVertexShapeTransformer<FGVertex> transformer =
+					new VisualGraphVertexShapeTransformer<FGVertex>();
+				int end = Math.min(next + MEASURED_PER_TICK, queued);
+				for (; next < end; next++) {
+					int i = queue[next];
+					measured[i] = true;
+					Rectangle bounds = transformer.apply(shownVertices[i]).getBounds();
+					if (bounds.width > width[i] || bounds.height > height[i]) {
+						width[i] = Math.max(width[i], bounds.width);
+						height[i] = Math.max(height[i], bounds.height);
+						larger = true;
+					}
+				}
+				if (next < queued) {
+					return;
+				}
+				timer.stop();
+				if (larger && !relayingOut) {
+					relayout();
+				}
+			}
+			
+			/**
+			 * Routes the edges with the sizes measured so far on the routing
+			 * thread, then moves the vertices to their place in that space and
+			 * gives the edges their articulations, unless another layout
+			 * started or the user moved a vertex meanwhile.
+			 */
+			private void relayout() {
+				larger = false;
+				relayingOut = true;
+				// Routing of the earlier sizes stops, its edges would be replaced
+				long relayoutGeneration = generation + 1;
+				generation = relayoutGeneration;
+				routingGeneration = relayoutGeneration;
+				LayoutSpace from = space;
+				LayoutSpace to = LayoutSpace.fromSizes(width, height, grid);
+				RizinLayoutEngine routing = new RizinLayoutEngine(shownGraph);
+				routing.setMonitor(generationMonitor(relayoutGeneration));
+				routing.setBudget(LayoutBudget.fromSystemProperties());
+				routing.setBundleEdges(bundleEdges);
+				getRoutingExecutor().execute(() -> {
+					EdgeArticulations articulations;
+					try {
+						if (routingGeneration != relayoutGeneration) {
+							return;
+						}
+						routing.useGrid(grid);
+						articulations = routing.positionEdgeArticulations(to);
+					}
+					catch (LayoutCancelledException e) {
+						return;
+					}
+					SwingUtilities.invokeLater(() -> moveTo(relayoutGeneration, from, to, articulations));
+				});
+			}
+			
+			private void moveTo(long relayoutGeneration, LayoutSpace from, LayoutSpace to,
+					EdgeArticulations articulations) {
+				if (stopped || routingGeneration != relayoutGeneration) {
+					stop();
+					return;
+				}
+				Point2D offset = layoutOffset(shownVertices, from);
+				List<VisualizationViewer<FGVertex, FGEdge>> allViewers =
+					findViewers(shownVertices[0], true);
+				if (offset == null || allViewers.isEmpty()) {
+					stop();
+					return;
+				}
+				space = to;
+				moving = true;
+				Layout<FGVertex, FGEdge> graphLayout = allViewers.get(0).getGraphLayout();
+				for (int i = 0; i < shownVertices.length; i++) {
+					graphLayout.setLocation(shownVertices[i], new Point2D.Double(
+						to.getVertexX(i) + offset.getX(), to.getVertexY(i) + offset.getY()));
+				}
+				moving = false;
+				for (int id = 0; id < shownEdges.length; id++) {
+					shownEdges[id].setArticulationPoints(articulationPoints(articulations, id, offset));
+				}
+				for (VisualizationViewer<FGVertex, FGEdge> viewer : allViewers) {
+					viewer.repaint();
+				}
+				relayingOut = false;
+				// Vertices moved into the view, or measured larger meanwhile
+				queueShown();
+				if (larger && !stopped && next == queued) {
+					relayout();
+				}
+			}
+			
+			private void stop() {
+				stopped = true;
+				timer.stop();
+				for (VisualizationViewer<FGVertex, FGEdge> viewer : viewers) {
+					viewer.removeChangeListener(this);
+				}
+			}
+		}
+		
+		private void recordHook(LayoutPhase phase, long start) {
+			long nanos = System.nanoTime() - start;
+			hookNanos += nanos;
+			LayoutMetrics.global().record(phase, nanos, vertices.length, edges.length);
+		}
+
+		@Override
+		protected Point2D getVertexLocation(FGVertex v, Column col, Row<FGVertex> row,
+				Rectangle bounds) {
+			return getCenteredVertexLocation(v, col, row, bounds);
+		}
+
+		@Override
+		protected GridLocationMap<FGVertex, FGEdge> performInitialGridLayout(
+				VisualGraph<FGVertex, FGEdge> g) throws CancelledException {
+			
+			long start = System.nanoTime();
+			GridLocationMap<FGVertex, FGEdge> gridLocations = new GridLocationMap<>();
+			if (prefetcher != null) {
+				prefetcher.cancel();
+			}
+			routingGeneration++;
+			
+			layoutGraph = buildLayoutGraph(g);
+			structuralHash = StructuralHash.of(layoutGraph);
+			engine = createEngine();
+			cached = cache.get(structuralHash);
+			gridComputed = false;
+			if (cached == null) {
+				cached = prefetcher == null ? null : prefetcher.take(structuralHash);
+				if (cached == null) {
+					cached = loadStoredLayout();
+				}
+				if (cached == null) {
+					cached = new CachedLayout(computeGrid());
+				}
+				// A layout over budget is not the real one
+				if (!engine.isDegraded()) {
+					cache.put(structuralHash, cached);
+				}
+			}
+			GridLayout grid = cached.grid;
+			
+			for (int i = 0; i < vertices.length; i++) {
+				gridLocations.row(vertices[i], grid.row[i]);
+				gridLocations.col(vertices[i], grid.col[i]);
+			}
+			
+			recordHook(LayoutPhase.GRID_LAYOUT_HOOK, start);
+			return gridLocations;
+		}
+		
+		private RizinLayoutEngine createEngine() {
+			RizinLayoutEngine newEngine = new RizinLayoutEngine(layoutGraph);
+			newEngine.setMonitor(createLayoutMonitor());
+			newEngine.setBudget(LayoutBudget.fromSystemProperties());
+			newEngine.setBundleEdges(bundleEdges);
+			return newEngine;
+		}
+		
+		private GridLayout computeGrid() throws CancelledException {
+			GridLayout grid;
+			try {
+				grid = engine.performGridLayoutReusingColumns(takePreviousLayout(function));
+			}
+			catch (LayoutCancelledException e) {
+				throw new CancelledException();
+			}
+			gridComputed = true;
+			if (!engine.isDegraded()) {
+				setPreviousLayout(function, engine);
+			}
+			return grid;
+		}
+		
+		/**
+		 * Returns the layout of the store for this function, if it was stored
+		 * for the same graph, or null.
+		 */
+		private CachedLayout loadStoredLayout() {
+			LayoutStore layoutStore = getStore();
+			if (layoutStore == null || function == null) {
+				return null;
+			}
+			try {
+				StoredLayout stored = layoutStore.get(storeKey(function));
+				if (stored == null || !stored.matches(structuralHash)) {
+					return null;
+				}
+				CachedLayout layout = new CachedLayout(stored.toGridLayout());
+				EdgeArticulations articulations = stored.toArticulations();
+				if (articulations != null) {
+					layout.setArticulations(stored.getSpaceHash(), articulations);
+				}
+				return layout;
+			}
+			catch (IOException e) {
+				Msg.warn(this, "Cannot read layout store", e);
+				return null;
+			}
+		}
+		
+		private void storeLayout(StructuralHash hash, GridLayout grid, long spaceHash,
+				EdgeArticulations articulations) {
+			LayoutStore layoutStore = getStore();
+			if (layoutStore == null || function == null) {
+				return;
+			}
+			try {
+				layoutStore.put(storeKey(function), hash, grid, spaceHash, articulations);
+			}
+			catch (IOException e) {
+				Msg.warn(this, "Cannot write layout store", e);
+			}
+		}
+		
+		private LayoutMonitor createLayoutMonitor() {
+			if (monitor == null) {
+				return LayoutMonitor.DUMMY;
+			}
+			return new LayoutMonitor() {
+				@Override
+				public boolean isCancelled() {
+					return monitor.isCancelled();
+				}
+
+				@Override
+				public void setMessage(String message) {
+					monitor.setMessage(message);
+				}
+
+				@Override
+				public void initialize(long max) {
+					monitor.initialize(max);
+				}
+
+				@Override
+				public void setProgress(long value) {
+					monitor.setProgress(value);
+				}
+			};
+		}
+		
+		/**
+		 * Numbers the vertices by address and the edges by source then target,
+		 * so the same function always gives the same LayoutGraph, whatever
+		 * order the graph stores them in. The layout cache relies on it, and
+		 * on FunctionBlockGraph numbering the blocks of a function the same.
+		 */
+		private LayoutGraph buildLayoutGraph(VisualGraph<FGVertex, FGEdge> g) {
+			CanonicalGraph.Builder<FGVertex, FGEdge> builder =
+				FunctionBlockGraph.newGraphBuilder(VERTEX_ORDER, g.getVertexCount(), g.getEdgeCount());
+			for (FGVertex v : g.getVertices()) {
+				// Vertex bounds are only known once the superclass has built its
+				// LayoutLocationMap, edge routing takes its geometry from there
+				builder.addVertex(v, 0, 0);
+				if (v.isEntry()) {
+					builder.setEntry(v);
+				}
+			}
+			for (FGEdge e : g.getEdges()) {
+				builder.addEdge(e, e.getStart(), e.getEnd());
+			}
+			CanonicalGraph<FGVertex, FGEdge> canonical = builder.build();
+			vertices = canonical.getVertices().toArray(new FGVertex[0]);
+			edges = canonical.getEdges().toArray(new FGEdge[0]);
+			return canonical.graph;
+		}
+
+		@Override
+		protected Map<FGEdge, List<Point2D>> positionEdgeArticulationsInLayoutSpace(
+				VisualGraphVertexShapeTransformer<FGVertex> transformer,
+				Map<FGVertex, Point2D> vertexLayoutLocations, Collection<FGEdge> graphEdges,
+				LayoutLocationMap<FGVertex, FGEdge> layoutLocations) throws CancelledException {
+			
+			long start = System.nanoTime();
+			if (recorder != null) {
+				int[] width = new int[vertices.length];
+				int[] height = new int[vertices.length];
+				for (int i = 0; i < vertices.length; i++) {
+					Rectangle bounds = transformer.apply(vertices[i]).getBounds();
+					width[i] = bounds.width;
+					height[i] = bounds.height;
+				}
+				recordTopology(width, height);
+			}
+			LayoutSpace space = createLayoutSpace(vertexLayoutLocations, layoutLocations);
+			EdgeArticulations articulations = routeEdges(space);
+			
+			recordHook(LayoutPhase.ROUTING_HOOK, start);
+			return new ArticulationMap(articulations);
+		}
+		
+		/**
+		 * Appends the graph being laid out, with the given vertex sizes, to
+		 * the topology corpus.
+		 */
+		private void recordTopology(int[] width, int[] height) {
+			LayoutGraph.Builder builder = new LayoutGraph.Builder(vertices.length, edges.length);
+			for (int i = 0; i < vertices.length; i++) {
+				builder.addVertex(width[i], height[i]);
+			}
+			for (int id = 0; id < edges.length; id++) {
+				builder.addEdge(layoutGraph.getEdgeFrom(id), layoutGraph.getEdgeTo(id));
+			}
+			builder.setEntry(layoutGraph.getEntry());
+			try {
+				recorder.record(builder.build());
+			}
+			catch (IOException e) {
+				Msg.warn(this, "Cannot record to " + recorder.getPath(), e);
+			}
+		}
+		
+		/**
+		 * Returns the articulations of the edges in space, cached or routed
+		 * over the grid laid out or given.
+		 */
+		private EdgeArticulations routeEdges(LayoutSpace space) throws CancelledException {
+			long spaceHash = StructuralHash.of(space, bundleEdges);
+			EdgeArticulations articulations = cached.getArticulations(spaceHash);
+			if (articulations == null) {
+				try {
+					// Cached grid but new vertex sizes, route over the cached grid
+					if (engine == null || !gridComputed) {
+						if (engine == null) {
+							engine = createEngine();
+						}
+						engine.useGrid(cached.grid);
+					}
+					if (progressive && edges.length >= PROGRESSIVE_MIN_EDGES) {
+						routeInBackground(engine, space, spaceHash);
+						articulations = EdgeArticulations.straight(edges.length);
+					}
+					else if (lazyRouting && edges.length >= LAZY_ROUTING_MIN_EDGES) {
+						LazyEdgeArticulations lazy = engine.positionEdgeArticulationsLazily(space);
+						if (lazy != null) {
+							routeInViewport(lazy, space, spaceHash);
+						}
+						articulations = EdgeArticulations.straight(edges.length);
+					}
+					else {
+						articulations = engine.positionEdgeArticulations(space);
+						if (!engine.isDegraded()) {
+							cached.setArticulations(spaceHash, articulations);
+							storeLayout(structuralHash, cached.grid, spaceHash, articulations);
+						}
+					}
+				}
+				catch (LayoutCancelledException e) {
+					throw new CancelledException();
+				}
+			}
+			// Only the grid and the articulations are needed from now on. The
+			// provider keeps the state of the last layout for the next one.
+			engine = null;
+			LayoutMetrics.global().recordRetainedBytes(retainedBytes(articulations));
+			if (prefetcher != null && function != null) {
+				prefetcher.prefetchNeighbours(function);
+			}
+			return articulations;
+		}
+		
+		/**
+		 * Routes the edges with routing, over the grid it laid out or was
+		 * given, on the routing thread, while the graph is shown with straight
+		 * edges. The articulations are then cached, and swapped in on the
+		 * Swing thread once the vertices are placed, unless another layout
+		 * started meanwhile.
+		 */
+		private void routeInBackground(RizinLayoutEngine routing, LayoutSpace space, long spaceHash) {
+			long generation = routingGeneration;
+			CachedLayout layout = cached;
+			StructuralHash hash = structuralHash;
+			FGVertex[] shownVertices = vertices;
+			FGEdge[] shownEdges = edges;
+			routing.setMonitor(generationMonitor(generation));
+			getRoutingExecutor().execute(() -> {
+				EdgeArticulations articulations;
+				try {
+					if (routingGeneration != generation) {
+						return;
+					}
+					articulations = routing.positionEdgeArticulations(space);
+				}
+				catch (LayoutCancelledException e) {
+					return;
+				}
+				if (routing.isDegraded()) {
+					return;
+				}
+				layout.setArticulations(spaceHash, articulations);
+				storeLayout(hash, layout.grid, spaceHash, articulations);
+				Timer timer = new Timer(SWAP_RETRY_MS, null);
+				timer.setInitialDelay(0);
+				timer.addActionListener(new ActionListener() {
+					private int attempts = 0;
+					
+					@Override
+					public void actionPerformed(ActionEvent event) {
+						if (swapArticulations(generation, shownVertices, shownEdges, space,
+							articulations) || ++attempts == MAX_SWAP_ATTEMPTS) {
+							timer.stop();
+						}
+					}
+				});
+				timer.start();
+			});
+		}
+		
+		/**
+		 * Returns a monitor cancelling routing in the background once another
+		 * layout starts.
+		 */
+		private LayoutMonitor generationMonitor(long generation) {
+			return new LayoutMonitor() {
+				@Override
+				public boolean isCancelled() {
+					return routingGeneration != generation;
+				}
+
+				@Override
+				public void setMessage(String message) {
+					// routing in the background, nothing to report to
+				}
+
+				@Override
+				public void initialize(long max) {
+					// routing in the background, nothing to report to
+				}
+
+				@Override
+				public void setProgress(long value) {
+					// routing in the background, nothing to report to
+				}
+			};
+		}
+		
+		/**
+		 * Gives the routed articulations to the edges still shown with the
+		 * straight ones.
+		 *
+		 * @return false if the vertices are not where the layout placed them,
+		 *  not yet or no more
+		 */
+		private boolean swapArticulations(long generation, FGVertex[] shownVertices,
+				FGEdge[] shownEdges, LayoutSpace space, EdgeArticulations articulations) {
+			if (routingGeneration != generation || shownVertices.length == 0) {
+				return true;
+			}
+			Point2D offset = layoutOffset(shownVertices, space);
+			if (offset == null) {
+				return false;
+			}
+			for (int id = 0; id < shownEdges.length; id++) {
+				shownEdges[id].setArticulationPoints(articulationPoints(articulations, id, offset));
+			}
+			for (VisualizationViewer<FGVertex, FGEdge> viewer : findViewers(shownVertices[0], true)) {
+				viewer.repaint();
+			}
+			return true;
+		}
+		
+		/**
+		 * Returns the offset of the vertices from layout space to graph space,
+		 * or null if they are not where the layout placed them, not yet or no
+		 * more. Ghidra moves the whole layout from layout space to graph
+		 * space, so every vertex is offset by the same amount once the layout
+		 * is applied, unless the user moved some.
+		 */
+		private Point2D layoutOffset(FGVertex[] shownVertices, LayoutSpace space) {
+			Point2D first = shownVertices[0].getLocation();
+			if (first == null) {
+				return null;
+			}
+			double dx = first.getX() - space.getVertexX(0);
+			double dy = first.getY() - space.getVertexY(0);
+			for (int i = 1; i < shownVertices.length; i++) {
+				Point2D location = shownVertices[i].getLocation();
+				if (location == null ||
+					Math.abs(location.getX() - space.getVertexX(i) - dx) > MOVED_DISTANCE ||
+					Math.abs(location.getY() - space.getVertexY(i) - dy) > MOVED_DISTANCE) {
+					return null;
+				}
+			}
+			return new Point2D.Double(dx, dy);
+		}
+		
+		private List<Point2D> articulationPoints(EdgeArticulations articulations, int id,
+				Point2D offset) {
+			List<Point2D> points = new ArrayList<Point2D>(articulations.getPointCount(id));
+			for (int j = 0; j < articulations.getPointCount(id); j++) {
+				points.add(new Point2D.Double(articulations.getX(id, j) + offset.getX(),
+					articulations.getY(id, j) + offset.getY()));
+			}
+			return points;
+		}
+		
+		/**
+		 * Shows the graph with straight edges, and routes an edge the first
+		 * time the part of the graph it crosses is shown in a graph viewer.
+		 * Once the vertices are placed, every viewer of the graph is watched
+		 * until all edges are routed, another layout starts or the user moves
+		 * a vertex. Articulations are then cached, once all routed.
+		 */
+		private void routeInViewport(LazyEdgeArticulations lazy, LayoutSpace space, long spaceHash) {
+			long generation = routingGeneration;
+			CachedLayout layout = cached;
+			StructuralHash hash = structuralHash;
+			FGVertex[] shownVertices = vertices;
+			FGEdge[] shownEdges = edges;
+			Timer timer = new Timer(SWAP_RETRY_MS, null);
+			timer.setInitialDelay(0);
+			timer.addActionListener(new ActionListener() {
+				private int attempts = 0;
+				
+				@Override
+				public void actionPerformed(ActionEvent event) {
+					if (routingGeneration != generation) {
+						timer.stop();
+						return;
+					}
+					Point2D offset = layoutOffset(shownVertices, space);
+					List<VisualizationViewer<FGVertex, FGEdge>> viewers =
+						findViewers(shownVertices[0], false);
+					if (offset != null && !viewers.isEmpty()) {
+						timer.stop();
+						ViewportRouter router = new ViewportRouter(generation, lazy, offset,
+							shownVertices, shownEdges, space, () -> {
+								layout.setArticulations(spaceHash, lazy.getArticulations());
+								storeLayout(hash, layout.grid, spaceHash, lazy.getArticulations());
+							});
+						router.watch(viewers);
+					}
+					else if (++attempts == MAX_SWAP_ATTEMPTS) {
+						timer.stop();
+					}
+				}
+			});
+			timer.start();
+		}
+		
+		/**
+		 * Returns the graph viewers showing vertex, satellite views only if
+		 * withSatellites: they show the whole graph, there is nothing to
+		 * route as they scroll.
+		 */
+		@SuppressWarnings("unchecked")
+		private List<VisualizationViewer<FGVertex, FGEdge>> findViewers(FGVertex vertex,
+				boolean withSatellites) {
+			List<VisualizationViewer<FGVertex, FGEdge>> viewers =
+				new ArrayList<VisualizationViewer<FGVertex, FGEdge>>();
+			Deque<Component> components = new ArrayDeque<Component>();
+			for (Window window : Window.getWindows()) {
+				if (window.isShowing()) {
+					components.push(window);
+				}
+			}
+			while (!components.isEmpty()) {
+				Component component = components.pop();
+				if (component instanceof VisualizationViewer &&
+					(withSatellites || !(component instanceof SatelliteVisualizationViewer))) {
+					VisualizationViewer<FGVertex, FGEdge> viewer =
+						(VisualizationViewer<FGVertex, FGEdge>) component;
+					if (viewer.getGraphLayout() != null &&
+						viewer.getGraphLayout().getGraph().containsVertex(vertex)) {
+						viewers.add(viewer);
+					}
+				}
+				else if (component instanceof Container) {
+					for (Component child : ((Container) component).getComponents()) {
+						components.push(child);
+					}
+				}
+			}
+			return viewers;
+		}
+		
+		/**
+		 * Routes the edges a graph viewer shows whenever it is scrolled or
+		 * zoomed, and gives them their articulations.
+		 */
+		private final class ViewportRouter implements ChangeListener {
+			
+			private final long generation;
+			private final LazyEdgeArticulations lazy;
+			private final Point2D offset;
+			private final FGVertex[] shownVertices;
+			private final FGEdge[] shownEdges;
+			private final LayoutSpace space;
+			// Called once every edge is routed
+			private final Runnable completed;
+			private final List<VisualizationViewer<FGVertex, FGEdge>> viewers =
+				new ArrayList<VisualizationViewer<FGVertex, FGEdge>>();
+			private boolean stopped = false;
+			
+			ViewportRouter(long generation, LazyEdgeArticulations lazy, Point2D offset,
+					FGVertex[] shownVertices, FGEdge[] shownEdges, LayoutSpace space,
+					Runnable completed) {
+				this.generation = generation;
+				this.lazy = lazy;
+				this.offset = offset;
+				this.shownVertices = shownVertices;
+				this.shownEdges = shownEdges;
+				this.space = space;
+				this.completed = completed;
+			}
+			
+			void watch(List<VisualizationViewer<FGVertex, FGEdge>> newViewers) {
+				viewers.addAll(newViewers);
+				for (VisualizationViewer<FGVertex, FGEdge> viewer : viewers) {
+					viewer.addChangeListener(this);
+				}
+				for (VisualizationViewer<FGVertex, FGEdge> viewer : newViewers) {
+					if (!stopped) {
+						route(viewer);
+					}
+				}
+			}
+			
+			@Override
+			public void stateChanged(ChangeEvent event) {
+				if (stopped) {
+					return;
+				}
+				if (routingGeneration != generation || layoutOffset(shownVertices, space) == null) {
+					stop();
+					return;
+				}
+				if (event.getSource() instanceof VisualizationViewer) {
+					route((VisualizationViewer<?, ?>) event.getSource());
+				}
+			}
+			
+			private void route(VisualizationViewer<?, ?> viewer) {
+				Rectangle2D view = viewer.getRenderContext().getMultiLayerTransformer().inverseTransform(
+					new Rectangle(0, 0, viewer.getWidth(), viewer.getHeight())).getBounds2D();
+				int[] routed = lazy.routeIn(view.getX() - offset.getX(), view.getY() - offset.getY(),
+					view.getWidth(), view.getHeight());
+				for (int id : routed) {
+					shownEdges[id].setArticulationPoints(
+						articulationPoints(lazy.getArticulations(), id, offset));
+				}
+				if (routed.length != 0) {
+					// Every viewer watched shows the graph the edges belong to
+					for (VisualizationViewer<FGVertex, FGEdge> watched : viewers) {
+						watched.repaint();
+					}
+				}
+				if (lazy.isComplete()) {
+					stop();
+					completed.run();
+				}
+			}
+			
+			private void stop() {
+				stopped = true;
+				for (VisualizationViewer<FGVertex, FGEdge> viewer : viewers) {
+					viewer.removeChangeListener(this);
+				}
+			}
+		}
+		
+		/**
+		 * Returns an estimate of the heap this layout keeps once done, in
+		 * bytes, the grid and articulations it shares with the cache included.
+		 */
+		private long retainedBytes(EdgeArticulations articulations) {
+			return layoutGraph.getRetainedBytes() + cached.grid.getRetainedBytes() +
+				articulations.getRetainedBytes() + 4L * (vertices.length + edges.length);
+		}
+		
+		private LayoutSpace createLayoutSpace(Map<FGVertex, Point2D> vertexLayoutLocations,
+				LayoutLocationMap<FGVertex, FGEdge> layoutLocations) {
+			int[] columnX = new int[layoutLocations.getColumnCount()];
+			int[] columnWidth = new int[columnX.length];
+			for (Column column : layoutLocations.columns()) {
+				columnX[column.index] = column.x;
+				columnWidth[column.index] = column.getPaddedWidth(false);
+			}
+			
+			int[] rowY = new int[layoutLocations.getRowCount()];
+			int[] rowHeight = new int[rowY.length];
+			for (Row<FGVertex> row : layoutLocations.rows()) {
+				rowY[row.index] = row.y;
+				rowHeight[row.index] = row.height;
+			}
+			
+			double[] vertexX = new double[vertices.length];
+			double[] vertexY = new double[vertices.length];
+			for (int i = 0; i < vertices.length; i++) {
+				Point2D location = vertexLayoutLocations.get(vertices[i]);
+				vertexX[i] = location.getX();
+				vertexY[i] = location.getY();
+			}
+			
+			return new LayoutSpace(columnX, columnWidth, rowY, rowHeight, vertexX, vertexY);
+		}
+		
+		/**
+		 * Read only view of the articulations by edge. Lists and points are
+		 * only created when they are read.
+		 */
+		private final class ArticulationMap extends AbstractMap<FGEdge, List<Point2D>> {
+			
+			private final EdgeArticulations articulations;
+			private final FGEdge[] edges = RizinLayout.this.edges;
+			// Id of every edge, built on the first lookup
+			private Map<FGEdge, Integer> ids;
+			
+			ArticulationMap(EdgeArticulations articulations) {
+				this.articulations = articulations;
+			}
+			
+			@Override
+			public int size() {
+				return edges.length;
+			}
+			
+			@Override
+			public boolean containsKey(Object key) {
+				return edgeId(key) != -1;
+			}
+			
+			@Override
+			public List<Point2D> get(Object key) {
+				int id = edgeId(key);
+				return id == -1 ? null : new PointList(articulations, id);
+			}
+			
+			private int edgeId(Object edge) {
+				if (ids == null) {
+					ids = new IdentityHashMap<FGEdge, Integer>(edges.length);
+					for (int id = 0; id < edges.length; id++) {
+						ids.put(edges[id], id);
+					}
+				}
+				Integer id = ids.get(edge);
+				return id == null ? -1 : id;
+			}
+			
+			@Override
+			public Set<Entry<FGEdge, List<Point2D>>> entrySet() {
+				return new AbstractSet<Entry<FGEdge, List<Point2D>>>() {
+					@Override
+					public int size() {
+						return edges.length;
+					}
+					
+					@Override
+					public Iterator<Entry<FGEdge, List<Point2D>>> iterator() {
+						return new Iterator<Entry<FGEdge, List<Point2D>>>() {
+							private int id = 0;
+							
+							@Override
+							public boolean hasNext() {
+								return id < edges.length;
+							}
+							
+							@Override
+							public Entry<FGEdge, List<Point2D>> next() {
+								if (id >= edges.length) {
+									throw new NoSuchElementException();
+								}
+								Entry<FGEdge, List<Point2D>> entry = new SimpleImmutableEntry<>(
+									edges[id], new PointList(articulations, id));
+								id++;
+								return entry;
+							}
+						};
+					}
+				};
+			}
+		}
+	}
+	
+	private static final class PointList extends AbstractList<Point2D> {
+		
+		private final EdgeArticulations articulations;
+		private final int edge;
+		
+		PointList(EdgeArticulations articulations, int edge) {
+			this.articulations = articulations;
+			this.edge = edge;
+		}
+		
+		@Override
+		public Point2D get(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+			}
+			return new Point2D.Double(articulations.getX(edge, index), articulations.getY(edge, index));
+		}
+		
+		@Override
+		public int size() {
+			return articulations.getPointCount(edge);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package rizinLayout.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks the invariants of layouts with a maximum row width, on random graphs
+ * and the benchmark shapes: no row but the first is wider than the maximum,
+ * only vertices without predecessors are on the first row, no two vertices
+ * share a cell, edges of the DAG point down and the grid is at most two
+ * columns per vertex of its widest row wide, whatever the size of the graph.
+ */
+public class BoundedRowsTest {
+
+	private static final long SEED = 0x5EED;
+	private static final int[] WIDTHS = { 1, 2, 3, 8 };
+	private static final int[] SIZES = { 1000, 5000, 20000 };
+
+	@Test
+	public void boundedRowsKeepInvariants() {
+		for (int maxRowWidth : WIDTHS) {
+			for (LayoutGraph g : graphs()) {
+				RizinLayoutEngine engine = new RizinLayoutEngine(g);
+				engine.setMetrics(new LayoutMetrics());
+				engine.setMaxRowWidth(maxRowWidth);
+				GridLayout grid = engine.performInitialGridLayout();
+				assertInvariants(g, engine.ls.sorted_list, grid, maxRowWidth);
+			}
+		}
+	}
+
+	@Test
+	public void wideShapesStayBounded() {
+		for (CfgShape shape : new CfgShape[] { CfgShape.SWITCH_TABLE, CfgShape.IF_ELSE_LADDER }) {
+			for (int size : SIZES) {
+				LayoutGraph g = shape.generate(size, SEED);
+				for (int maxRowWidth : WIDTHS) {
+					RizinLayoutEngine engine = new RizinLayoutEngine(g);
+					engine.setMetrics(new LayoutMetrics());
+					engine.setMaxRowWidth(maxRowWidth);
+					GridLayout grid = engine.performInitialGridLayout();
+					assertInvariants(g, engine.ls.sorted_list, grid, maxRowWidth);
+					// A single entry, the first row holds one vertex
+					assertTrue(shape + " of " + size + " blocks is " + grid.columns + " columns wide",
+						grid.columns <= 2 * maxRowWidth);
+				}
+			}
+		}
+	}
+
+	private static List<LayoutGraph> graphs() {
+		List<LayoutGraph> graphs =
+			new ArrayList<LayoutGraph>(Arrays.asList(TestGraphs.shapes(1000, SEED)));
+		for (int i = 0; i < 100; i++) {
+			graphs.add(TestGraphs.random(1 + i * 10, SEED + i));
+		}
+		return graphs;
+	}
+
+	private static void assertInvariants(LayoutGraph g, int[] sortedList, GridLayout grid,
+			int maxRowWidth) {
+		int n = g.getVertexCount();
+		// Position in the DFS postorder: an edge is in the DAG if its target
+		// is done first, back edges and self loops are not
+		int[] position = new int[n];
+		for (int i = 0; i < sortedList.length; i++) {
+			position[sortedList[i]] = i;
+		}
+		boolean[] hasPredecessor = new boolean[n];
+		for (int e = 0; e < g.getEdgeCount(); e++) {
+			int from = g.getEdgeFrom(e);
+			int to = g.getEdgeTo(e);
+			if (position[to] < position[from]) {
+				hasPredecessor[to] = true;
+				assertTrue("edge " + from + " -> " + to + " does not point down",
+					grid.row[to] > grid.row[from]);
+			}
+		}
+
+		int[] rowSize = new int[grid.rows];
+		Set<Long> cells = new HashSet<Long>();
+		for (int v = 0; v < n; v++) {
+			assertTrue(grid.row[v] >= 0 && grid.row[v] < grid.rows);
+			assertTrue("negative column " + grid.col[v], grid.col[v] >= 0);
+			assertTrue(grid.col[v] < grid.columns);
+			assertTrue("two vertices in cell " + grid.row[v] + ", " + grid.col[v],
+				cells.add(((long) grid.row[v] << 32) | grid.col[v]));
+			assertEquals("vertex " + v, !hasPredecessor[v], grid.row[v] == 0);
+			rowSize[grid.row[v]]++;
+		}
+		for (int r = 1; r < grid.rows; r++) {
+			assertTrue("row " + r + " holds " + rowSize[r] + " vertices", rowSize[r] <= maxRowWidth);
+		}
+		assertTrue(grid.columns + " columns", grid.columns <= 2 * Math.max(maxRowWidth, rowSize[0]));
+	}
+}
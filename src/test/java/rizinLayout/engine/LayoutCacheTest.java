@@ -0,0 +1,119 @@
+package rizinLayout.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the LRU eviction of the layout cache, by entry count and by weight,
+ * and its counters.
+ */
+public class LayoutCacheTest {
+
+	@Test
+	public void evictsLeastRecentlyUsedBeyondMaxEntries() {
+		LayoutCache cache = new LayoutCache(3, Long.MAX_VALUE);
+		StructuralHash a = chain(10, 1);
+		StructuralHash b = chain(10, 2);
+		StructuralHash c = chain(10, 3);
+		StructuralHash d = chain(10, 4);
+		CachedLayout layoutA = layout();
+		cache.put(a, layoutA);
+		cache.put(b, layout());
+		cache.put(c, layout());
+		// a is now used more recently than b
+		assertSame(layoutA, cache.get(a));
+		cache.put(d, layout());
+
+		assertEquals(3, cache.size());
+		assertFalse(cache.contains(b));
+		assertTrue(cache.contains(a));
+		assertTrue(cache.contains(c));
+		assertTrue(cache.contains(d));
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedBeyondMaxWeight() {
+		// A chain of n vertices weighs 2n - 1
+		LayoutCache cache = new LayoutCache(100, 100);
+		StructuralHash a = chain(20, 1);
+		StructuralHash b = chain(20, 2);
+		StructuralHash c = chain(30, 3);
+		cache.put(a, layout());
+		cache.put(b, layout());
+		cache.get(a);
+		// 39 + 39 + 59 is over 100, b goes
+		cache.put(c, layout());
+
+		assertEquals(2, cache.size());
+		assertTrue(cache.contains(a));
+		assertFalse(cache.contains(b));
+		assertTrue(cache.contains(c));
+		assertEquals(1, cache.getEvictions());
+
+		// Heavier than the whole cache, not cached and nothing evicted
+		cache.put(chain(60, 4), layout());
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+
+		// Replacing a layout does not weigh its graph twice
+		cache.put(a, layout());
+		cache.put(a, layout());
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+
+		// Removed weight is freed: 39 + 59 - 39 + 39 fits
+		cache.remove(a);
+		cache.put(b, layout());
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void countsHitsAndMisses() {
+		LayoutCache cache = new LayoutCache(1, Long.MAX_VALUE);
+		StructuralHash a = chain(5, 1);
+		StructuralHash b = chain(5, 2);
+		assertNull(cache.get(a));
+		cache.put(a, layout());
+		cache.get(a);
+		cache.get(a);
+		// Neither a hit nor a miss
+		cache.contains(a);
+		cache.contains(b);
+		cache.put(b, layout());
+		assertNull(cache.get(a));
+
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getEvictions());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertNull(cache.get(b));
+		assertEquals(3, cache.getMisses());
+	}
+
+	/**
+	 * Returns the hash of a chain of n vertices, told apart by their width.
+	 */
+	private static StructuralHash chain(int n, int width) {
+		LayoutGraph.Builder builder = new LayoutGraph.Builder(n, n - 1);
+		for (int v = 0; v < n; v++) {
+			builder.addVertex(width, 10);
+			if (v != 0) {
+				builder.addEdge(v - 1, v);
+			}
+		}
+		return StructuralHash.of(builder.build());
+	}
+
+	private static CachedLayout layout() {
+		return new CachedLayout(new GridLayout(new int[0], new int[0], 0, 0));
+	}
+}
@@ -0,0 +1,203 @@
+package rizinLayout.engine;
+
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Lays out the {@link CfgShape} families at doubling sizes, up to 100k
+ * blocks, and checks that the time of every phase grows no faster than the
+ * bound declared for it, and that every phase allocates linearly.
+ *
+ * The growth of a phase is the least squares slope of log(cost / bound(n))
+ * against log(n), n being the vertex plus edge count: about 0 for a phase
+ * within its bound, 1 for a phase a factor n above it. Time is the best of
+ * several runs, more of them at the smaller sizes, where the cheap phases
+ * take tens of microseconds and a single run is mostly timer and JIT noise.
+ */
+@RunWith(Parameterized.class)
+public class LayoutScalingTest {
+
+	private static final long SEED = 0x5EED;
+	private static final int[] SIZES = { 3125, 6250, 12500, 25000, 50000, 100000 };
+	// Runs at the largest size, every smaller size gets as many more as it
+	// is smaller, so that every size is measured over the same work
+	private static final int RUNS = 3;
+	// A phase a factor n slower than its bound grows by about 0.9 over these
+	// sizes, timing noise on a loaded machine by up to 0.35
+	private static final double TIME_TOLERANCE = 0.5;
+	private static final double BYTES_TOLERANCE = 0.1;
+	// Below these at the largest size, a phase is too fast or allocates too
+	// little for its growth to mean anything
+	private static final long MIN_FITTED_NANOS = 100_000;
+	private static final long MIN_FITTED_BYTES = 64 * 1024;
+
+	private enum Bound {
+		LINEAR {
+			@Override
+			double of(long n) {
+				return n;
+			}
+		},
+		N_LOG_N {
+			@Override
+			double of(long n) {
+				return n * Math.log(n);
+			}
+		};
+
+		abstract double of(long n);
+	}
+
+	private static final class Phase {
+		final String name;
+		final Bound bound;
+		final Consumer<RizinLayoutEngine> run;
+
+		Phase(String name, Bound bound, Consumer<RizinLayoutEngine> run) {
+			this.name = name;
+			this.bound = bound;
+			this.run = run;
+		}
+	}
+
+	// In performInitialGridLayout then positionEdgeArticulations order
+	private static final Phase[] PHASES = {
+		new Phase("toposort", Bound.LINEAR, e -> e.ls.sorted_list = e.Toposort(e.getGraph().entry)),
+		new Phase("assignRows", Bound.LINEAR, RizinLayoutEngine::assignRows),
+		new Phase("selectTree", Bound.LINEAR, RizinLayoutEngine::selectTree),
+		new Phase("findMergePoint", Bound.LINEAR, RizinLayoutEngine::findMergePoint),
+		new Phase("hashSubtrees", Bound.LINEAR, RizinLayoutEngine::hashSubtrees),
+		new Phase("assignColumns", Bound.N_LOG_N, RizinLayoutEngine::assignColumns),
+		new Phase("calculateEdgeMainColumn", Bound.N_LOG_N, e -> {
+			e.computeGridSize();
+			e.calculateEdgeMainColumn();
+		}),
+		new Phase("assignSlots", Bound.LINEAR, RizinLayoutEngine::assignSlots),
+		new Phase("positionEdgeArticulations", Bound.N_LOG_N, e -> e.positionEdgeArticulations(
+			LayoutSpace.fromGrid(e.getGraph(), e.computeGridSize()))),
+	};
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private final CfgShape shape;
+
+	public LayoutScalingTest(CfgShape shape) {
+		this.shape = shape;
+	}
+
+	@Parameters(name = "{0}")
+	public static Object[] shapes() {
+		return CfgShape.values();
+	}
+
+	@BeforeClass
+	public static void warmUp() {
+		for (CfgShape shape : CfgShape.values()) {
+			measure(shape.generate(SIZES[SIZES.length / 2], SEED));
+		}
+	}
+
+	@Test
+	public void phasesGrowWithinTheirBound() {
+		long[] n = new long[SIZES.length];
+		long[][] nanos = new long[SIZES.length][];
+		long[][] bytes = new long[SIZES.length][];
+		for (int i = 0; i < SIZES.length; i++) {
+			LayoutGraph g = shape.generate(SIZES[i], SEED);
+			n[i] = (long) g.vertexCount + g.edgeCount;
+			nanos[i] = new long[PHASES.length];
+			bytes[i] = new long[PHASES.length];
+			Arrays.fill(nanos[i], Long.MAX_VALUE);
+			Arrays.fill(bytes[i], Long.MAX_VALUE);
+			int runs = RUNS * SIZES[SIZES.length - 1] / SIZES[i];
+			for (int run = 0; run < runs; run++) {
+				long[][] cost = measure(g);
+				for (int p = 0; p < PHASES.length; p++) {
+					nanos[i][p] = Math.min(nanos[i][p], cost[0][p]);
+					bytes[i][p] = Math.min(bytes[i][p], cost[1][p]);
+				}
+			}
+		}
+
+		List<String> failures = new ArrayList<String>();
+		StringBuilder report = new StringBuilder(shape + "\n");
+		int last = SIZES.length - 1;
+		for (int p = 0; p < PHASES.length; p++) {
+			Phase phase = PHASES[p];
+			double timeGrowth = growth(n, nanos, p, phase.bound);
+			double bytesGrowth = growth(n, bytes, p, Bound.LINEAR);
+			boolean timeFitted = nanos[last][p] >= MIN_FITTED_NANOS;
+			boolean bytesFitted = bytes[last][p] >= MIN_FITTED_BYTES;
+			report.append(String.format("  %-26s %-8s time %+.2f%s (%.2f ms)  bytes %+.2f%s (%d KiB)%n",
+				phase.name, phase.bound, timeGrowth, timeFitted ? "" : "?", nanos[last][p] / 1e6,
+				bytesGrowth, bytesFitted ? "" : "?", bytes[last][p] / 1024));
+			if (timeFitted && timeGrowth > TIME_TOLERANCE) {
+				failures.add(String.format("%s %s: time grows as %s * n^%.2f", shape, phase.name,
+					phase.bound, timeGrowth));
+			}
+			if (bytesFitted && bytesGrowth > BYTES_TOLERANCE) {
+				failures.add(String.format("%s %s: allocated bytes grow as n^%.2f", shape,
+					phase.name, 1 + bytesGrowth));
+			}
+		}
+		if (!failures.isEmpty()) {
+			fail(String.join("\n", failures) + "\n" + report);
+		}
+	}
+
+	/**
+	 * Runs every phase once on a new engine and returns their time and
+	 * allocated bytes.
+	 */
+	private static long[][] measure(LayoutGraph g) {
+		RizinLayoutEngine engine = new RizinLayoutEngine(g);
+		engine.setMetrics(new LayoutMetrics());
+		// Allocations are measured on this thread only
+		engine.setParallelRouting(false);
+		engine.setParallelColumns(false);
+		engine.resetState();
+		long[][] cost = new long[2][PHASES.length];
+		// Garbage of the previous run is not collected in the middle of a phase
+		System.gc();
+		long thread = Thread.currentThread().getId();
+		for (int p = 0; p < PHASES.length; p++) {
+			long bytes = THREADS.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			PHASES[p].run.accept(engine);
+			cost[0][p] = System.nanoTime() - start;
+			cost[1][p] = THREADS.getThreadAllocatedBytes(thread) - bytes;
+		}
+		return cost;
+	}
+
+	/**
+	 * Returns the least squares slope of log(cost / bound(n)) against log(n).
+	 */
+	private static double growth(long[] n, long[][] cost, int phase, Bound bound) {
+		double sumX = 0;
+		double sumY = 0;
+		double sumXX = 0;
+		double sumXY = 0;
+		for (int i = 0; i < n.length; i++) {
+			double x = Math.log(n[i]);
+			double y = Math.log(Math.max(cost[i][phase], 1) / bound.of(n[i]));
+			sumX += x;
+			sumY += y;
+			sumXX += x * x;
+			sumXY += x * y;
+		}
+		return (n.length * sumXY - sumX * sumY) / (n.length * sumXX - sumX * sumX);
+	}
+}
@@ -0,0 +1,173 @@
+package rizinLayout.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Puts layouts in a store and reads them back, from the same store and once
+ * it is reopened.
+ */
+public class LayoutStoreTest {
+
+	private static final String PROGRAM = "0123456789abcdef0123456789ABCDEF";
+	private static final long SEED = 0x5EED;
+	// More than the initial index holds, so it grows several times
+	private static final int FUNCTIONS = 3000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void layoutRoundTrips() throws IOException {
+		Path path = folder.newFile().toPath();
+		LayoutGraph g = TestGraphs.random(200, SEED);
+		StructuralHash hash = StructuralHash.of(g);
+		GridLayout grid = gridLayout(g);
+		LayoutSpace space = LayoutSpace.fromGrid(g, grid);
+		EdgeArticulations articulations = route(g, grid, space);
+		FunctionKey key = FunctionKey.of(PROGRAM, 0x401000);
+
+		try (LayoutStore store = LayoutStore.open(path)) {
+			assertTrue(store.put(key, hash, grid, StructuralHash.of(space), articulations));
+			// Same graph in the same space
+			assertFalse(store.put(key, hash, grid, StructuralHash.of(space), articulations));
+			assertStored(store.get(key), key, hash, grid, articulations);
+		}
+		try (LayoutStore store = LayoutStore.openReadOnly(path)) {
+			assertStored(store.get(key), key, hash, grid, articulations);
+			assertEquals(StructuralHash.of(space), store.get(key).getSpaceHash());
+		}
+	}
+
+	@Test
+	public void gridOnlyLayoutMatches() throws IOException {
+		LayoutGraph g = TestGraphs.random(200, SEED);
+		StructuralHash hash = StructuralHash.of(g);
+		GridLayout grid = gridLayout(g);
+		FunctionKey key = FunctionKey.of(PROGRAM, 0x401000);
+
+		try (LayoutStore store = LayoutStore.open(folder.newFile().toPath())) {
+			store.put(key, hash, grid, 0, null);
+			StoredLayout stored = store.get(key);
+			assertTrue(stored.matches(hash));
+			assertEquals(g.getEdgeCount(), stored.getEdgeCount());
+			assertFalse(stored.hasArticulations());
+			assertNull(stored.toArticulations());
+			assertArrayEquals(grid.col, stored.toGridLayout().col);
+		}
+	}
+
+	@Test
+	public void keysTellProgramsApart() throws IOException {
+		GridLayout grid = gridLayout(TestGraphs.random(10, SEED));
+		StructuralHash hash = StructuralHash.of(TestGraphs.random(10, SEED));
+		FunctionKey first = FunctionKey.of(PROGRAM, 0x1000);
+		FunctionKey second = FunctionKey.of(PROGRAM.replace('0', '1'), 0x1000);
+		FunctionKey named = FunctionKey.of("program", 0x1000);
+
+		assertEquals(first, FunctionKey.of(PROGRAM.toLowerCase(), 0x1000));
+		try (LayoutStore store = LayoutStore.open(folder.newFile().toPath())) {
+			store.put(first, hash, grid, 1, null);
+			assertNull(store.get(second));
+			assertNull(store.get(named));
+			store.put(second, hash, grid, 2, null);
+			store.put(named, hash, grid, 3, null);
+			assertEquals(1, store.get(first).getSpaceHash());
+			assertEquals(2, store.get(second).getSpaceHash());
+			assertEquals(3, store.get(named).getSpaceHash());
+			assertEquals(3, store.size());
+		}
+	}
+
+	@Test
+	public void indexGrowsAndReopens() throws IOException {
+		Path path = folder.newFile().toPath();
+		LayoutGraph[] graphs = new LayoutGraph[8];
+		GridLayout[] grids = new GridLayout[graphs.length];
+		EdgeArticulations[] articulations = new EdgeArticulations[graphs.length];
+		for (int i = 0; i < graphs.length; i++) {
+			graphs[i] = TestGraphs.random(1 + i * 7, SEED + i);
+			grids[i] = gridLayout(graphs[i]);
+			articulations[i] = route(graphs[i], grids[i], LayoutSpace.fromGrid(graphs[i], grids[i]));
+		}
+
+		try (LayoutStore store = LayoutStore.open(path)) {
+			for (int f = 0; f < FUNCTIONS; f++) {
+				int i = f % graphs.length;
+				// Only some records have articulations
+				assertTrue(store.put(FunctionKey.of(PROGRAM, f * 16L), StructuralHash.of(graphs[i]),
+					grids[i], f, f % 3 == 0 ? null : articulations[i]));
+			}
+			assertEquals(FUNCTIONS, store.size());
+			assertFunctions(store, graphs, grids, articulations);
+		}
+		try (LayoutStore store = LayoutStore.open(path)) {
+			assertFalse(store.isReadOnly());
+			assertEquals(FUNCTIONS, store.size());
+			assertFunctions(store, graphs, grids, articulations);
+			assertNull(store.get(FunctionKey.of(PROGRAM, FUNCTIONS * 16L)));
+		}
+	}
+
+	private static void assertFunctions(LayoutStore store, LayoutGraph[] graphs, GridLayout[] grids,
+			EdgeArticulations[] articulations) throws IOException {
+		for (int f = 0; f < FUNCTIONS; f++) {
+			int i = f % graphs.length;
+			FunctionKey key = FunctionKey.of(PROGRAM, f * 16L);
+			StoredLayout stored = store.get(key);
+			assertEquals(f, stored.getSpaceHash());
+			assertStored(stored, key, StructuralHash.of(graphs[i]), grids[i],
+				f % 3 == 0 ? null : articulations[i]);
+		}
+	}
+
+	private static void assertStored(StoredLayout stored, FunctionKey key, StructuralHash hash,
+			GridLayout grid, EdgeArticulations articulations) {
+		assertNotNull(stored);
+		assertEquals(key, stored.getFunctionKey());
+		assertTrue(stored.matches(hash));
+		GridLayout storedGrid = stored.toGridLayout();
+		assertArrayEquals(grid.row, storedGrid.row);
+		assertArrayEquals(grid.col, storedGrid.col);
+		assertEquals(grid.rows, storedGrid.rows);
+		assertEquals(grid.columns, storedGrid.columns);
+		EdgeArticulations storedArticulations = stored.toArticulations();
+		if (articulations == null) {
+			assertNull(storedArticulations);
+			return;
+		}
+		assertEquals(articulations.getEdgeCount(), storedArticulations.getEdgeCount());
+		for (int e = 0; e < articulations.getEdgeCount(); e++) {
+			assertEquals(articulations.getPointCount(e), storedArticulations.getPointCount(e));
+			for (int p = 0; p < articulations.getPointCount(e); p++) {
+				// Stored as floats
+				assertEquals((float) articulations.getX(e, p), storedArticulations.getX(e, p), 0);
+				assertEquals((float) articulations.getY(e, p), storedArticulations.getY(e, p), 0);
+			}
+		}
+	}
+
+	private static GridLayout gridLayout(LayoutGraph g) {
+		RizinLayoutEngine engine = new RizinLayoutEngine(g);
+		engine.setMetrics(new LayoutMetrics());
+		return engine.performInitialGridLayout();
+	}
+
+	private static EdgeArticulations route(LayoutGraph g, GridLayout grid, LayoutSpace space) {
+		RizinLayoutEngine engine = new RizinLayoutEngine(g);
+		engine.setMetrics(new LayoutMetrics());
+		engine.useGrid(grid);
+		return engine.positionEdgeArticulations(space);
+	}
+}
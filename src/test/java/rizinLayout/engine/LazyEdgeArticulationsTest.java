@@ -0,0 +1,103 @@
+package rizinLayout.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that routing edges rectangle by rectangle routes the edges whose
+ * box crosses each rectangle, found through the row index, and ends with the
+ * articulations of eager routing.
+ */
+public class LazyEdgeArticulationsTest {
+
+	private static final long SEED = 0x5EED;
+	private static final int RECTANGLES = 40;
+
+	@Test
+	public void routeInRoutesEdgesCrossingRectangle() {
+		Random random = new Random(SEED);
+		for (LayoutGraph g : graphs()) {
+			GridLayout grid = gridLayout(g);
+			LayoutSpace space = LayoutSpace.fromGrid(g, grid);
+			RizinLayoutEngine lazyEngine = routingEngine(g, grid);
+			LazyEdgeArticulations lazy = lazyEngine.positionEdgeArticulationsLazily(space);
+
+			// Same main columns and slots, to compute the boxes
+			RizinLayoutEngine boxes = routingEngine(g, grid);
+			boxes.calculateEdgeMainColumn();
+			boxes.assignSlots();
+			double[] bounds = new double[4];
+			boolean[] routed = new boolean[g.getEdgeCount()];
+
+			double spaceWidth = width(space);
+			double spaceHeight = height(space);
+			for (int i = 0; i < RECTANGLES && !lazy.isComplete(); i++) {
+				double width = random.nextDouble() * spaceWidth / 4;
+				double height = random.nextDouble() * spaceHeight / 4;
+				double x = random.nextDouble() * (spaceWidth + 200) - 100 - width / 2;
+				double y = random.nextDouble() * (spaceHeight + 200) - 100 - height / 2;
+
+				List<Integer> crossing = new ArrayList<Integer>();
+				for (int e = 0; e < g.getEdgeCount(); e++) {
+					boxes.edgeBounds(space, e, bounds);
+					if (!routed[e] && bounds[0] <= x + width && bounds[1] >= x &&
+						bounds[2] <= y + height && bounds[3] >= y) {
+						crossing.add(e);
+						routed[e] = true;
+					}
+				}
+				int[] actual = lazy.routeIn(x, y, width, height);
+				Arrays.sort(actual);
+				assertArrayEquals(crossing.stream().mapToInt(Integer::intValue).toArray(), actual);
+				for (int e : actual) {
+					assertTrue(lazy.isRouted(e));
+				}
+			}
+
+			lazy.routeAll();
+			assertTrue(lazy.isComplete());
+			EdgeArticulations eager = routingEngine(g, grid).positionEdgeArticulations(space);
+			ParallelLayoutTest.assertSameArticulations(eager, lazy.getArticulations());
+		}
+	}
+
+	private static List<LayoutGraph> graphs() {
+		List<LayoutGraph> graphs =
+			new ArrayList<LayoutGraph>(Arrays.asList(TestGraphs.shapes(2000, SEED)));
+		for (int i = 0; i < 30; i++) {
+			graphs.add(TestGraphs.random(2 + i * 50, SEED + i));
+		}
+		return graphs;
+	}
+
+	private static double width(LayoutSpace space) {
+		int last = space.columnX.length - 1;
+		return space.columnX[last] + space.columnWidth[last];
+	}
+
+	private static double height(LayoutSpace space) {
+		int last = space.rowY.length - 1;
+		return space.rowY[last] + space.rowHeight[last];
+	}
+
+	private static GridLayout gridLayout(LayoutGraph g) {
+		RizinLayoutEngine engine = new RizinLayoutEngine(g);
+		engine.setMetrics(new LayoutMetrics());
+		return engine.performInitialGridLayout();
+	}
+
+	private static RizinLayoutEngine routingEngine(LayoutGraph g, GridLayout grid) {
+		RizinLayoutEngine engine = new RizinLayoutEngine(g);
+		engine.setMetrics(new LayoutMetrics());
+		engine.setParallelRouting(false);
+		engine.useGrid(grid);
+		return engine;
+	}
+}
@@ -0,0 +1,69 @@
+package rizinLayout.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks that the parallel phases of the engine give the same layout as
+ * their sequential version. The build runs the tests with a common pool of
+ * several threads, so the parallel paths are taken on any machine.
+ */
+public class ParallelLayoutTest {
+
+	private static final long SEED = 0x5EED;
+	// Above PARALLEL_COLUMNS_MIN_VERTICES and PARALLEL_ROUTING_MIN_EDGES
+	private static final int SIZE = 12000;
+
+	@Test
+	public void parallelColumnsEqualSequential() {
+		for (LayoutGraph g : TestGraphs.shapes(SIZE, SEED)) {
+			GridLayout sequential = gridLayout(g, false);
+			GridLayout parallel = gridLayout(g, true);
+			assertArrayEquals(sequential.row, parallel.row);
+			assertArrayEquals(sequential.col, parallel.col);
+		}
+	}
+
+	@Test
+	public void parallelRoutingEqualsSequential() {
+		for (boolean bundleEdges : new boolean[] { false, true }) {
+			for (LayoutGraph g : TestGraphs.shapes(SIZE, SEED)) {
+				GridLayout grid = gridLayout(g, false);
+				LayoutSpace space = LayoutSpace.fromGrid(g, grid);
+				EdgeArticulations sequential = route(g, grid, space, false, bundleEdges);
+				EdgeArticulations parallel = route(g, grid, space, true, bundleEdges);
+				assertSameArticulations(sequential, parallel);
+			}
+		}
+	}
+
+	static void assertSameArticulations(EdgeArticulations expected, EdgeArticulations actual) {
+		assertEquals(expected.getEdgeCount(), actual.getEdgeCount());
+		for (int e = 0; e < expected.getEdgeCount(); e++) {
+			assertEquals("points of edge " + e, expected.getPointCount(e), actual.getPointCount(e));
+			for (int p = 0; p < expected.getPointCount(e); p++) {
+				assertEquals(expected.getX(e, p), actual.getX(e, p), 0);
+				assertEquals(expected.getY(e, p), actual.getY(e, p), 0);
+			}
+		}
+	}
+
+	private static EdgeArticulations route(LayoutGraph g, GridLayout grid, LayoutSpace space,
+			boolean parallelRouting, boolean bundleEdges) {
+		RizinLayoutEngine engine = new RizinLayoutEngine(g);
+		engine.setMetrics(new LayoutMetrics());
+		engine.setParallelRouting(parallelRouting);
+		engine.setBundleEdges(bundleEdges);
+		engine.useGrid(grid);
+		return engine.positionEdgeArticulations(space);
+	}
+
+	private static GridLayout gridLayout(LayoutGraph g, boolean parallelColumns) {
+		RizinLayoutEngine engine = new RizinLayoutEngine(g);
+		engine.setMetrics(new LayoutMetrics());
+		engine.setParallelColumns(parallelColumns);
+		return engine.performInitialGridLayout();
+	}
+}
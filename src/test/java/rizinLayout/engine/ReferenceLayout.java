@@ -0,0 +1,462 @@
+package rizinLayout.engine;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Stack;
+
+/**
+ * The layout as the provider computed it before the engine existed, on lists
+ * of boxed integers, kept to check that the array based engine gives the
+ * same results. Vertices and edges are numbered like in the
+ * {@link LayoutGraph}, which the provider built the same way.
+ *
+ * Only the phases are ported, the code of every phase is left as it was.
+ */
+final class ReferenceLayout {
+
+	static final class Node {
+		int rightPosition;
+		List<Integer> rightSideShape;
+		List<Integer> leftSideShape;
+		int leftPosition;
+		int lastRowLeft;
+		int lastRowRight;
+		int row_count;
+		int row = 0;
+		int col = 0;
+		boolean hasParent = false;
+		final List<Integer> dagEdges = new ArrayList<Integer>();
+		final List<Integer> treeEdges = new ArrayList<Integer>();
+	}
+
+	static final class Event {
+
+		int node_id;
+		int edge_id;
+		int row;
+		int type; // Edge = 0; Block = 1
+
+		Event(int nid, int eid, int row, int t) {
+			this.node_id = nid;
+			this.edge_id = eid;
+			this.row = row;
+			this.type = t;
+		}
+	}
+
+	final LayoutGraph g;
+	final List<Node> gridNodes = new ArrayList<Node>();
+	List<Integer> sorted_list;
+	int columns;
+	// Main column of every edge
+	final int[] main_col;
+
+	ReferenceLayout(LayoutGraph g) {
+		this.g = g;
+		for (int v = 0; v < g.vertexCount; v++) {
+			gridNodes.add(new Node());
+		}
+		main_col = new int[g.edgeCount];
+	}
+
+	private List<Integer> getOutEdges(int v) {
+		List<Integer> edges = new ArrayList<Integer>();
+		for (int j = g.outOffsets[v]; j < g.outOffsets[v + 1]; j++) {
+			edges.add(g.outEdges[j]);
+		}
+		return edges;
+	}
+
+	List<Integer> Toposort(int entry_idx) {
+		List<Integer> blockOrder = new ArrayList<Integer>();
+		int NotVisited = 0;
+		int gn_size = gridNodes.size();
+		
+		List<Integer> visited = new ArrayList<Integer>(gn_size);
+		
+		// Init the visited list with all 0 as blocks aren't visited yet
+		for (int i = 0; i < gn_size; i++) {
+			visited.add(0);
+		}
+		
+		Stack<Entry<Integer, Integer>> stack = new Stack<Entry<Integer, Integer>>();
+		
+		Dfs(visited, stack, blockOrder, entry_idx);
+		
+		for (int i = 0 ; i < gn_size ; i++) {
+			if (visited.get(i) == NotVisited) {
+				Dfs(visited, stack, blockOrder, i);
+			}
+		}
+		return blockOrder;	
+	}
+	
+	void Dfs(List<Integer> visited, Stack<Entry<Integer, Integer>> stack, List<Integer> blockOrder, int entry_idx) {
+		int NotVisited = 0, InStack = 1 , Visited = 2;
+		
+		visited.set(entry_idx, InStack);
+		stack.push(new AbstractMap.SimpleEntry<Integer, Integer>(entry_idx, 0));
+		
+		while (!stack.isEmpty()) {
+			Entry<Integer, Integer> elem = stack.lastElement();
+			Node gn = gridNodes.get(elem.getKey());
+			int edge_index = elem.getValue();
+							
+			List<Integer> edges = getOutEdges(elem.getKey());
+			if (edge_index < edges.size()) {
+				stack.lastElement().setValue(edge_index + 1);
+				int target = g.edgeTo[edges.get(edge_index)];
+				Integer targetState = visited.get(target);
+				if (targetState.intValue() == NotVisited) {
+					visited.set(target, InStack);
+					stack.push(new AbstractMap.SimpleEntry<Integer, Integer>(target, 0));
+					gn.dagEdges.add(target);
+				}
+				else if (targetState.intValue() == Visited) {
+					gn.dagEdges.add(target);
+				}
+			}
+			else {
+				stack.pop();
+				visited.set(elem.getKey(), Visited);
+				blockOrder.add(elem.getKey());
+			}
+		}
+	}
+
+	void assignColumns() {
+		for (int i = 0 ; i < sorted_list.size(); i++) {
+			Integer idx = sorted_list.get(i);
+			Node gn = gridNodes.get(idx);
+			if (gn.treeEdges.size() == 0) {
+				gn.row_count = 1;
+				gn.col = 0;
+				gn.lastRowRight = 2;
+				gn.lastRowLeft = 0;
+				gn.leftPosition = 0;
+				gn.rightPosition = 2;
+				gn.leftSideShape = Arrays.asList(0);
+				gn.rightSideShape = Arrays.asList(2);
+			}
+			else {
+				Integer firstChild_idx = gn.treeEdges.get(0);
+				Node firstChild = gridNodes.get(firstChild_idx);
+				List<Integer> leftSide = firstChild.leftSideShape;
+				List<Integer> rightSide = firstChild.rightSideShape;
+				gn.row_count = firstChild.row_count;
+				gn.lastRowRight = firstChild.lastRowRight;
+				gn.lastRowLeft = firstChild.lastRowLeft;
+				gn.leftPosition = firstChild.leftPosition;
+				gn.rightPosition = firstChild.rightPosition;
+				
+				for (int j = 1; j < gn.treeEdges.size(); j++) {
+					Integer child_idx = gn.treeEdges.get(j);
+					Node child = gridNodes.get(child_idx);
+					int minPos = Integer.MIN_VALUE;
+					int leftPos = 0;
+					int rightPos = 0;
+					Iterator<Integer> leftIt = rightSide.iterator();
+					Iterator<Integer> rightIt = child.leftSideShape.iterator();
+					int maxLeftWidth = 0;
+					int minRightPos = child.col;
+					int offsetCnt = 0;
+					while (leftIt.hasNext() && rightIt.hasNext()) {
+						leftPos += leftIt.next();
+						rightPos += rightIt.next();
+						minPos = minPos > (leftPos - rightPos) ? minPos : (leftPos - rightPos); // MAX
+						maxLeftWidth = maxLeftWidth > leftPos ? maxLeftWidth : leftPos; // MAX
+						minRightPos = minRightPos > rightPos ? rightPos : minRightPos; // MIN
+						offsetCnt++;
+					}
+					// I chose here to do not implement tightSubtreePlacement (option)
+					int rightTreeOffset = 0;
+					if (leftIt.hasNext()) {
+						rightTreeOffset = maxLeftWidth - child.leftPosition;
+					}
+					else {
+						rightTreeOffset = gn.rightPosition - minRightPos;
+					}
+					child.col += rightTreeOffset;
+					
+					if (leftIt.hasNext()) {
+						int val = rightSide.get(offsetCnt);
+						rightSide.set(offsetCnt, val - (rightTreeOffset + child.lastRowRight - leftPos));
+						int lst_size = rightSide.size();
+						ArrayList<Integer> nl = new ArrayList<Integer>();
+						nl.addAll(child.rightSideShape);
+						nl.addAll(rightSide.subList(offsetCnt, lst_size));
+						rightSide = nl;
+					}
+					else if (rightIt.hasNext()) {
+						int val = child.leftSideShape.get(offsetCnt);
+						child.leftSideShape.set(offsetCnt, val + (rightPos + rightTreeOffset - gn.lastRowLeft));
+						int lst_size = child.leftSideShape.size();
+						ArrayList<Integer> nl = new ArrayList<Integer>();
+						nl.addAll(leftSide);
+						nl.addAll(child.leftSideShape.subList(offsetCnt, lst_size));
+						leftSide = nl;
+						rightSide = child.rightSideShape;
+						gn.lastRowRight = child.lastRowRight + rightTreeOffset;
+						gn.lastRowLeft = child.lastRowLeft + rightTreeOffset;
+					}
+					else {
+						rightSide = child.rightSideShape;
+					}
+					
+					Integer head = rightSide.get(0);
+					rightSide.set(0, head + rightTreeOffset);
+					
+					gn.row_count = gn.row_count > child.row_count ? gn.row_count : child.row_count;
+					gn.leftPosition = gn.leftPosition > (child.leftPosition + rightTreeOffset) ? (child.leftPosition + rightTreeOffset) : gn.leftPosition;
+					gn.rightPosition = gn.rightPosition > (rightTreeOffset + child.rightPosition) ? gn.rightPosition : (rightTreeOffset + child.rightPosition);
+				}
+				int col = 0;
+				// Here we assume that parentBetweenDirectChild is set
+				for (int j = 0; j < gn.treeEdges.size(); j++) {
+					Integer child_idx = gn.treeEdges.get(j);
+					Node child = gridNodes.get(child_idx);
+					col += child.col;
+				}
+				col /= gn.treeEdges.size();
+				
+				gn.col += col;
+				gn.row_count++;
+				gn.leftPosition = gn.leftPosition > gn.col ? gn.col : gn.leftPosition;
+				gn.rightPosition = gn.rightPosition > (gn.col + 2) ? gn.rightPosition : (gn.col + 2);
+				
+				Integer head = leftSide.get(0);
+				leftSide.set(0, head - gn.col);
+				
+				ArrayList<Integer> nl = new ArrayList<Integer>();
+				nl.add(gn.col);
+				nl.addAll(leftSide);
+				gn.leftSideShape = nl;
+				
+				head = rightSide.get(0);
+				rightSide.set(0,  head - (gn.col + 2));
+				
+				nl = new ArrayList<Integer>();
+				nl.add(gn.col + 2);
+				nl.addAll(rightSide);
+				gn.rightSideShape = nl;
+				
+				for (int j = 0; j < gn.treeEdges.size(); j++) {
+					Integer child_idx = gn.treeEdges.get(j);
+					Node child = gridNodes.get(child_idx);
+					child.col -= gn.col;
+				}
+			}
+		}
+		
+		int nextEmptyColumn = 0;
+		for (int i = 0; i < gridNodes.size(); i++) {
+			Node gn = gridNodes.get(i);
+			if(gn.row == 0) {
+				int offset = -gn.leftPosition;
+				gn.col += nextEmptyColumn + offset;
+				nextEmptyColumn = gn.rightPosition + offset + nextEmptyColumn;
+			}
+		}
+		
+		for (int i = sorted_list.size() - 1 ; i >= 0 ; i--) {
+			Integer idx = sorted_list.get(i);
+			Node nd = gridNodes.get(idx);
+			assert(nd.col >= 0);
+			for (int j = 0 ; j < nd.treeEdges.size(); j++) {
+				Integer child_idx = nd.treeEdges.get(j);
+				Node child = gridNodes.get(child_idx);
+				child.col += nd.col;
+			}
+		}
+		
+	}
+
+	void findMergePoint() {
+		for (int i = 0; i < gridNodes.size(); i++) {
+			Node gn = gridNodes.get(i);
+			int mergeBlock_idx = -1;
+			int grandChildCount = 0;
+			
+			for (int j = 0 ; j < gn.treeEdges.size(); j++) {
+				Integer target_idx = gn.treeEdges.get(j);
+				Node targetGn = gridNodes.get(target_idx);
+				int tree_edges_size = targetGn.treeEdges.size();
+				if (tree_edges_size != 0) {
+					mergeBlock_idx = targetGn.treeEdges.get(0);
+				}
+				grandChildCount += tree_edges_size;
+			}
+			if (mergeBlock_idx == -1 || grandChildCount != 1) {
+				continue;
+			}
+			
+			int blockGoingToMerge = 0;
+			int blockWithTreeEdge = 0;
+			for (int j = 0 ; j < gn.treeEdges.size(); j++) {
+				Integer target_idx = gn.treeEdges.get(j);
+				Node targetGn = gridNodes.get(target_idx);
+				boolean goesToMerge = false;
+				for (int k = 0 ; k < targetGn.dagEdges.size(); k++) {
+					Integer target_dag_idx = targetGn.dagEdges.get(k);
+					if (target_dag_idx == mergeBlock_idx) {
+						goesToMerge = true;
+						break;
+					}
+					if (goesToMerge) {
+						if (targetGn.treeEdges.size() == 1) {
+							blockWithTreeEdge = blockGoingToMerge;
+						}
+						blockGoingToMerge++;
+					}
+					else {
+						break;
+					}
+				}
+				if (blockGoingToMerge != 0) {
+					gridNodes.get(targetGn.treeEdges.get(blockWithTreeEdge)).col = blockWithTreeEdge * 2 - (blockGoingToMerge - 1);
+				}
+			}
+				
+		}
+	}
+
+	void selectTree() {
+		for (int i = 0; i < gridNodes.size(); i++) {
+			Node nd = gridNodes.get(i);
+			for (int j = 0 ; j < nd.dagEdges.size(); j++){
+				Integer target_idx = nd.dagEdges.get(j);
+				Node target = gridNodes.get(target_idx);
+				if (!target.hasParent && target.row == nd.row + 1) {
+					nd.treeEdges.add(target_idx);
+					target.hasParent = true;
+				}	
+			}
+		}
+	}
+
+	void assignRows() {
+		for (int i = sorted_list.size() - 1 ; i >= 0 ; i--) {
+			Integer idx = sorted_list.get(i);
+			Node nd = gridNodes.get(idx);
+			int nextLvl = nd.row + 1;
+			for (int j = 0 ; j < nd.dagEdges.size(); j++) {
+				Integer target_idx = nd.dagEdges.get(j);
+				Node target = gridNodes.get(target_idx);
+				target.row = target.row > nextLvl ? target.row : nextLvl;
+			}
+		}	
+	}
+
+	void computeGridSize() {
+		columns = 1;
+		for (Node gn : gridNodes) {
+			columns = columns > (gn.col + 2) ? columns : (gn.col + 2);
+		}
+	}
+
+	void calculateEdgeMainColumn() {
+		List<Event> events = new ArrayList<Event>();
+		
+		for (int i = 0; i < gridNodes.size(); i++) {
+			Node gn = gridNodes.get(i);
+			events.add(new Event(i, 0, gn.row, 1));
+			
+			int startRow = gn.row;
+			
+			List<Integer> outEdges = getOutEdges(i);
+			for (int j = 0; j < outEdges.size(); j++) {
+				int edgeIdx = outEdges.get(j);
+				Node target = gridNodes.get(g.edgeTo[edgeIdx]);
+				int endRow = target.row;
+				events.add(new Event(i, edgeIdx, startRow > endRow ? startRow : endRow, 0));
+			}
+		}
+		
+		Collections.sort(events, new Comparator<Event>(){
+			public int compare(Event o1, Event o2) {
+				if (o1.row != o2.row) {
+					return o1.row - o2.row;	
+				}
+				return o1.type - o2.type;
+			  }
+		});
+		
+		List<Integer> blockedColumns = new ArrayList<Integer>();
+		for (int i = 0; i < columns; i++) {
+			blockedColumns.add(-1);
+		}
+		
+		for (int i = 0 ; i < events.size(); i++) {
+			Event event = events.get(i);
+			if (event.type == 1) {
+				int col = gridNodes.get(event.node_id).col;
+				blockedColumns.set(col, event.row);
+			}
+			else {
+				Node gn = gridNodes.get(event.node_id);
+				int col = gn.col;
+				Node target = gridNodes.get(g.edgeTo[event.edge_id]);
+				int topRow = gn.row > target.row ? target.row : gn.row;
+				int targetColumn = target.col;
+				
+				if (blockedColumns.get(col).intValue() <= topRow) {
+					main_col[event.edge_id] = col;
+				}
+				else if (blockedColumns.get(targetColumn).intValue() <= topRow) {
+					main_col[event.edge_id] = targetColumn;
+				}
+				else {
+					int nearestLeft = leftMostLessThan(blockedColumns, col, topRow);
+					int nearestRight = rightMostLessThan(blockedColumns, col, topRow);
+											
+					int distanceLeft = col - nearestLeft + Math.abs(targetColumn - nearestLeft);
+					int distanceRight = nearestRight - col + Math.abs(targetColumn - nearestRight);
+					
+					if (target.row < gn.row) {
+						if (targetColumn < col && blockedColumns.get(col).intValue() < topRow && col - targetColumn <= distanceLeft) {
+							main_col[event.edge_id] = col;
+							continue;
+						}
+						else if (targetColumn > col && blockedColumns.get(col).intValue() < topRow && targetColumn - col <= distanceRight) {
+							main_col[event.edge_id] = col;
+							continue;
+						}
+					}
+					
+					if (distanceLeft != distanceRight) {
+						main_col[event.edge_id] = distanceLeft < distanceRight ? nearestLeft : nearestRight;
+					}
+					else {
+						// LOL
+						main_col[event.edge_id] = (event.edge_id % 2 == 0) ? nearestLeft : nearestRight;
+					}
+				}
+			}
+			
+		}		
+	}
+
+	private int leftMostLessThan(List<Integer> blockedColumns, int col, int topRow) {
+		for (int i = col; i >= 0; i--) {
+			if (blockedColumns.get(i) < topRow) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private int rightMostLessThan(List<Integer> blockedColumns, int col, int topRow) {
+		for (int i = col; i < blockedColumns.size(); i++) {
+			if (blockedColumns.get(i) < topRow) {
+				return i;
+			}
+		}
+		return blockedColumns.size();
+	}
+}
@@ -0,0 +1,124 @@
+package rizinLayout.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks the phases of the engine against {@link ReferenceLayout}, on every
+ * {@link CfgShape} family and on random graphs. The reference is quadratic
+ * in places, so the graphs stay small.
+ */
+public class ReferenceLayoutTest {
+
+	private static final long SEED = 0x5EED;
+	private static final int RANDOM_GRAPHS = 200;
+
+	private static List<LayoutGraph> graphs() {
+		List<LayoutGraph> graphs = new ArrayList<LayoutGraph>();
+		for (int size : new int[] { 10, 100, 1000 }) {
+			for (LayoutGraph g : TestGraphs.shapes(size, SEED)) {
+				graphs.add(g);
+			}
+		}
+		for (int i = 0; i < RANDOM_GRAPHS; i++) {
+			graphs.add(TestGraphs.random(1 + i * 3, SEED + i));
+		}
+		return graphs;
+	}
+
+	private static RizinLayoutEngine engine(LayoutGraph g) {
+		RizinLayoutEngine engine = new RizinLayoutEngine(g);
+		engine.setMetrics(new LayoutMetrics());
+		engine.resetState();
+		return engine;
+	}
+
+	@Test
+	public void toposortMatchesReference() {
+		for (LayoutGraph g : graphs()) {
+			ReferenceLayout reference = new ReferenceLayout(g);
+			List<Integer> expected = reference.Toposort(g.entry);
+			RizinLayoutEngine engine = engine(g);
+			int[] sorted = engine.Toposort(g.entry);
+			assertArrayEquals(toArray(expected), sorted);
+			for (int v = 0; v < g.vertexCount; v++) {
+				int start = g.outOffsets[v];
+				assertArrayEquals(toArray(reference.gridNodes.get(v).dagEdges),
+					Arrays.copyOfRange(engine.ls.dagEdges, start, start + engine.ls.dagCount[v]));
+			}
+		}
+	}
+
+	@Test
+	public void columnsMatchReference() {
+		for (LayoutGraph g : graphs()) {
+			ReferenceLayout reference = referenceGrid(g);
+			RizinLayoutEngine engine = engine(g);
+			engine.ls.sorted_list = engine.Toposort(g.entry);
+			engine.assignRows();
+			engine.selectTree();
+			engine.findMergePoint();
+			engine.hashSubtrees();
+			engine.assignColumns();
+			for (int v = 0; v < g.vertexCount; v++) {
+				assertEquals("row of " + v, reference.gridNodes.get(v).row, engine.ls.row[v]);
+				assertEquals("column of " + v, reference.gridNodes.get(v).col, engine.ls.col[v]);
+			}
+		}
+	}
+
+	@Test
+	public void gridLayoutMatchesReference() {
+		for (LayoutGraph g : graphs()) {
+			ReferenceLayout reference = referenceGrid(g);
+			reference.computeGridSize();
+			GridLayout grid = engine(g).performInitialGridLayout();
+			int rows = 1;
+			for (int v = 0; v < g.vertexCount; v++) {
+				ReferenceLayout.Node node = reference.gridNodes.get(v);
+				assertEquals(node.row, grid.row[v]);
+				assertEquals(node.col, grid.col[v]);
+				rows = Math.max(rows, node.row + 1);
+			}
+			assertEquals(rows, grid.rows);
+			assertEquals(reference.columns, grid.columns);
+		}
+	}
+
+	@Test
+	public void mainColumnsMatchReference() {
+		for (LayoutGraph g : graphs()) {
+			ReferenceLayout reference = referenceGrid(g);
+			reference.computeGridSize();
+			reference.calculateEdgeMainColumn();
+			RizinLayoutEngine engine = engine(g);
+			engine.performInitialGridLayout();
+			engine.calculateEdgeMainColumn();
+			assertArrayEquals(reference.main_col, engine.ls.mainCol);
+		}
+	}
+
+	static ReferenceLayout referenceGrid(LayoutGraph g) {
+		ReferenceLayout reference = new ReferenceLayout(g);
+		reference.sorted_list = reference.Toposort(g.entry);
+		reference.assignRows();
+		reference.selectTree();
+		reference.findMergePoint();
+		reference.assignColumns();
+		return reference;
+	}
+
+	static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+}
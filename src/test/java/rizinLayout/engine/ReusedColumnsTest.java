@@ -0,0 +1,150 @@
+package rizinLayout.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link RizinLayoutEngine#performGridLayoutReusingColumns} gives
+ * the same grid as a full layout, after series of random edits of every
+ * {@link CfgShape} family. Every layout starts from the previous one, like
+ * successive edits of a function do.
+ */
+public class ReusedColumnsTest {
+
+	private static final int[] SIZES = { 50, 500, 3000 };
+	private static final int SEEDS = 4;
+	private static final int EDITS = 15;
+
+	@Test
+	public void reusedColumnsEqualFullLayout() {
+		checkEdits(0);
+	}
+
+	@Test
+	public void reusedColumnsEqualFullLayoutOnBoundedRows() {
+		checkEdits(8);
+	}
+
+	private static void checkEdits(int maxRowWidth) {
+		// Layouts that started from the previous one, and did not fall back
+		// to a full layout
+		int reusedCount = 0;
+		for (CfgShape shape : CfgShape.values()) {
+			for (int size : SIZES) {
+				for (int seed = 0; seed < SEEDS; seed++) {
+					Random random = new Random(seed * 31 + size);
+					LayoutGraph g = shape.generate(size, seed);
+					RizinLayoutEngine previous = engine(g, maxRowWidth);
+					previous.performInitialGridLayout();
+					for (int step = 0; step < EDITS; step++) {
+						g = edit(g, random);
+						String edit = shape + " " + size + " seed " + seed + " edit " + step;
+						RizinLayoutEngine reusing = engine(g, maxRowWidth);
+						GridLayout actual = reusing.performGridLayoutReusingColumns(previous);
+						if (reusing.ls.contours == previous.ls.contours) {
+							reusedCount++;
+						}
+						GridLayout expected = engine(g, maxRowWidth).performInitialGridLayout();
+						assertArrayEquals(edit, expected.row, actual.row);
+						assertArrayEquals(edit, expected.col, actual.col);
+						assertEquals(edit, expected.rows, actual.rows);
+						assertEquals(edit, expected.columns, actual.columns);
+						previous = reusing;
+					}
+				}
+			}
+		}
+		assertTrue(reusedCount > 0);
+	}
+
+	private static RizinLayoutEngine engine(LayoutGraph g, int maxRowWidth) {
+		RizinLayoutEngine engine = new RizinLayoutEngine(g);
+		engine.setMetrics(new LayoutMetrics());
+		engine.setMaxRowWidth(maxRowWidth);
+		return engine;
+	}
+
+	/**
+	 * Returns g with one random edit: a block split in two, a block grouped
+	 * with a successor, an edge added or an edge removed.
+	 */
+	static LayoutGraph edit(LayoutGraph g, Random random) {
+		int n = g.vertexCount;
+		List<int[]> edges = new ArrayList<int[]>();
+		for (int e = 0; e < g.edgeCount; e++) {
+			edges.add(new int[] { g.edgeFrom[e], g.edgeTo[e] });
+		}
+		int v = random.nextInt(n);
+		switch (random.nextInt(4)) {
+			case 0:
+				// The new block n takes the out edges of v
+				for (int[] edge : edges) {
+					if (edge[0] == v) {
+						edge[0] = n;
+					}
+				}
+				edges.add(new int[] { v, n });
+				return build(g, n + 1, g.entry, edges);
+			case 1:
+				int w = -1;
+				for (int[] edge : edges) {
+					if (edge[0] == v && edge[1] != v) {
+						w = edge[1];
+						break;
+					}
+				}
+				if (w == -1 || w == g.entry) {
+					return g;
+				}
+				// w is removed, its edges go to v, and the blocks after it shift
+				List<int[]> grouped = new ArrayList<int[]>();
+				Set<Long> seen = new HashSet<Long>();
+				for (int[] edge : edges) {
+					int from = edge[0] == w ? v : edge[0];
+					int to = edge[1] == w ? v : edge[1];
+					if (from == to) {
+						continue;
+					}
+					from = from > w ? from - 1 : from;
+					to = to > w ? to - 1 : to;
+					if (seen.add((long) from * n + to)) {
+						grouped.add(new int[] { from, to });
+					}
+				}
+				return build(g, n - 1, g.entry > w ? g.entry - 1 : g.entry, grouped);
+			case 2:
+				int target = random.nextInt(n);
+				if (target != v) {
+					edges.add(new int[] { v, target });
+				}
+				return build(g, n, g.entry, edges);
+			default:
+				if (!edges.isEmpty()) {
+					edges.remove(random.nextInt(edges.size()));
+				}
+				return build(g, n, g.entry, edges);
+		}
+	}
+
+	private static LayoutGraph build(LayoutGraph g, int vertexCount, int entry, List<int[]> edges) {
+		edges.sort(Comparator.comparingInt(edge -> edge[0]));
+		LayoutGraph.Builder b = new LayoutGraph.Builder(vertexCount, edges.size());
+		for (int v = 0; v < vertexCount; v++) {
+			b.addVertex(100, 50);
+		}
+		for (int[] edge : edges) {
+			b.addEdge(edge[0], edge[1]);
+		}
+		return b.setEntry(entry).build();
+	}
+}
@@ -0,0 +1,209 @@
+package rizinLayout.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that a graph numbered by {@link CanonicalGraph} gets the same
+ * structural hash whatever order its vertices and edges come in, as from the
+ * hash sets of a Ghidra graph, the same for the provider and the prefetcher,
+ * and that the hash tells edited graphs apart.
+ */
+public class StructuralHashTest {
+
+	private static final long SEED = 0x5EED;
+	private static final int SHUFFLES = 5;
+
+	/** Vertex of a graph given to CanonicalGraph, numbered by address */
+	private static final class Block {
+		final long address;
+
+		Block(long address) {
+			this.address = address;
+		}
+	}
+
+	private static final Comparator<Block> BY_ADDRESS = Comparator.comparingLong(b -> b.address);
+
+	@Test
+	public void hashIndependentOfInsertionOrder() {
+		Random random = new Random(SEED);
+		for (int i = 0; i < 50; i++) {
+			LayoutGraph g = TestGraphs.random(1 + i * 20, SEED + i);
+			Block[] blocks = blocks(g, random);
+			CanonicalGraph<Block, Integer> first = canonical(g, blocks, random);
+			for (int s = 0; s < SHUFFLES; s++) {
+				CanonicalGraph<Block, Integer> shuffled = canonical(g, blocks, random);
+				assertEquals(StructuralHash.of(first.graph), StructuralHash.of(shuffled.graph));
+				assertEquals(first.getVertices(), shuffled.getVertices());
+				assertArrayEquals(first.graph.edgeFrom, shuffled.graph.edgeFrom);
+				assertArrayEquals(first.graph.edgeTo, shuffled.graph.edgeTo);
+				assertArrayEquals(first.graph.width, shuffled.graph.width);
+				assertEquals(first.graph.entry, shuffled.graph.entry);
+			}
+			// Vertices by address, and every edge between the same blocks
+			for (int v = 1; v < g.getVertexCount(); v++) {
+				assertTrue(BY_ADDRESS.compare(first.getVertices().get(v - 1),
+					first.getVertices().get(v)) < 0);
+			}
+			for (int e = 0; e < g.getEdgeCount(); e++) {
+				int original = first.getEdges().get(e);
+				assertEquals(blocks[g.getEdgeFrom(original)],
+					first.getVertices().get(first.graph.getEdgeFrom(e)));
+				assertEquals(blocks[g.getEdgeTo(original)],
+					first.getVertices().get(first.graph.getEdgeTo(e)));
+			}
+		}
+	}
+
+	@Test
+	public void prefetchHashMatchesProviderHash() {
+		Random random = new Random(SEED);
+		for (int i = 0; i < 50; i++) {
+			LayoutGraph g = TestGraphs.random(1 + i * 20, SEED + i);
+			Block[] blocks = blocks(g, random);
+			// Every flow once, in the order of the hash sets of a function graph
+			List<Long> flows = new ArrayList<Long>();
+			for (int e = 0; e < g.getEdgeCount(); e++) {
+				long flow = ((long) g.getEdgeFrom(e) << 32) | g.getEdgeTo(e);
+				if (!flows.contains(flow)) {
+					flows.add(flow);
+				}
+			}
+			List<Integer> vertexOrder = new ArrayList<Integer>();
+			for (int v = 0; v < g.getVertexCount(); v++) {
+				vertexOrder.add(v);
+			}
+			Collections.shuffle(vertexOrder, random);
+			Collections.shuffle(flows, random);
+			CanonicalGraph.Builder<Block, Long> provider = newStructureBuilder(g);
+			for (int v : vertexOrder) {
+				provider.addVertex(blocks[v], 0, 0);
+			}
+			provider.setEntry(blocks[g.getEntry()]);
+			for (long flow : flows) {
+				provider.addEdge(flow, blocks[(int) (flow >>> 32)], blocks[(int) flow]);
+			}
+
+			// Other blocks of the same addresses, by address, and a flow for
+			// every reference, some blocks having several to the same target
+			Block[] prefetchBlocks = new Block[blocks.length];
+			CanonicalGraph.Builder<Block, Long> prefetch = newStructureBuilder(g);
+			for (int v = 0; v < blocks.length; v++) {
+				prefetchBlocks[v] = new Block(blocks[v].address);
+			}
+			Block[] byAddress = prefetchBlocks.clone();
+			Arrays.sort(byAddress, BY_ADDRESS);
+			for (Block block : byAddress) {
+				prefetch.addVertex(block, 0, 0);
+			}
+			prefetch.setEntry(prefetchBlocks[g.getEntry()]);
+			for (int e = 0; e < g.getEdgeCount(); e++) {
+				for (int r = random.nextInt(3); r >= 0; r--) {
+					prefetch.addEdge((long) e, prefetchBlocks[g.getEdgeFrom(e)],
+						prefetchBlocks[g.getEdgeTo(e)]);
+				}
+			}
+
+			LayoutGraph providerGraph = provider.build().graph;
+			LayoutGraph prefetchGraph = prefetch.build().graph;
+			assertEquals(flows.size(), prefetchGraph.getEdgeCount());
+			assertEquals(StructuralHash.of(providerGraph), StructuralHash.of(prefetchGraph));
+		}
+	}
+
+	@Test
+	public void hashTellsEditedGraphsApart() {
+		LayoutGraph g = TestGraphs.random(300, SEED);
+		StructuralHash hash = StructuralHash.of(g);
+		assertEquals(hash, StructuralHash.of(TestGraphs.random(300, SEED)));
+
+		LayoutGraph.Builder withEdge = copy(g, 0);
+		withEdge.addEdge(0, 0);
+		assertNotEquals(hash, StructuralHash.of(withEdge.build()));
+
+		LayoutGraph.Builder wider = copy(g, 1);
+		assertNotEquals(hash, StructuralHash.of(wider.build()));
+
+		LayoutGraph.Builder otherEntry = copy(g, 0);
+		otherEntry.setEntry((g.getEntry() + 1) % g.getVertexCount());
+		assertNotEquals(hash, StructuralHash.of(otherEntry.build()));
+	}
+
+	/**
+	 * Returns a copy of g, the first vertex widened by extraWidth.
+	 */
+	private static LayoutGraph.Builder copy(LayoutGraph g, int extraWidth) {
+		LayoutGraph.Builder builder = new LayoutGraph.Builder(g.getVertexCount(), g.getEdgeCount());
+		for (int v = 0; v < g.getVertexCount(); v++) {
+			builder.addVertex(g.getWidth(v) + (v == 0 ? extraWidth : 0), g.getHeight(v));
+		}
+		for (int e = 0; e < g.getEdgeCount(); e++) {
+			builder.addEdge(g.getEdgeFrom(e), g.getEdgeTo(e));
+		}
+		builder.setEntry(g.getEntry());
+		return builder;
+	}
+
+	/**
+	 * Returns a builder for the structure of g, one edge of every pair of
+	 * vertices like the provider and the prefetcher build function graphs.
+	 */
+	private static CanonicalGraph.Builder<Block, Long> newStructureBuilder(LayoutGraph g) {
+		return new CanonicalGraph.Builder<Block, Long>(BY_ADDRESS, g.getVertexCount(),
+			g.getEdgeCount()).mergeParallelEdges();
+	}
+
+	/**
+	 * Returns a block of a distinct random address for every vertex of g.
+	 */
+	private static Block[] blocks(LayoutGraph g, Random random) {
+		Block[] blocks = new Block[g.getVertexCount()];
+		for (int v = 0; v < blocks.length; v++) {
+			// Distinct, in no relation to the vertex ids
+			blocks[v] = new Block(((long) random.nextInt(1 << 20) << 20) | v);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Gives the vertices and edges of g, as blocks and edge ids, to a
+	 * CanonicalGraph in a random order.
+	 */
+	private static CanonicalGraph<Block, Integer> canonical(LayoutGraph g, Block[] blocks,
+			Random random) {
+		List<Integer> vertexOrder = new ArrayList<Integer>();
+		for (int v = 0; v < g.getVertexCount(); v++) {
+			vertexOrder.add(v);
+		}
+		List<Integer> edgeOrder = new ArrayList<Integer>();
+		for (int e = 0; e < g.getEdgeCount(); e++) {
+			edgeOrder.add(e);
+		}
+		Collections.shuffle(vertexOrder, random);
+		Collections.shuffle(edgeOrder, random);
+
+		CanonicalGraph.Builder<Block, Integer> builder =
+			new CanonicalGraph.Builder<Block, Integer>(BY_ADDRESS, g.getVertexCount(),
+				g.getEdgeCount());
+		for (int v : vertexOrder) {
+			builder.addVertex(blocks[v], g.getWidth(v), g.getHeight(v));
+		}
+		builder.setEntry(blocks[g.getEntry()]);
+		for (int e : edgeOrder) {
+			builder.addEdge(e, blocks[g.getEdgeFrom(e)], blocks[g.getEdgeTo(e)]);
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,79 @@
+package rizinLayout.engine;
+
+import java.util.Random;
+
+/**
+ * Graphs of the equivalence and invariant tests, on top of {@link CfgShape}.
+ */
+final class TestGraphs {
+
+	private TestGraphs() {
+	}
+
+	/**
+	 * Returns the graphs of parts side by side, with the entry of the first
+	 * one. Every part is a spanning tree of its own, so this is a graph of
+	 * several trees rooted on row 0, like a function with orphaned blocks.
+	 */
+	static LayoutGraph disjointUnion(LayoutGraph... parts) {
+		int vertexCount = 0;
+		int edgeCount = 0;
+		for (LayoutGraph part : parts) {
+			vertexCount += part.vertexCount;
+			edgeCount += part.edgeCount;
+		}
+		LayoutGraph.Builder b = new LayoutGraph.Builder(vertexCount, edgeCount);
+		int first = 0;
+		for (LayoutGraph part : parts) {
+			for (int v = 0; v < part.vertexCount; v++) {
+				b.addVertex(part.width[v], part.height[v]);
+			}
+			for (int e = 0; e < part.edgeCount; e++) {
+				b.addEdge(first + part.edgeFrom[e], first + part.edgeTo[e]);
+			}
+			first += part.vertexCount;
+		}
+		return b.setEntry(parts[0].entry).build();
+	}
+
+	/**
+	 * Returns one graph of every {@link CfgShape}, of about size vertices,
+	 * with orphaned copies of smaller ones next to it.
+	 */
+	static LayoutGraph[] shapes(int size, long seed) {
+		CfgShape[] shapes = CfgShape.values();
+		LayoutGraph[] graphs = new LayoutGraph[shapes.length];
+		for (int i = 0; i < shapes.length; i++) {
+			LayoutGraph[] parts = new LayoutGraph[4];
+			parts[0] = shapes[i].generate(size, seed + i);
+			for (int p = 1; p < parts.length; p++) {
+				parts[p] = shapes[(i + p) % shapes.length].generate(size / (p * 4), seed + i + p);
+			}
+			graphs[i] = disjointUnion(parts);
+		}
+		return graphs;
+	}
+
+	/**
+	 * Returns a graph of vertexCount vertices of random sizes and up to
+	 * three out edges each, to random targets: back edges, self loops and
+	 * duplicate edges included.
+	 */
+	static LayoutGraph random(int vertexCount, long seed) {
+		Random random = new Random(seed);
+		LayoutGraph.Builder b = new LayoutGraph.Builder(vertexCount, vertexCount * 2);
+		for (int v = 0; v < vertexCount; v++) {
+			b.addVertex(50 + random.nextInt(400), 20 + random.nextInt(300));
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			int outDegree = random.nextInt(4);
+			for (int i = 0; i < outDegree; i++) {
+				// Mostly forward and close, like code
+				int target = random.nextInt(4) == 0 ? random.nextInt(vertexCount) :
+					Math.min(vertexCount - 1, v + 1 + random.nextInt(8));
+				b.addEdge(v, target);
+			}
+		}
+		return b.setEntry(0).build();
+	}
+}
@@ -0,0 +1,71 @@
+package rizinLayout.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Records graphs to a corpus and replays them, from the recorder that wrote
+ * them and from a new one.
+ */
+public class TopologyRecorderTest {
+
+	private static final long SEED = 0x5EED;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recordedGraphsReplay() throws IOException {
+		Path path = folder.getRoot().toPath().resolve("corpus.rztc");
+		List<LayoutGraph> graphs =
+			new ArrayList<LayoutGraph>(Arrays.asList(TestGraphs.shapes(500, SEED)));
+		for (int i = 0; i < 20; i++) {
+			graphs.add(TestGraphs.random(1 + i * 37, SEED + i));
+		}
+
+		TopologyRecorder recorder = new TopologyRecorder(path);
+		for (LayoutGraph g : graphs) {
+			assertTrue(recorder.record(g));
+		}
+		// Same structures, not recorded twice
+		assertFalse(recorder.record(graphs.get(0)));
+		assertFalse(new TopologyRecorder(path).record(TestGraphs.random(1, SEED)));
+
+		List<LayoutGraph> replayed = new ArrayList<LayoutGraph>();
+		TopologyRecorder.read(path, replayed::add);
+		assertEquals(graphs.size(), replayed.size());
+		for (int i = 0; i < graphs.size(); i++) {
+			assertSameGraph(graphs.get(i), replayed.get(i));
+		}
+
+		// A new recorder appends after the graphs of the file
+		LayoutGraph added = TestGraphs.random(2000, SEED);
+		assertTrue(new TopologyRecorder(path).record(added));
+		replayed.clear();
+		TopologyRecorder.read(path, replayed::add);
+		assertEquals(graphs.size() + 1, replayed.size());
+		assertSameGraph(added, replayed.get(graphs.size()));
+	}
+
+	private static void assertSameGraph(LayoutGraph expected, LayoutGraph actual) {
+		assertEquals(expected.vertexCount, actual.vertexCount);
+		assertEquals(expected.entry, actual.entry);
+		assertArrayEquals(expected.width, actual.width);
+		assertArrayEquals(expected.height, actual.height);
+		assertArrayEquals(expected.edgeFrom, actual.edgeFrom);
+		assertArrayEquals(expected.edgeTo, actual.edgeTo);
+		assertEquals(StructuralHash.of(expected), StructuralHash.of(actual));
+	}
+}